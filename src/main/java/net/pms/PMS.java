@@ -34,6 +34,8 @@ import net.pms.configuration.PmsConfiguration;
 import net.pms.configuration.RendererConfiguration;
 import net.pms.dlna.DLNAMediaDatabase;
 import net.pms.dlna.DLNAResource;
+import net.pms.dlna.DidlCache;
+import net.pms.dlna.PreParser;
 import net.pms.dlna.RootFolder;
 import net.pms.dlna.virtual.MediaLibrary;
 import net.pms.encoders.Player;
@@ -107,6 +109,10 @@ public class PMS {
 	/**
 	 * Returns the root folder for a given renderer. There could be the case
 	 * where a given media renderer needs a different root structure.
+	 * <p>
+	 * Each tree only holds the renderer specific view of the content
+	 * (filtering, transcode folders, MIME types): the media information of
+	 * the files is parsed once and shared by all trees.
 	 *
 	 * @param renderer {@link net.pms.configuration.RendererConfiguration}
 	 * is the renderer for which to get the RootFolder structure. If <code>null</code>,
@@ -114,7 +120,6 @@ public class PMS {
 	 * @return {@link net.pms.dlna.RootFolder} The root folder structure for a given renderer
 	 */
 	public RootFolder getRootFolder(RendererConfiguration renderer) {
-		// something to do here for multiple directories views for each renderer
 		if (renderer == null) {
 			renderer = RendererConfiguration.getDefaultConf();
 		}
@@ -708,7 +713,8 @@ public class PMS {
 		// XXX: this must be called:
 		//     a) *after* loading plugins i.e. plugins register root folders then RootFolder.discoverChildren adds them
 		//     b) *after* mediaLibrary is initialized, if enabled (above)
-		getRootFolder(RendererConfiguration.getDefaultConf());
+		RootFolder root = getRootFolder(RendererConfiguration.getDefaultConf());
+		PreParser.getInstance().parseLibrary(root);
 
 		frame.serverReady();
 
@@ -736,6 +742,10 @@ public class PMS {
 						}
 					}
 
+					if (database != null) {
+						database.flush();
+					}
+
 					get().getServer().stop();
 					Thread.sleep(500);
 				} catch (InterruptedException e) {
@@ -901,6 +911,7 @@ public class PMS {
 					server.stop();
 					server = null;
 					RendererConfiguration.resetAllRenderers();
+					DidlCache.getInstance().clear();
 
 					try {
 						Thread.sleep(1000);
@@ -99,6 +99,9 @@ public class PmsConfiguration {
 	private static final String KEY_CHAPTER_INTERVAL = "chapter_interval";
 	private static final String KEY_CHAPTER_SUPPORT = "chapter_support";
 	private static final String KEY_MENCODER_CODEC_SPECIFIC_SCRIPT = "mencoder_codec_specific_script";
+	private static final String KEY_DATABASE_WRITE_BATCH_SIZE = "database_write_batch_size";
+	private static final String KEY_DATABASE_WRITE_DELAY = "database_write_delay";
+	private static final String KEY_DIDL_CACHE_SIZE = "didl_cache_size";
 	private static final String KEY_DISABLE_FAKESIZE = "disable_fakesize";
 	public static final String KEY_DISABLE_SUBTITLES = "disable_subtitles";
 	private static final String KEY_DVDISO_THUMBNAILS = "dvd_isos_thumbnails";
@@ -144,8 +147,10 @@ public class PmsConfiguration {
 	private static final String KEY_SHOW_IPHOTO_LIBRARY = "show_iphoto_library";
 	private static final String KEY_SHOW_ITUNES_LIBRARY = "show_itunes_library";
 	private static final String KEY_LANGUAGE = "language";
+	private static final String KEY_LAZY_FOLDER_LIMIT = "lazy_folder_limit";
 	private static final String KEY_MAX_AUDIO_BUFFER = "maximum_audio_buffer_size";
 	private static final String KEY_MAX_BITRATE = "maximum_bitrate";
+	private static final String KEY_MEDIAINFO_HANDLES = "mediainfo_handles";
 	private static final String KEY_MEDIA_LIB_SORT = "media_lib_sort";
 	private static final String KEY_MAX_MEMORY_BUFFER_SIZE = "maximum_video_buffer_size";
 	private static final String KEY_MENCODER_ASS = "mencoder_ass";
@@ -190,20 +195,28 @@ public class PmsConfiguration {
 	private static final String KEY_LIVE_SUBTITLES_LIMIT = "live_subtitles_limit";
 	private static final String KEY_LIVE_SUBTITLES_KEEP = "live_subtitles_keep";
 	private static final String KEY_OVERSCAN = "mencoder_overscan";
+	private static final String KEY_PARSE_TIMEOUT = "parse_timeout";
 	private static final String KEY_PING_PATH = "ping_path";
 	private static final String KEY_PLUGIN_DIRECTORY = "plugins";
 	private static final String KEY_PLUGIN_PURGE_ACTION = "plugin_purge";
+	private static final String KEY_PREPARSE_LIBRARY = "preparse_library";
+	private static final String KEY_PREPARSE_QUEUE_SIZE = "preparse_queue_size";
 	private static final String KEY_PREVENTS_SLEEP = "prevents_sleep_mode";
 	private static final String KEY_PRETTIFY_FILENAMES = "prettify_filenames";
 	private static final String KEY_PROFILE_NAME = "name";
 	private static final String KEY_PROXY_SERVER_PORT = "proxy";
 	private static final String KEY_RENDERER_DEFAULT = "renderer_default";
 	private static final String KEY_RENDERER_FORCE_DEFAULT = "renderer_force_default";
+	private static final String KEY_RESOLVER_THREADS = "resolver_threads";
+	private static final String KEY_RESOLVER_THREADS_PER_DEVICE = "resolver_threads_per_device";
+	private static final String KEY_RESOLVER_TIMEOUT = "resolver_timeout";
 	private static final String KEY_RESUME = "resume";
 	private static final String KEY_RESUME_REWIND = "resume_rewind";
 	private static final String KEY_RESUME_BACK = "resume_back";
 	private static final String KEY_RESUME_KEEP_TIME = "resume_keep_time";
 	private static final String KEY_RUN_WIZARD = "run_wizard";
+	private static final String KEY_SCAN_THREADS = "scan_threads";
+	private static final String KEY_SCAN_THREADS_PER_DEVICE = "scan_threads_per_device";
 	private static final String KEY_SCRIPT_DIR = "script_dir";
 	private static final String KEY_SEARCH_FOLDER = "search_folder";
 	private static final String KEY_SEARCH_IN_FOLDER = "search_in_folder";
@@ -225,7 +238,11 @@ public class PmsConfiguration {
 	private static final String KEY_SUBTITLES_LANGUAGES = "subtitles_languages";
 	private static final String KEY_TEMP_FOLDER_PATH = "temp_directory";
 	private static final String KEY_THUMBNAIL_GENERATION_ENABLED = "generate_thumbnails";
+	private static final String KEY_THUMBNAIL_MEMORY_SIZE = "thumbnail_memory_size";
 	private static final String KEY_THUMBNAIL_SEEK_POS = "thumbnail_seek_position";
+	private static final String KEY_THUMBNAIL_STORE_SIZE = "thumbnail_store_size";
+	private static final String KEY_THUMBNAIL_THREADS = "thumbnail_threads";
+	private static final String KEY_THUMBNAIL_WAIT = "thumbnail_wait";
 	private static final String KEY_TRANSCODE_BLOCKS_MULTIPLE_CONNECTIONS = "transcode_block_multiple_connections";
 	private static final String KEY_TRANSCODE_FOLDER_NAME = "transcode_folder_name";
 	private static final String KEY_TRANSCODE_KEEP_FIRST_CONNECTION = "transcode_keep_first_connection";
@@ -245,6 +262,7 @@ public class PmsConfiguration {
 	private static final String KEY_VLC_SCALE = "vlc_scale";
 	private static final String KEY_VLC_SAMPLE_RATE_OVERRIDE = "vlc_sample_rate_override";
 	private static final String KEY_VLC_SAMPLE_RATE = "vlc_sample_rate";
+	private static final String KEY_WATCH_FOLDERS = "watch_folders";
 	private static final String KEY_WEB_AUTHENTICATE = "web_authenticate";
 	private static final String KEY_WEB_CONF_PATH = "web_conf";
 	private static final String KEY_WEB_CONT_AUDIO = "web_continue_audio";
@@ -305,6 +323,7 @@ public class PmsConfiguration {
 			KEY_HIDE_VIDEO_SETTINGS,
 			KEY_IGNORE_THE_WORD_THE,
 			KEY_IP_FILTER,
+			KEY_LAZY_FOLDER_LIMIT,
 			KEY_NETWORK_INTERFACE,
 			KEY_OPEN_ARCHIVES,
 			KEY_PRETTIFY_FILENAMES,
@@ -945,6 +964,28 @@ public class PmsConfiguration {
 		configuration.setProperty(KEY_THUMBNAIL_SEEK_POS, value);
 	}
 
+	/**
+	 * Returns the number of thumbnails that are generated at the same time,
+	 * whatever the number of requests. Default value is 2.
+	 *
+	 * @return The number of thumbnail generation threads.
+	 */
+	public int getThumbnailThreads() {
+		return Math.max(getInt(KEY_THUMBNAIL_THREADS, 2), 1);
+	}
+
+	/**
+	 * Returns the number of seconds a thumbnail request waits for the
+	 * thumbnail to be generated. When this delay expires, a placeholder is
+	 * sent instead, and the thumbnail keeps being generated for the next
+	 * request. Default value is 2 seconds.
+	 *
+	 * @return The thumbnail wait in seconds.
+	 */
+	public int getThumbnailWait() {
+		return Math.max(getInt(KEY_THUMBNAIL_WAIT, 2), 0);
+	}
+
 	/**
 	 * Returns whether the user wants ASS/SSA subtitle support. Default is
 	 * true.
@@ -1508,6 +1549,167 @@ public class PmsConfiguration {
 		configuration.setProperty(KEY_NUMBER_OF_CPU_CORES, value);
 	}
 
+	/**
+	 * Returns the number of threads of the server-wide pool that resolves
+	 * (analyzes) the children of browsed folders. Default value is the
+	 * number of available processors, but at least 3.
+	 *
+	 * @return The number of resolver threads.
+	 */
+	public int getResolverThreads() {
+		int nbcores = Runtime.getRuntime().availableProcessors();
+		return Math.max(getInt(KEY_RESOLVER_THREADS, Math.max(nbcores, 3)), 1);
+	}
+
+	/**
+	 * Returns the maximum number of resources that are resolved at the same
+	 * time on a single device (disk, network share, DVD drive...).
+	 * Default value is 3.
+	 *
+	 * @return The maximum number of concurrent resolves per device.
+	 */
+	public int getResolverThreadsPerDevice() {
+		return Math.max(getInt(KEY_RESOLVER_THREADS_PER_DEVICE, 3), 1);
+	}
+
+	/**
+	 * Returns the number of seconds a Browse request waits for the children
+	 * it returns to be resolved. Children that are not resolved when this
+	 * delay expires are returned with the metadata that is already known,
+	 * and keep being resolved in the background. Default value is 5 seconds.
+	 *
+	 * @return The resolve timeout in seconds.
+	 */
+	public int getResolverTimeout() {
+		return Math.max(getInt(KEY_RESOLVER_TIMEOUT, 5), 0);
+	}
+
+	/**
+	 * Returns the number of seconds the analysis of a file waits for the
+	 * same file to be parsed by another thread. When this delay expires,
+	 * the file is left unparsed instead of being parsed twice. Default
+	 * value is 30 seconds.
+	 *
+	 * @return The parse timeout in seconds.
+	 */
+	public int getParseTimeout() {
+		return Math.max(getInt(KEY_PARSE_TIMEOUT, 30), 1);
+	}
+
+	/**
+	 * Returns the maximum number of files waiting to be parsed in the
+	 * background, before renderers browse them: the rest of the browsed
+	 * folder, the folders next to it and, if enabled, the whole media
+	 * library. When the queue is full, files are parsed when they are
+	 * browsed. 0 disables the background parsing, which also needs the
+	 * cache to be enabled. Default value is 500.
+	 *
+	 * @return The size of the background parsing queue.
+	 */
+	public int getPreparseQueueSize() {
+		return Math.max(getInt(KEY_PREPARSE_QUEUE_SIZE, 500), 0);
+	}
+
+	/**
+	 * Returns whether the files of the whole media library are parsed in
+	 * the background after startup, when the server is idle. Default value
+	 * is false.
+	 *
+	 * @return True if the media library is parsed in the background.
+	 */
+	public boolean isPreparseLibrary() {
+		return getBoolean(KEY_PREPARSE_LIBRARY, false);
+	}
+
+	/**
+	 * Returns the number of threads that scan the media library, each of
+	 * them scanning a different folder. Default value is the number of
+	 * available processors.
+	 *
+	 * @return The number of scan threads.
+	 */
+	public int getScanThreads() {
+		int nbcores = Runtime.getRuntime().availableProcessors();
+		return Math.max(getInt(KEY_SCAN_THREADS, nbcores), 1);
+	}
+
+	/**
+	 * Returns the maximum number of folders of a single device (disk,
+	 * network share...) that are scanned at the same time, so that a
+	 * spinning disk isn't slowed down by too many concurrent reads.
+	 * Default value is 2.
+	 *
+	 * @return The maximum number of folders scanned at once per device.
+	 */
+	public int getScanThreadsPerDevice() {
+		return Math.max(getInt(KEY_SCAN_THREADS_PER_DEVICE, 2), 1);
+	}
+
+	/**
+	 * Returns the number of parsed files whose entries are written to the
+	 * media database in a single transaction. Default value is 100.
+	 *
+	 * @return The number of entries written at once.
+	 */
+	public int getDatabaseWriteBatchSize() {
+		return Math.max(getInt(KEY_DATABASE_WRITE_BATCH_SIZE, 100), 1);
+	}
+
+	/**
+	 * Returns the maximum time, in milliseconds, that the entry of a parsed
+	 * file waits for others before it is written to the media database.
+	 * Default value is 2000.
+	 *
+	 * @return The maximum delay in milliseconds.
+	 */
+	public int getDatabaseWriteDelay() {
+		return Math.max(getInt(KEY_DATABASE_WRITE_DELAY, 2000), 0);
+	}
+
+	/**
+	 * Returns the maximum size, in megabytes, of the thumbnails stored on
+	 * disk for the media cache. The least recently used thumbnails are
+	 * deleted when it is exceeded. Default value is 500.
+	 *
+	 * @return The maximum size of the thumbnail store in megabytes.
+	 */
+	public int getThumbnailStoreSize() {
+		return Math.max(getInt(KEY_THUMBNAIL_STORE_SIZE, 500), 1);
+	}
+
+	/**
+	 * Returns the maximum size, in megabytes, of the stored thumbnails that
+	 * are kept in memory. Default value is 16.
+	 *
+	 * @return The maximum size of the thumbnails in memory in megabytes.
+	 */
+	public int getThumbnailMemorySize() {
+		return Math.max(getInt(KEY_THUMBNAIL_MEMORY_SIZE, 16), 0);
+	}
+
+	/**
+	 * Returns the number of native MediaInfo handles, i.e. the maximum
+	 * number of files parsed by MediaInfo at the same time. Default value
+	 * is the number of available processors.
+	 *
+	 * @return The number of MediaInfo handles.
+	 */
+	public int getMediaInfoHandles() {
+		int nbcores = Runtime.getRuntime().availableProcessors();
+		return Math.max(getInt(KEY_MEDIAINFO_HANDLES, nbcores), 1);
+	}
+
+	/**
+	 * Returns the maximum number of DIDL-Lite fragments kept in memory to
+	 * answer the Browse requests of renderers without rendering the same
+	 * items again. 0 disables the cache. Default value is 2000.
+	 *
+	 * @return The maximum number of cached fragments.
+	 */
+	public int getDidlCacheSize() {
+		return Math.max(getInt(KEY_DIDL_CACHE_SIZE, 2000), 0);
+	}
+
 	/**
 	 * Returns true if PMS should start minimized, i.e. without its window
 	 * opened. Default value false: to start with a window.
@@ -1663,6 +1865,19 @@ public class PmsConfiguration {
 		return getBoolean(KEY_USE_CACHE, true);
 	}
 
+	/**
+	 * Returns true if shared folders should be watched for changes with the
+	 * file system events of the operating system, so that they are only
+	 * listed again when they have changed. Folders that can't be watched,
+	 * e.g. on network shares, are still checked on every access.
+	 * Default value is true.
+	 *
+	 * @return True if folders should be watched.
+	 */
+	public boolean isWatchFolders() {
+		return getBoolean(KEY_WATCH_FOLDERS, true);
+	}
+
 	/**
 	 * Set to true if PMS should cache scanned media in its internal database,
 	 * speeding up later retrieval.
@@ -2913,6 +3128,18 @@ public class PmsConfiguration {
 		}
 	}
 
+	/**
+	 * Returns the number of entries above which the children of a folder
+	 * are created up to the last page renderers browse, and only parsed
+	 * page by page, instead of all at once. 0 disables it. Default value
+	 * is 1000.
+	 *
+	 * @return The minimum number of entries of lazily enumerated folders.
+	 */
+	public int getLazyFolderLimit() {
+		return Math.max(getInt(KEY_LAZY_FOLDER_LIMIT, 1000), 0);
+	}
+
 	public String getDataDir() {
 		return getProfileDirectory() + File.separator + "data";
 	}
@@ -0,0 +1,482 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server-wide executor that resolves (analyzes) the children returned by
+ * Browse requests. It replaces the thread pool that used to be created for
+ * every request:
+ * <ul>
+ * <li>a single pool of daemon threads bounds the number of concurrent
+ * {@link DLNAResource#resolve()} calls, whatever the number of renderers,</li>
+ * <li>the resources of a device (see {@link DLNAResource#getAnalysisDevice()})
+ * are resolved by a limited number of those threads at a time, so a slow disk
+ * or a DVD drive can't take the whole pool,</li>
+ * <li>callers wait for their resources up to a deadline and then return
+ * whatever metadata is known; the remaining work keeps running in the
+ * background.</li>
+ * </ul>
+ * <p>
+ * The same threads run background work, such as the pre-parsing of the
+ * files a renderer is likely to browse next (see {@link PreParser}). Every
+ * task has a {@link Priority}: waiting tasks are started in order of
+ * priority, on the pool as well as on every device, and background tasks
+ * never take the last thread of the pool (unless it has a single one), so
+ * that Browse requests are served first. The number of waiting background
+ * tasks is bounded: when the queue is full, new background work is either
+ * refused or has to wait for room (see {@link #offer(Runnable, String, Priority)} and
+ * {@link #put(Runnable, String, Priority)}).
+ */
+public class AnalysisExecutor {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AnalysisExecutor.class);
+	private static AnalysisExecutor instance;
+
+	/**
+	 * The priority classes of the tasks, from the most to the least urgent.
+	 */
+	public enum Priority {
+		/** The resources of the page a renderer is waiting for. */
+		PAGE,
+		/** The rest of the folder being browsed. */
+		FOLDER,
+		/** The folders next to the one being browsed. */
+		SIBLINGS,
+		/** The rest of the media library. */
+		LIBRARY
+	}
+
+	private final ThreadPoolExecutor pool;
+	private final int threadsPerDevice;
+	private final int backgroundThreads;
+	private final AtomicInteger backgroundRunning = new AtomicInteger();
+	private final Semaphore backgroundRoom;
+	private final AtomicLong sequence = new AtomicLong();
+	private final AtomicLong refused = new AtomicLong();
+	// The queues of the devices, by device
+	private final Map<String, DeviceQueue> devices = new HashMap<>();
+
+	// The tasks that are not bound to a device
+	private final DeviceQueue unbound = new DeviceQueue(Integer.MAX_VALUE);
+
+	public static synchronized AnalysisExecutor getInstance() {
+		if (instance == null) {
+			PmsConfiguration configuration = PMS.getConfiguration();
+			instance = new AnalysisExecutor(configuration.getResolverThreads(), configuration.getResolverThreadsPerDevice(), configuration.getPreparseQueueSize());
+		}
+
+		return instance;
+	}
+
+	/**
+	 * @param threads The size of the shared pool.
+	 * @param threadsPerDevice The default maximum number of resources
+	 *                         resolved at once on a single device.
+	 * @param queueSize The maximum number of background tasks waiting or
+	 *                  running at once.
+	 */
+	public AnalysisExecutor(int threads, int threadsPerDevice, int queueSize) {
+		this.threadsPerDevice = threadsPerDevice;
+		backgroundThreads = Math.max(threads - 1, 1);
+		backgroundRoom = new Semaphore(Math.max(queueSize, 0));
+		pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+			int counter = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "resolver-" + (counter++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		pool.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Resolves the given resources and waits until they are all resolved or
+	 * until the timeout expires, whichever comes first.
+	 *
+	 * @param resources The resources to resolve.
+	 * @param device The key of the device the resources are read from, or
+	 *               null if they are not bound to a device.
+	 * @param maxConcurrent The maximum number of resources of this device
+	 *                      resolved at once, or 0 for the configured default.
+	 *                      A lower limit only applies to the resources it
+	 *                      was given for; they still count towards the
+	 *                      limit of their device.
+	 * @param timeout The maximum time to wait, in milliseconds.
+	 * @return True if all resources were resolved in time, false otherwise.
+	 */
+	public boolean resolve(List<DLNAResource> resources, String device, int maxConcurrent, long timeout) {
+		final CountDownLatch done = new CountDownLatch(resources.size());
+		DeviceQueue queue = getDeviceQueue(device);
+		int limit = device != null && maxConcurrent > 0 ? Math.min(maxConcurrent, threadsPerDevice) : Integer.MAX_VALUE;
+
+		for (final DLNAResource resource : resources) {
+			queue.submit(new Task(Priority.PAGE, sequence.incrementAndGet(), limit, new Runnable() {
+				@Override
+				public void run() {
+					try {
+						resource.run();
+					} catch (Throwable t) {
+						LOGGER.error("Error while resolving \"{}\"", resource.getName(), t);
+					} finally {
+						done.countDown();
+					}
+				}
+			}));
+		}
+
+		try {
+			if (!done.await(timeout, TimeUnit.MILLISECONDS)) {
+				LOGGER.debug("{} of {} resources were not resolved after {} ms, they will be resolved in the background", done.getCount(), resources.size(), timeout);
+				return false;
+			}
+		} catch (InterruptedException e) {
+			LOGGER.debug("Interrupted while waiting for resources to be resolved");
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Queues a background task if the queue isn't full, without waiting.
+	 * Meant for work that is only worth doing if there is room for it.
+	 *
+	 * @param task The task.
+	 * @param device The key of the device the task reads from, or null.
+	 * @param priority The priority of the task, lower than {@link Priority#PAGE}.
+	 * @return True if the task has been queued, false if it was refused.
+	 */
+	public boolean offer(Runnable task, String device, Priority priority) {
+		if (!backgroundRoom.tryAcquire()) {
+			long count = refused.incrementAndGet();
+
+			if (count % 100 == 1) {
+				LOGGER.trace("The background queue is full, {} tasks have been refused so far", count);
+			}
+
+			return false;
+		}
+
+		submitBackground(task, device, priority);
+		return true;
+	}
+
+	/**
+	 * Queues a background task, waiting for room in the queue if it is full.
+	 * Meant for producers of large amounts of work, which are slowed down to
+	 * the pace of the pool.
+	 *
+	 * @param task The task.
+	 * @param device The key of the device the task reads from, or null.
+	 * @param priority The priority of the task, lower than {@link Priority#PAGE}.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public void put(Runnable task, String device, Priority priority) throws InterruptedException {
+		backgroundRoom.acquire();
+		submitBackground(task, device, priority);
+	}
+
+	private void submitBackground(final Runnable task, String device, Priority priority) {
+		if (priority == Priority.PAGE) {
+			throw new IllegalArgumentException("Background tasks can't have the priority of a page");
+		}
+
+		getDeviceQueue(device).submit(new Task(priority, sequence.incrementAndGet(), Integer.MAX_VALUE, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} catch (Throwable t) {
+					LOGGER.error("Error in a background task", t);
+				} finally {
+					backgroundRoom.release();
+				}
+			}
+		}));
+	}
+
+	/**
+	 * @return The number of background tasks refused because the queue was full.
+	 */
+	public long getRefusedCount() {
+		return refused.get();
+	}
+
+	/**
+	 * Returns the key of the device (file store) a file is read from.
+	 *
+	 * @param file The file.
+	 * @return The key of its device, or null if it can't be determined.
+	 */
+	public static String getDevice(File file) {
+		try {
+			String name = Files.getFileStore(file.toPath()).name();
+			return name == null || name.isEmpty() ? null : name;
+		} catch (IOException | RuntimeException e) {
+			LOGGER.trace("Could not determine the file store of \"{}\": {}", file.getAbsolutePath(), e.getMessage());
+			return null;
+		}
+	}
+
+	private DeviceQueue getDeviceQueue(String device) {
+		if (device == null) {
+			return unbound;
+		}
+
+		synchronized (devices) {
+			DeviceQueue queue = devices.get(device);
+
+			if (queue == null) {
+				queue = new DeviceQueue(threadsPerDevice);
+				devices.put(device, queue);
+			}
+
+			return queue;
+		}
+	}
+
+	/**
+	 * Starts the most urgent background tasks waiting on any device, as
+	 * long as threads are left for them.
+	 */
+	private void startBackgroundTasks() {
+		List<DeviceQueue> queues;
+
+		synchronized (devices) {
+			queues = new ArrayList<>(devices.values());
+		}
+
+		queues.add(unbound);
+
+		while (true) {
+			DeviceQueue next = null;
+			Task nextTask = null;
+
+			for (DeviceQueue queue : queues) {
+				Task task = queue.peekStartable();
+
+				if (task != null && (nextTask == null || task.compareTo(nextTask) < 0)) {
+					next = queue;
+					nextTask = task;
+				}
+			}
+
+			if (next == null || !next.startNext()) {
+				break;
+			}
+		}
+	}
+
+	private boolean reserveBackgroundThread() {
+		while (true) {
+			int running = backgroundRunning.get();
+
+			if (running >= backgroundThreads) {
+				return false;
+			}
+
+			if (backgroundRunning.compareAndSet(running, running + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * A task of the pool, ordered by priority and then by submission.
+	 */
+	private static class Task implements Runnable, Comparable<Task> {
+		private final Priority priority;
+		private final long sequence;
+		private final int limit;
+		private final Runnable runnable;
+
+		/**
+		 * @param priority The priority of the task.
+		 * @param sequence The order of submission of the task.
+		 * @param limit The maximum number of tasks with this limit running at
+		 *              once on the device, if lower than the device's own.
+		 * @param runnable The work.
+		 */
+		Task(Priority priority, long sequence, int limit, Runnable runnable) {
+			this.priority = priority;
+			this.sequence = sequence;
+			this.limit = limit;
+			this.runnable = runnable;
+		}
+
+		boolean isBackground() {
+			return priority != Priority.PAGE;
+		}
+
+		@Override
+		public void run() {
+			runnable.run();
+		}
+
+		@Override
+		public int compareTo(Task other) {
+			int result = priority.compareTo(other.priority);
+			return result != 0 ? result : Long.compare(sequence, other.sequence);
+		}
+	}
+
+	/**
+	 * Hands the tasks of a single device to the shared pool, without ever
+	 * having more than a given number of them running at once. Tasks that
+	 * wait for their turn stay in this queue, in order of priority, instead
+	 * of blocking a thread of the pool.
+	 * <p>
+	 * Tasks given a lower limit than the device's (e.g. those of a DVD image)
+	 * wait in a queue of their own and are counted twice: towards the limit
+	 * of the device and towards their own. They share a single counter, so
+	 * the lowest limit among them applies to all of them.
+	 */
+	private class DeviceQueue {
+		private final Queue<Task> pending = new PriorityQueue<>();
+		private final Queue<Task> limitedPending = new PriorityQueue<>();
+		private final int limit;
+		private int running;
+		private int runningLimited;
+
+		DeviceQueue(int limit) {
+			this.limit = limit;
+		}
+
+		private boolean isLimited(Task task) {
+			return task.limit < limit;
+		}
+
+		void submit(Task task) {
+			synchronized (this) {
+				(isLimited(task) ? limitedPending : pending).add(task);
+				startPageTasks();
+			}
+
+			if (task.isBackground()) {
+				startBackgroundTasks();
+			}
+		}
+
+		private void finished(boolean limited) {
+			synchronized (this) {
+				running--;
+
+				if (limited) {
+					runningLimited--;
+				}
+
+				startPageTasks();
+			}
+
+			// Background tasks are started in order of priority across the devices
+			startBackgroundTasks();
+		}
+
+		private void startPageTasks() {
+			Task task;
+
+			while ((task = peekStartable()) != null && !task.isBackground() && startNext()) {
+				// keep going
+			}
+		}
+
+		/**
+		 * @return The next task, if this device can start it.
+		 */
+		synchronized Task peekStartable() {
+			if (running >= limit) {
+				return null;
+			}
+
+			Task task = pending.peek();
+			Task limited = limitedPending.peek();
+
+			if (limited != null && runningLimited < limited.limit && (task == null || limited.compareTo(task) < 0)) {
+				return limited;
+			}
+
+			return task;
+		}
+
+		/**
+		 * Hands the next task to the pool, if this device can start it and,
+		 * for a background task, if a thread of the pool is left for it.
+		 *
+		 * @return True if a task has been started.
+		 */
+		synchronized boolean startNext() {
+			final Task task = peekStartable();
+
+			if (task == null) {
+				return false;
+			}
+
+			final boolean background = task.isBackground();
+			final boolean limited = isLimited(task);
+
+			if (background && !reserveBackgroundThread()) {
+				return false;
+			}
+
+			if (limited) {
+				limitedPending.poll();
+				runningLimited++;
+			} else {
+				pending.poll();
+			}
+
+			running++;
+			pool.execute(new Task(task.priority, task.sequence, task.limit, new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.run();
+					} finally {
+						if (background) {
+							backgroundRunning.decrementAndGet();
+						}
+
+						finished(limited);
+					}
+				}
+			}));
+			return true;
+		}
+	}
+}
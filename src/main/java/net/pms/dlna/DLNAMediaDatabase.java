@@ -23,6 +23,18 @@ import java.awt.Component;
 import java.io.File;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
@@ -53,19 +65,94 @@ public class DLNAMediaDatabase implements Runnable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(DLNAMediaDatabase.class);
 	private static final PmsConfiguration configuration = PMS.getConfiguration();
 
+	// The maximum number of files loaded by a single query
+	private static final int BULK_SIZE = 500;
+
+	// The maximum number of cached results of the queries of the media library
+	private static final int QUERY_CACHE_SIZE = 256;
+
 	private String url;
 	private String dbDir;
 	private String dbName;
 	public static final String NONAME = "###";
 	private Thread scanner;
+	private Thread cleaner;
 	private JdbcConnectionPool cp;
 	private int dbCount;
+	private final DatabaseWriter writer;
+
+	// The entries of the FILES table, once they have been loaded
+	private final FileIndex index = new FileIndex();
+	private volatile boolean indexed;
+
+	// Words of the names, titles, artists, albums and genres of the entries
+	private final SearchIndex searchIndex = new SearchIndex();
+	private volatile boolean searchIndexed;
+
+	// The files that couldn't be parsed, by name, once they have been loaded
+	private final Map<String, ParseFailure> parseFailures = new ConcurrentHashMap<>();
+
+	// Incremented when entries are added or removed, to invalidate the cached queries
+	private final AtomicLong generation = new AtomicLong();
+
+	@SuppressWarnings("serial")
+	private final Map<QueryKey, CachedQuery> queryCache = new LinkedHashMap<QueryKey, CachedQuery>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<QueryKey, CachedQuery> eldest) {
+			return size() > QUERY_CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Identifies a cached query by the kind of its result, its SQL and the
+	 * values of its parameters.
+	 */
+	private static class QueryKey {
+		final char kind;
+		final String sql;
+		final List<String> parameters;
+
+		QueryKey(char kind, String sql, List<String> parameters) {
+			this.kind = kind;
+			this.sql = sql;
+			this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof QueryKey)) {
+				return false;
+			}
+
+			QueryKey other = (QueryKey) o;
+			return kind == other.kind && sql.equals(other.sql) && parameters.equals(other.parameters);
+		}
+
+		@Override
+		public int hashCode() {
+			return (31 * kind + sql.hashCode()) * 31 + parameters.hashCode();
+		}
+	}
+
+	private static class CachedQuery {
+		final long generation;
+		final List<?> result;
+
+		CachedQuery(long generation, List<?> result) {
+			this.generation = generation;
+			this.result = result;
+		}
+	}
+
+	// The next ID of the FILES table, or -1 if it must be read from the table
+	private int nextId = -1;
 
 	/**
 	 * The database version should be incremented when we change anything to
-	 * do with the database since the last released version.
+	 * do with the database since the last released version, and a migration
+	 * from the previous version added to {@link DatabaseMigrator}.
 	 */
-	private final String latestVersion = "1";
+	private final String latestVersion = "5";
 
 	// Database column sizes
 	private final int SIZE_CODECV = 32;
@@ -116,6 +203,7 @@ public class DLNAMediaDatabase implements Runnable {
 		ds.setUser("sa");
 		ds.setPassword("");
 		cp = JdbcConnectionPool.create(ds);
+		writer = new DatabaseWriter(this, configuration.getDatabaseWriteBatchSize(), configuration.getDatabaseWriteDelay());
 	}
 
 	private Connection getConnection() throws SQLException {
@@ -123,6 +211,10 @@ public class DLNAMediaDatabase implements Runnable {
 	}
 
 	public void init(boolean force) {
+		flush();
+		indexed = false;
+		searchIndexed = false;
+		nextId = -1;
 		dbCount = -1;
 		String version = null;
 		Connection conn = null;
@@ -185,8 +277,12 @@ public class DLNAMediaDatabase implements Runnable {
 			close(conn);
 		}
 
-		// Recreate database if it is not the latest version.
+		// Upgrade the database if it is an older version, or recreate it if it can't be upgraded
 		boolean force_reinit = !latestVersion.equals(version);
+		if (force_reinit && !force && dbCount != -1) {
+			force_reinit = !migrate(version);
+		}
+
 		if (force || dbCount == -1 || force_reinit) {
 			LOGGER.debug("Database will be (re)initialized");
 			try {
@@ -196,6 +292,8 @@ public class DLNAMediaDatabase implements Runnable {
 				executeUpdate(conn, "DROP TABLE REGEXP_RULES");
 				executeUpdate(conn, "DROP TABLE AUDIOTRACKS");
 				executeUpdate(conn, "DROP TABLE SUBTRACKS");
+				executeUpdate(conn, "DROP TABLE FOLDERS");
+				executeUpdate(conn, "DROP TABLE PARSEFAILURES");
 			} catch (SQLException se) {
 				if (se.getErrorCode() != 42102) { // Don't log exception "Table "FILES" not found" which will be corrected in following step
 					LOGGER.error(null, se);
@@ -221,7 +319,7 @@ public class DLNAMediaDatabase implements Runnable {
 				sb.append(", REFRAMES                TINYINT");
 				sb.append(", AVCLEVEL                VARCHAR2(").append(SIZE_AVC_LEVEL).append(")");
 				sb.append(", BITSPERPIXEL            INT");
-				sb.append(", THUMB                   BINARY");
+				sb.append(", THUMBHASH               VARCHAR2(40)");
 				sb.append(", CONTAINER               VARCHAR2(").append(SIZE_CONTAINER).append(")");
 				sb.append(", MODEL                   VARCHAR2(").append(SIZE_MODEL).append(")");
 				sb.append(", EXPOSURE                INT");
@@ -265,6 +363,8 @@ public class DLNAMediaDatabase implements Runnable {
 				sb.append(", constraint PKSUB primary key (FILEID, ID))");
 
 				executeUpdate(conn, sb.toString());
+				executeUpdate(conn, "CREATE TABLE FOLDERS (FOLDERNAME VARCHAR2(1024) NOT NULL PRIMARY KEY, MODIFIED TIMESTAMP NOT NULL, ENTRIES INT NOT NULL, NAMEHASH BIGINT NOT NULL, SUBFOLDERS CLOB)");
+				executeUpdate(conn, "CREATE TABLE PARSEFAILURES (FILENAME VARCHAR2(1024) NOT NULL PRIMARY KEY, MODIFIED TIMESTAMP NOT NULL, SIZE BIGINT NOT NULL, REASON VARCHAR2(255) NOT NULL, FAILED TIMESTAMP NOT NULL)");
 				executeUpdate(conn, "CREATE TABLE METADATA (KEY VARCHAR2(255) NOT NULL, VALUE VARCHAR2(255) NOT NULL)");
 				executeUpdate(conn, "INSERT INTO METADATA VALUES ('VERSION', '" + latestVersion + "')");
 				executeUpdate(conn, "CREATE INDEX IDXARTIST on AUDIOTRACKS (ARTIST asc);");
@@ -283,6 +383,12 @@ public class DLNAMediaDatabase implements Runnable {
 					executeUpdate(conn, "INSERT INTO REGEXP_RULES VALUES ( '" + chars[i] + "', '(?i)^" + chars[i] + ".+', " + (i + 2) + " );");
 				}
 
+				index.clear();
+				indexed = true;
+				searchIndex.clear();
+				searchIndexed = true;
+				parseFailures.clear();
+				generation.incrementAndGet();
 				LOGGER.debug("Database initialized");
 			} catch (SQLException se) {
 				LOGGER.info("Error in table creation: " + se.getMessage());
@@ -292,6 +398,187 @@ public class DLNAMediaDatabase implements Runnable {
 		} else {
 			LOGGER.debug("Database file count: " + dbCount);
 			LOGGER.debug("Database version: " + latestVersion);
+			loadIndex();
+			loadSearchIndex();
+			loadParseFailures();
+		}
+	}
+
+	/**
+	 * Loads the words the entries of the database can be searched by, see
+	 * {@link #search(String, int)}.
+	 */
+	private void loadSearchIndex() {
+		long start = System.currentTimeMillis();
+		Connection conn = null;
+		Statement stmt = null;
+		ResultSet rs = null;
+		searchIndex.clear();
+
+		try {
+			conn = getConnection();
+			stmt = conn.createStatement();
+			rs = stmt.executeQuery(
+				"SELECT F.FILENAME, F.MODIFIED, F.TYPE, A.ALBUM, A.ARTIST, A.SONGNAME, A.GENRE " +
+				"FROM FILES F LEFT JOIN AUDIOTRACKS A ON A.FILEID = F.ID ORDER BY F.ID"
+			);
+
+			String name = null;
+			long modified = 0;
+			int type = 0;
+			List<String> texts = new ArrayList<>();
+
+			while (rs.next()) {
+				String rowName = rs.getString("FILENAME");
+				long rowModified = rs.getTimestamp("MODIFIED").getTime();
+
+				if (!rowName.equals(name) || rowModified != modified) {
+					addSearchEntry(name, modified, type, texts);
+					name = rowName;
+					modified = rowModified;
+					type = rs.getInt("TYPE");
+					texts = new ArrayList<>();
+				}
+
+				texts.add(rs.getString("ALBUM"));
+				texts.add(rs.getString("ARTIST"));
+				texts.add(rs.getString("SONGNAME"));
+				texts.add(rs.getString("GENRE"));
+			}
+
+			addSearchEntry(name, modified, type, texts);
+			searchIndexed = true;
+			LOGGER.debug("Indexed the words of {} files of the database in {} ms", searchIndex.size(), System.currentTimeMillis() - start);
+		} catch (SQLException se) {
+			LOGGER.error("Error while indexing the words of the database", se);
+		} finally {
+			close(rs);
+			close(stmt);
+			close(conn);
+		}
+	}
+
+	/**
+	 * Adds an entry to the search index, with the name of its file and the
+	 * given texts. The entries of the tracks of split audio files are left
+	 * out, the files themselves are found instead.
+	 */
+	private void addSearchEntry(String name, long modified, int type, List<String> texts) {
+		if (name == null || name.contains("#SplitTrack")) {
+			return;
+		}
+
+		texts.add(new File(name).getName());
+		searchIndex.add(name, modified, type, texts);
+	}
+
+	/**
+	 * @return The texts an entry can be found by, besides its file name.
+	 */
+	private List<String> getSearchTexts(DLNAMediaInfo media) {
+		List<String> texts = new ArrayList<>();
+
+		if (media != null && media.getAudioTracksList() != null) {
+			for (DLNAMediaAudio audio : media.getAudioTracksList()) {
+				texts.add(audio.getAlbum());
+				texts.add(audio.getArtist());
+				texts.add(audio.getSongname());
+				texts.add(audio.getGenre());
+			}
+		}
+
+		return texts;
+	}
+
+	/**
+	 * @return True if the database can be searched, i.e. its search index
+	 *         has been loaded.
+	 */
+	public boolean isSearchable() {
+		return searchIndexed;
+	}
+
+	/**
+	 * Searches the whole media library. A file matches if, for every word of
+	 * the query, the words of its name or of the album, artist, title or
+	 * genre of its audio tracks include one that starts with it.
+	 *
+	 * @param query The words to search for.
+	 * @param type The type of the files to search for (see
+	 *             {@link net.pms.formats.Format}), or 0 for all types. When
+	 *             the query has no words, all the files of that type match.
+	 * @return The names of the matching files, sorted without case, or an
+	 *         empty list if the database can't be searched.
+	 */
+	public List<String> search(String query, int type) {
+		if (!searchIndexed) {
+			return Collections.emptyList();
+		}
+
+		return searchIndex.search(query, type);
+	}
+
+	/**
+	 * Upgrades the database from an older version, keeping its entries.
+	 *
+	 * @param version The version of the database.
+	 * @return True if the database has been upgraded to the latest version.
+	 */
+	private boolean migrate(String version) {
+		DatabaseMigrator migrator = new DatabaseMigrator(ThumbnailStore.getInstance());
+
+		if (!migrator.canMigrate(version) || !latestVersion.equals(Integer.toString(migrator.getLatestVersion()))) {
+			return false;
+		}
+
+		Connection conn = null;
+
+		try {
+			conn = getConnection();
+			migrator.migrate(conn, version);
+			LOGGER.info("Upgraded the database from version {} to version {}", version, latestVersion);
+			return true;
+		} catch (SQLException se) {
+			LOGGER.error("Error while upgrading the database from version {}, it will be recreated", version, se);
+			return false;
+		} finally {
+			close(conn);
+		}
+	}
+
+	/**
+	 * Loads the index of the entries of the FILES table, which answers
+	 * {@link #isDataExists(String, long)} without queries from now on.
+	 */
+	private void loadIndex() {
+		long start = System.currentTimeMillis();
+		Connection conn = null;
+		Statement stmt = null;
+		ResultSet rs = null;
+		index.clear();
+
+		try {
+			conn = getConnection();
+			stmt = conn.createStatement();
+			rs = stmt.executeQuery("SELECT FILENAME, MODIFIED FROM FILES");
+
+			while (rs.next()) {
+				index.add(rs.getString(1), rs.getTimestamp(2).getTime());
+			}
+
+			indexed = true;
+			LOGGER.debug(
+				"Indexed {} files of the database in {} ms, using {} KB",
+				index.size(),
+				System.currentTimeMillis() - start,
+				index.getMemoryUsage() / 1024
+			);
+		} catch (SQLException se) {
+			LOGGER.error("Error while indexing the database", se);
+		} finally {
+			close(rs);
+			close(stmt);
+			close(conn);
 		}
 	}
 
@@ -304,13 +591,22 @@ public class DLNAMediaDatabase implements Runnable {
 	}
 
 	public boolean isDataExists(String name, long modified) {
+		DatabaseWriter.Write write = writer.get(name, modified);
+		if (write != null && write.insert) {
+			return true;
+		}
+
+		if (indexed) {
+			return index.contains(name, modified);
+		}
+
 		boolean found = false;
 		Connection conn = null;
 		ResultSet rs = null;
 		PreparedStatement stmt = null;
 		try {
 			conn = getConnection();
-			stmt = conn.prepareStatement("SELECT * FROM FILES WHERE FILENAME = ? AND MODIFIED = ?");
+			stmt = conn.prepareStatement("SELECT ID FROM FILES WHERE FILENAME = ? AND MODIFIED = ?");
 			stmt.setString(1, name);
 			stmt.setTimestamp(2, new Timestamp(modified));
 			rs = stmt.executeQuery();
@@ -330,6 +626,19 @@ public class DLNAMediaDatabase implements Runnable {
 
 	public ArrayList<DLNAMediaInfo> getData(String name, long modified) {
 		ArrayList<DLNAMediaInfo> list = new ArrayList<>();
+		DatabaseWriter.Write write = writer.get(name, modified);
+
+		// Entries that haven't been written yet
+		if (write != null && write.insert) {
+			DLNAMediaInfo media = write.media;
+			if (media == null) {
+				media = new DLNAMediaInfo();
+				media.setMediaparsed(true);
+			}
+			list.add(media);
+			return list;
+		}
+
 		Connection conn = null;
 		ResultSet rs = null;
 		PreparedStatement stmt = null;
@@ -340,59 +649,14 @@ public class DLNAMediaDatabase implements Runnable {
 			stmt.setTimestamp(2, new Timestamp(modified));
 			rs = stmt.executeQuery();
 			while (rs.next()) {
-				DLNAMediaInfo media = new DLNAMediaInfo();
+				DLNAMediaInfo media = readMedia(rs);
 				int id = rs.getInt("ID");
-				media.setDuration(toDouble(rs, "DURATION"));
-				media.setBitrate(rs.getInt("BITRATE"));
-				media.setWidth(rs.getInt("WIDTH"));
-				media.setHeight(rs.getInt("HEIGHT"));
-				media.setSize(rs.getLong("SIZE"));
-				media.setCodecV(rs.getString("CODECV"));
-				media.setFrameRate(rs.getString("FRAMERATE"));
-				media.setAspectRatioDvdIso(rs.getString("ASPECT"));
-				media.setAspectRatioContainer(rs.getString("ASPECTRATIOCONTAINER"));
-				media.setAspectRatioVideoTrack(rs.getString("ASPECTRATIOVIDEOTRACK"));
-				media.setReferenceFrameCount(rs.getByte("REFRAMES"));
-				media.setAvcLevel(rs.getString("AVCLEVEL"));
-				media.setBitsPerPixel(rs.getInt("BITSPERPIXEL"));
-				media.setThumb(rs.getBytes("THUMB"));
-				media.setContainer(rs.getString("CONTAINER"));
-				media.setModel(rs.getString("MODEL"));
-				if (media.getModel() != null && !FormatConfiguration.JPG.equals(media.getContainer())) {
-					media.setExtrasAsString(media.getModel());
-				}
-				media.setExposure(rs.getInt("EXPOSURE"));
-				media.setOrientation(rs.getInt("ORIENTATION"));
-				media.setIso(rs.getInt("ISO"));
-				media.setMuxingMode(rs.getString("MUXINGMODE"));
-				media.setFrameRateMode(rs.getString("FRAMERATEMODE"));
-				media.setStereoscopy(rs.getString("STEREOSCOPY"));
-				media.setMatrixCoefficients(rs.getString("MATRIXCOEFFICIENTS"));
-				media.setEmbeddedFontExists(rs.getBoolean("EMBEDDEDFONTEXISTS"));
-				media.setMediaparsed(true);
 				ResultSet subrs;
 				try (PreparedStatement audios = conn.prepareStatement("SELECT * FROM AUDIOTRACKS WHERE FILEID = ?")) {
 					audios.setInt(1, id);
 					subrs = audios.executeQuery();
 					while (subrs.next()) {
-						DLNAMediaAudio audio = new DLNAMediaAudio();
-						audio.setId(subrs.getInt("ID"));
-						audio.setLang(subrs.getString("LANG"));
-						audio.setFlavor(subrs.getString("FLAVOR"));
-						audio.getAudioProperties().setNumberOfChannels(subrs.getInt("NRAUDIOCHANNELS"));
-						audio.setSampleFrequency(subrs.getString("SAMPLEFREQ"));
-						audio.setCodecA(subrs.getString("CODECA"));
-						audio.setBitsperSample(subrs.getInt("BITSPERSAMPLE"));
-						audio.setAlbum(subrs.getString("ALBUM"));
-						audio.setArtist(subrs.getString("ARTIST"));
-						audio.setSongname(subrs.getString("SONGNAME"));
-						audio.setGenre(subrs.getString("GENRE"));
-						audio.setYear(subrs.getInt("YEAR"));
-						audio.setTrack(subrs.getInt("TRACK"));
-						audio.getAudioProperties().setAudioDelay(subrs.getInt("DELAY"));
-						audio.setMuxingModeAudio(subrs.getString("MUXINGMODE"));
-						audio.setBitRate(subrs.getInt("BITRATE"));
-						media.getAudioTracksList().add(audio);
+						media.getAudioTracksList().add(readAudio(subrs));
 					}
 					subrs.close();
 				}
@@ -400,16 +664,15 @@ public class DLNAMediaDatabase implements Runnable {
 					subs.setInt(1, id);
 					subrs = subs.executeQuery();
 					while (subrs.next()) {
-						DLNAMediaSubtitle sub = new DLNAMediaSubtitle();
-						sub.setId(subrs.getInt("ID"));
-						sub.setLang(subrs.getString("LANG"));
-						sub.setFlavor(subrs.getString("FLAVOR"));
-						sub.setType(SubtitleType.valueOfStableIndex(subrs.getInt("TYPE")));
-						media.getSubtitleTracksList().add(sub);
+						media.getSubtitleTracksList().add(readSubtitle(subrs));
 					}
 					subrs.close();
 				}
 
+				if (write != null) {
+					media.setThumbHash(write.thumbHash);
+				}
+
 				list.add(media);
 			}
 		} catch (SQLException se) {
@@ -423,6 +686,186 @@ public class DLNAMediaDatabase implements Runnable {
 		return list;
 	}
 
+	/**
+	 * Loads the entries of several files, e.g. of all the files of a folder,
+	 * with three queries per {@value #BULK_SIZE} files instead of three
+	 * queries per file.
+	 *
+	 * @param files The files.
+	 * @return The media information of the files that have an entry matching
+	 *         their current modification time, by absolute path.
+	 */
+	public Map<String, DLNAMediaInfo> getData(List<File> files) {
+		Map<String, DLNAMediaInfo> medias = new HashMap<>();
+		Map<String, Long> modifiedTimes = new HashMap<>();
+		Map<String, DatabaseWriter.Write> thumbnails = new HashMap<>();
+		List<String> names = new ArrayList<>();
+
+		for (File file : files) {
+			String name = file.getAbsolutePath();
+			long modified = file.lastModified();
+			DatabaseWriter.Write write = writer.get(name, modified);
+
+			if (write != null && write.insert) {
+				if (write.media != null) {
+					medias.put(name, write.media);
+				}
+			} else {
+				if (write != null) {
+					thumbnails.put(name, write);
+				}
+
+				names.add(name);
+				modifiedTimes.put(name, modified);
+			}
+		}
+
+		if (names.isEmpty()) {
+			return medias;
+		}
+
+		Connection conn = null;
+
+		try {
+			conn = getConnection();
+
+			for (int start = 0; start < names.size(); start += BULK_SIZE) {
+				List<String> chunk = names.subList(start, Math.min(names.size(), start + BULK_SIZE));
+				Map<Integer, DLNAMediaInfo> ids = new HashMap<>();
+
+				try (PreparedStatement ps = conn.prepareStatement("SELECT * FROM FILES WHERE FILENAME IN (" + repeat("?", ", ", chunk.size()) + ")")) {
+					for (int i = 0; i < chunk.size(); i++) {
+						ps.setString(i + 1, chunk.get(i));
+					}
+
+					try (ResultSet rs = ps.executeQuery()) {
+						while (rs.next()) {
+							String name = rs.getString("FILENAME");
+							Long modified = modifiedTimes.get(name);
+
+							if (modified != null && rs.getTimestamp("MODIFIED").getTime() == modified) {
+								DLNAMediaInfo media = readMedia(rs);
+
+								if (thumbnails.containsKey(name)) {
+									media.setThumbHash(thumbnails.get(name).thumbHash);
+								}
+
+								ids.put(rs.getInt("ID"), media);
+								medias.put(name, media);
+							}
+						}
+					}
+				}
+
+				if (ids.isEmpty()) {
+					continue;
+				}
+
+				String in = " WHERE FILEID IN (" + repeat("?", ", ", ids.size()) + ")";
+
+				try (PreparedStatement ps = conn.prepareStatement("SELECT * FROM AUDIOTRACKS" + in)) {
+					setIds(ps, ids.keySet());
+
+					try (ResultSet rs = ps.executeQuery()) {
+						while (rs.next()) {
+							ids.get(rs.getInt("FILEID")).getAudioTracksList().add(readAudio(rs));
+						}
+					}
+				}
+
+				try (PreparedStatement ps = conn.prepareStatement("SELECT * FROM SUBTRACKS" + in)) {
+					setIds(ps, ids.keySet());
+
+					try (ResultSet rs = ps.executeQuery()) {
+						while (rs.next()) {
+							ids.get(rs.getInt("FILEID")).getSubtitleTracksList().add(readSubtitle(rs));
+						}
+					}
+				}
+			}
+		} catch (SQLException se) {
+			LOGGER.error(null, se);
+		} finally {
+			close(conn);
+		}
+
+		return medias;
+	}
+
+	private void setIds(PreparedStatement ps, Collection<Integer> ids) throws SQLException {
+		int i = 1;
+
+		for (Integer id : ids) {
+			ps.setInt(i++, id);
+		}
+	}
+
+	private DLNAMediaInfo readMedia(ResultSet rs) throws SQLException {
+		DLNAMediaInfo media = new DLNAMediaInfo();
+		media.setDuration(toDouble(rs, "DURATION"));
+		media.setBitrate(rs.getInt("BITRATE"));
+		media.setWidth(rs.getInt("WIDTH"));
+		media.setHeight(rs.getInt("HEIGHT"));
+		media.setSize(rs.getLong("SIZE"));
+		media.setCodecV(rs.getString("CODECV"));
+		media.setFrameRate(rs.getString("FRAMERATE"));
+		media.setAspectRatioDvdIso(rs.getString("ASPECT"));
+		media.setAspectRatioContainer(rs.getString("ASPECTRATIOCONTAINER"));
+		media.setAspectRatioVideoTrack(rs.getString("ASPECTRATIOVIDEOTRACK"));
+		media.setReferenceFrameCount(rs.getByte("REFRAMES"));
+		media.setAvcLevel(rs.getString("AVCLEVEL"));
+		media.setBitsPerPixel(rs.getInt("BITSPERPIXEL"));
+		String thumbHash = rs.getString("THUMBHASH");
+		if (thumbHash != null && ThumbnailStore.getInstance().contains(thumbHash)) {
+			media.setThumbHash(thumbHash);
+		}
+		media.setContainer(rs.getString("CONTAINER"));
+		media.setModel(rs.getString("MODEL"));
+		if (media.getModel() != null && !FormatConfiguration.JPG.equals(media.getContainer())) {
+			media.setExtrasAsString(media.getModel());
+		}
+		media.setExposure(rs.getInt("EXPOSURE"));
+		media.setOrientation(rs.getInt("ORIENTATION"));
+		media.setIso(rs.getInt("ISO"));
+		media.setMuxingMode(rs.getString("MUXINGMODE"));
+		media.setFrameRateMode(rs.getString("FRAMERATEMODE"));
+		media.setStereoscopy(rs.getString("STEREOSCOPY"));
+		media.setMatrixCoefficients(rs.getString("MATRIXCOEFFICIENTS"));
+		media.setEmbeddedFontExists(rs.getBoolean("EMBEDDEDFONTEXISTS"));
+		media.setMediaparsed(true);
+		return media;
+	}
+
+	private DLNAMediaAudio readAudio(ResultSet rs) throws SQLException {
+		DLNAMediaAudio audio = new DLNAMediaAudio();
+		audio.setId(rs.getInt("ID"));
+		audio.setLang(rs.getString("LANG"));
+		audio.setFlavor(rs.getString("FLAVOR"));
+		audio.getAudioProperties().setNumberOfChannels(rs.getInt("NRAUDIOCHANNELS"));
+		audio.setSampleFrequency(rs.getString("SAMPLEFREQ"));
+		audio.setCodecA(rs.getString("CODECA"));
+		audio.setBitsperSample(rs.getInt("BITSPERSAMPLE"));
+		audio.setAlbum(rs.getString("ALBUM"));
+		audio.setArtist(rs.getString("ARTIST"));
+		audio.setSongname(rs.getString("SONGNAME"));
+		audio.setGenre(rs.getString("GENRE"));
+		audio.setYear(rs.getInt("YEAR"));
+		audio.setTrack(rs.getInt("TRACK"));
+		audio.getAudioProperties().setAudioDelay(rs.getInt("DELAY"));
+		audio.setMuxingModeAudio(rs.getString("MUXINGMODE"));
+		audio.setBitRate(rs.getInt("BITRATE"));
+		return audio;
+	}
+
+	private DLNAMediaSubtitle readSubtitle(ResultSet rs) throws SQLException {
+		DLNAMediaSubtitle sub = new DLNAMediaSubtitle();
+		sub.setId(rs.getInt("ID"));
+		sub.setLang(rs.getString("LANG"));
+		sub.setFlavor(rs.getString("FLAVOR"));
+		sub.setType(SubtitleType.valueOfStableIndex(rs.getInt("TYPE")));
+		return sub;
+	}
+
 	private Double toDouble(ResultSet rs, String column) throws SQLException {
 		Object obj = rs.getObject(column);
 		if (obj instanceof Double) {
@@ -431,210 +874,486 @@ public class DLNAMediaDatabase implements Runnable {
 		return null;
 	}
 
-	public synchronized void insertData(String name, long modified, int type, DLNAMediaInfo media) {
+	/**
+	 * Queues the entry of a parsed file, which is written to the database in
+	 * the background (see {@link DatabaseWriter}).
+	 */
+	public void insertData(String name, long modified, int type, DLNAMediaInfo media) {
+		writer.insert(name, modified, type, media);
+	}
+
+	/**
+	 * Queues the update of the thumbnail of a file, which is written to the
+	 * database in the background.
+	 */
+	public void updateThumbnail(String name, long modified, int type, DLNAMediaInfo media) {
+		writer.updateThumbnail(name, modified, type, media);
+	}
+
+	/**
+	 * Writes the queued entries and returns when they are committed.
+	 */
+	public void flush() {
+		writer.flush();
+	}
+
+	/**
+	 * Writes a batch of queued entries in a single transaction. Only called by
+	 * the {@link DatabaseWriter}, one batch at a time.
+	 */
+	void write(Collection<DatabaseWriter.Write> writes) {
 		Connection conn = null;
-		PreparedStatement ps = null;
+		PreparedStatement files = null;
+		PreparedStatement audios = null;
+		PreparedStatement subs = null;
+		PreparedStatement thumbs = null;
+		PreparedStatement folders = null;
+
 		try {
 			conn = getConnection();
-			ps = conn.prepareStatement("INSERT INTO FILES(FILENAME, MODIFIED, TYPE, DURATION, BITRATE, WIDTH, HEIGHT, SIZE, CODECV, FRAMERATE, ASPECT, ASPECTRATIOCONTAINER, ASPECTRATIOVIDEOTRACK, REFRAMES, AVCLEVEL, BITSPERPIXEL, THUMB, CONTAINER, MODEL, EXPOSURE, ORIENTATION, ISO, MUXINGMODE, FRAMERATEMODE, STEREOSCOPY, MATRIXCOEFFICIENTS, EMBEDDEDFONTEXISTS) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-			ps.setString(1, name);
-			ps.setTimestamp(2, new Timestamp(modified));
-			ps.setInt(3, type);
-			if (media != null) {
-				if (media.getDuration() != null) {
-					ps.setDouble(4, media.getDurationInSeconds());
-				} else {
-					ps.setNull(4, Types.DOUBLE);
-				}
+			conn.setAutoCommit(false);
+
+			// The IDs are allocated here because the keys generated by a batch can't be retrieved
+			int id = nextId;
+			if (id < 0) {
+				id = getMaxId(conn) + 1;
+			}
 
-				int databaseBitrate = 0;
-				if (type != Format.IMAGE) {
-					databaseBitrate = media.getBitrate();
-					if (databaseBitrate == 0) {
-						LOGGER.debug("Could not parse the bitrate from: " + name);
+			files = conn.prepareStatement("INSERT INTO FILES(FILENAME, MODIFIED, TYPE, DURATION, BITRATE, WIDTH, HEIGHT, SIZE, CODECV, FRAMERATE, ASPECT, ASPECTRATIOCONTAINER, ASPECTRATIOVIDEOTRACK, REFRAMES, AVCLEVEL, BITSPERPIXEL, THUMBHASH, CONTAINER, MODEL, EXPOSURE, ORIENTATION, ISO, MUXINGMODE, FRAMERATEMODE, STEREOSCOPY, MATRIXCOEFFICIENTS, EMBEDDEDFONTEXISTS, ID) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			audios = conn.prepareStatement("INSERT INTO AUDIOTRACKS VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			subs = conn.prepareStatement("INSERT INTO SUBTRACKS VALUES (?, ?, ?, ?, ?)");
+			thumbs = conn.prepareStatement("UPDATE FILES SET THUMBHASH = ? WHERE FILENAME = ? AND MODIFIED = ?");
+			folders = conn.prepareStatement("MERGE INTO FOLDERS(FOLDERNAME, MODIFIED, ENTRIES, NAMEHASH, SUBFOLDERS) KEY(FOLDERNAME) VALUES (?, ?, ?, ?, ?)");
+
+			for (DatabaseWriter.Write write : writes) {
+				if (write.insert) {
+					setFileParameters(files, write);
+					files.setInt(28, id);
+					files.addBatch();
+
+					if (write.media != null) {
+						addTracks(audios, subs, id, write.media);
 					}
-				}
-				ps.setInt(5, databaseBitrate);
-
-				ps.setInt(6, media.getWidth());
-				ps.setInt(7, media.getHeight());
-				ps.setLong(8, media.getSize());
-				ps.setString(9, left(media.getCodecV(), SIZE_CODECV));
-				ps.setString(10, left(media.getFrameRate(), SIZE_FRAMERATE));
-				ps.setString(11, left(media.getAspectRatioDvdIso(), SIZE_ASPECTRATIO_DVDISO));
-				ps.setString(12, left(media.getAspectRatioContainer(), SIZE_ASPECTRATIO_CONTAINER));
-				ps.setString(13, left(media.getAspectRatioVideoTrack(), SIZE_ASPECTRATIO_VIDEOTRACK));
-				ps.setByte(14, media.getReferenceFrameCount());
-				ps.setString(15, left(media.getAvcLevel(), SIZE_AVC_LEVEL));
-				ps.setInt(16, media.getBitsPerPixel());
-				ps.setBytes(17, media.getThumb());
-				ps.setString(18, left(media.getContainer(), SIZE_CONTAINER));
-				if (media.getExtras() != null) {
-					ps.setString(19, left(media.getExtrasAsString(), SIZE_MODEL));
+
+					id++;
+				} else if (write.fingerprint != null) {
+					setFolderParameters(folders, write.fingerprint);
+					folders.addBatch();
 				} else {
-					ps.setString(19, left(media.getModel(), SIZE_MODEL));
+					thumbs.setString(1, write.thumbHash);
+					thumbs.setString(2, write.name);
+					thumbs.setTimestamp(3, new Timestamp(write.modified));
+					thumbs.addBatch();
+				}
+			}
+
+			files.executeBatch();
+			audios.executeBatch();
+			subs.executeBatch();
+			thumbs.executeBatch();
+			folders.executeBatch();
+			conn.commit();
+			nextId = id;
+
+			boolean inserted = false;
+
+			for (DatabaseWriter.Write write : writes) {
+				if (write.insert) {
+					index.add(write.name, write.modified);
+					addSearchEntry(write.name, write.modified, write.type, getSearchTexts(write.media));
+					inserted = true;
 				}
-				ps.setInt(20, media.getExposure());
-				ps.setInt(21, media.getOrientation());
-				ps.setInt(22, media.getIso());
-				ps.setString(23, left(media.getMuxingModeAudio(), SIZE_MUXINGMODE));
-				ps.setString(24, left(media.getFrameRateMode(), SIZE_FRAMERATE_MODE));
-				ps.setString(25, left(media.getStereoscopy(), SIZE_STEREOSCOPY));
-				ps.setString(26, left(media.getMatrixCoefficients(), SIZE_MATRIX_COEFFICIENTS));
-				ps.setBoolean(27, media.isEmbeddedFontExists());
+			}
+
+			if (inserted) {
+				generation.incrementAndGet();
+			}
+		} catch (SQLException se) {
+			LOGGER.error("Error while writing {} entries to the database, their files will be parsed again", writes.size(), se);
+			nextId = -1;
+			rollback(conn);
+		} finally {
+			close(files);
+			close(audios);
+			close(subs);
+			close(thumbs);
+			close(folders);
+			restoreAutoCommit(conn);
+			close(conn);
+		}
+	}
+
+	private int getMaxId(Connection conn) throws SQLException {
+		try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT MAX(ID) FROM FILES")) {
+			return rs.next() ? rs.getInt(1) : 0;
+		}
+	}
+
+	private void setFileParameters(PreparedStatement ps, DatabaseWriter.Write write) throws SQLException {
+		DLNAMediaInfo media = write.media;
+		ps.setString(1, write.name);
+		ps.setTimestamp(2, new Timestamp(write.modified));
+		ps.setInt(3, write.type);
+		if (media != null) {
+			if (media.getDuration() != null) {
+				ps.setDouble(4, media.getDurationInSeconds());
 			} else {
-				ps.setString(4, null);
-				ps.setInt(5, 0);
-				ps.setInt(6, 0);
-				ps.setInt(7, 0);
-				ps.setLong(8, 0);
-				ps.setString(9, null);
-				ps.setString(10, null);
-				ps.setString(11, null);
-				ps.setString(12, null);
-				ps.setString(13, null);
-				ps.setByte(14, (byte) -1);
-				ps.setString(15, null);
-				ps.setInt(16, 0);
-				ps.setBytes(17, null);
-				ps.setString(18, null);
-				ps.setString(19, null);
-				ps.setInt(20, 0);
-				ps.setInt(21, 0);
-				ps.setInt(22, 0);
-				ps.setString(23, null);
-				ps.setString(24, null);
-				ps.setString(25, null);
-				ps.setString(26, null);
-				ps.setBoolean(27, false);
+				ps.setNull(4, Types.DOUBLE);
 			}
-			ps.executeUpdate();
-			int id;
-			try (ResultSet rs = ps.getGeneratedKeys()) {
-				id = -1;
-				while (rs.next()) {
-					id = rs.getInt(1);
+
+			int databaseBitrate = 0;
+			if (write.type != Format.IMAGE) {
+				databaseBitrate = media.getBitrate();
+				if (databaseBitrate == 0) {
+					LOGGER.debug("Could not parse the bitrate from: " + write.name);
 				}
 			}
-			if (media != null && id > -1) {
-				PreparedStatement insert = null;
-				if (media.getAudioTracksList().size() > 0) {
-					insert = conn.prepareStatement("INSERT INTO AUDIOTRACKS VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-					for (DLNAMediaAudio audio : media.getAudioTracksList()) {
-						insert.clearParameters();
-						insert.setInt(1, id);
-						insert.setInt(2, audio.getId());
-						insert.setString(3, left(audio.getLang(), SIZE_LANG));
-						insert.setString(4, left(audio.getFlavor(), SIZE_FLAVOR));
-						insert.setInt(5, audio.getAudioProperties().getNumberOfChannels());
-						insert.setString(6, left(audio.getSampleFrequency(), SIZE_SAMPLEFREQ));
-						insert.setString(7, left(audio.getCodecA(), SIZE_CODECA));
-						insert.setInt(8, audio.getBitsperSample());
-						insert.setString(9, left(trimToEmpty(audio.getAlbum()), SIZE_ALBUM));
-						insert.setString(10, left(trimToEmpty(audio.getArtist()), SIZE_ARTIST));
-						insert.setString(11, left(trimToEmpty(audio.getSongname()), SIZE_SONGNAME));
-						insert.setString(12, left(trimToEmpty(audio.getGenre()), SIZE_GENRE));
-						insert.setInt(13, audio.getYear());
-						insert.setInt(14, audio.getTrack());
-						insert.setInt(15, audio.getAudioProperties().getAudioDelay());
-						insert.setString(16, left(trimToEmpty(audio.getMuxingModeAudio()), SIZE_MUXINGMODE));
-						insert.setInt(17, audio.getBitRate());
-
-						try {
-							insert.executeUpdate();
-						} catch (SQLException e) {
-							if (e.getErrorCode() == 23505) {
-								LOGGER.debug("A duplicate key error occurred while trying to store the following file's audio information in the database: " + name);
-							} else {
-								LOGGER.debug("An error occurred while trying to store the following file's audio information in the database: " + name);
-							}
-							LOGGER.debug("The error given by jdbc was: " + e);
-						}
+			ps.setInt(5, databaseBitrate);
+
+			ps.setInt(6, media.getWidth());
+			ps.setInt(7, media.getHeight());
+			ps.setLong(8, media.getSize());
+			ps.setString(9, left(media.getCodecV(), SIZE_CODECV));
+			ps.setString(10, left(media.getFrameRate(), SIZE_FRAMERATE));
+			ps.setString(11, left(media.getAspectRatioDvdIso(), SIZE_ASPECTRATIO_DVDISO));
+			ps.setString(12, left(media.getAspectRatioContainer(), SIZE_ASPECTRATIO_CONTAINER));
+			ps.setString(13, left(media.getAspectRatioVideoTrack(), SIZE_ASPECTRATIO_VIDEOTRACK));
+			ps.setByte(14, media.getReferenceFrameCount());
+			ps.setString(15, left(media.getAvcLevel(), SIZE_AVC_LEVEL));
+			ps.setInt(16, media.getBitsPerPixel());
+			ps.setString(17, write.thumbHash);
+			ps.setString(18, left(media.getContainer(), SIZE_CONTAINER));
+			if (media.getExtras() != null) {
+				ps.setString(19, left(media.getExtrasAsString(), SIZE_MODEL));
+			} else {
+				ps.setString(19, left(media.getModel(), SIZE_MODEL));
+			}
+			ps.setInt(20, media.getExposure());
+			ps.setInt(21, media.getOrientation());
+			ps.setInt(22, media.getIso());
+			ps.setString(23, left(media.getMuxingModeAudio(), SIZE_MUXINGMODE));
+			ps.setString(24, left(media.getFrameRateMode(), SIZE_FRAMERATE_MODE));
+			ps.setString(25, left(media.getStereoscopy(), SIZE_STEREOSCOPY));
+			ps.setString(26, left(media.getMatrixCoefficients(), SIZE_MATRIX_COEFFICIENTS));
+			ps.setBoolean(27, media.isEmbeddedFontExists());
+		} else {
+			ps.setString(4, null);
+			ps.setInt(5, 0);
+			ps.setInt(6, 0);
+			ps.setInt(7, 0);
+			ps.setLong(8, 0);
+			ps.setString(9, null);
+			ps.setString(10, null);
+			ps.setString(11, null);
+			ps.setString(12, null);
+			ps.setString(13, null);
+			ps.setByte(14, (byte) -1);
+			ps.setString(15, null);
+			ps.setInt(16, 0);
+			ps.setString(17, null);
+			ps.setString(18, null);
+			ps.setString(19, null);
+			ps.setInt(20, 0);
+			ps.setInt(21, 0);
+			ps.setInt(22, 0);
+			ps.setString(23, null);
+			ps.setString(24, null);
+			ps.setString(25, null);
+			ps.setString(26, null);
+			ps.setBoolean(27, false);
+		}
+	}
+
+	private void addTracks(PreparedStatement audios, PreparedStatement subs, int id, DLNAMediaInfo media) throws SQLException {
+		// A duplicate track would make the whole batch fail
+		Set<Integer> ids = new HashSet<>();
+
+		for (DLNAMediaAudio audio : media.getAudioTracksList()) {
+			if (!ids.add(audio.getId())) {
+				continue;
+			}
+
+			audios.setInt(1, id);
+			audios.setInt(2, audio.getId());
+			audios.setString(3, left(audio.getLang(), SIZE_LANG));
+			audios.setString(4, left(audio.getFlavor(), SIZE_FLAVOR));
+			audios.setInt(5, audio.getAudioProperties().getNumberOfChannels());
+			audios.setString(6, left(audio.getSampleFrequency(), SIZE_SAMPLEFREQ));
+			audios.setString(7, left(audio.getCodecA(), SIZE_CODECA));
+			audios.setInt(8, audio.getBitsperSample());
+			audios.setString(9, left(trimToEmpty(audio.getAlbum()), SIZE_ALBUM));
+			audios.setString(10, left(trimToEmpty(audio.getArtist()), SIZE_ARTIST));
+			audios.setString(11, left(trimToEmpty(audio.getSongname()), SIZE_SONGNAME));
+			audios.setString(12, left(trimToEmpty(audio.getGenre()), SIZE_GENRE));
+			audios.setInt(13, audio.getYear());
+			audios.setInt(14, audio.getTrack());
+			audios.setInt(15, audio.getAudioProperties().getAudioDelay());
+			audios.setString(16, left(trimToEmpty(audio.getMuxingModeAudio()), SIZE_MUXINGMODE));
+			audios.setInt(17, audio.getBitRate());
+			audios.addBatch();
+		}
+
+		ids.clear();
+
+		for (DLNAMediaSubtitle sub : media.getSubtitleTracksList()) {
+			if (sub.getExternalFile() == null && ids.add(sub.getId())) { // no save of external subtitles
+				subs.setInt(1, id);
+				subs.setInt(2, sub.getId());
+				subs.setString(3, left(sub.getLang(), SIZE_LANG));
+				subs.setString(4, left(sub.getFlavor(), SIZE_FLAVOR));
+				subs.setInt(5, sub.getType().getStableIndex());
+				subs.addBatch();
+			}
+		}
+	}
+
+	/**
+	 * Removes the entries of a file that don't match its current
+	 * modification time, along with their audio and subtitle tracks.
+	 *
+	 * @param name The name of the file.
+	 * @param modified The current modification time of the file, or 0 if it
+	 *                 was deleted to remove all its entries.
+	 */
+	public synchronized void removeStaleEntries(String name, long modified) {
+		flush();
+
+		if (modified == 0) {
+			removeParseFailure(name);
+		}
+
+		Connection conn = null;
+
+		try {
+			conn = getConnection();
+			conn.setAutoCommit(false);
+			List<Long> removed = new ArrayList<>();
+
+			try (PreparedStatement ps = conn.prepareStatement("SELECT MODIFIED FROM FILES WHERE FILENAME = ? AND MODIFIED <> ?")) {
+				ps.setString(1, name);
+				ps.setTimestamp(2, new Timestamp(modified));
+
+				try (ResultSet rs = ps.executeQuery()) {
+					while (rs.next()) {
+						removed.add(rs.getTimestamp(1).getTime());
 					}
 				}
+			}
 
-				if (media.getSubtitleTracksList().size() > 0) {
-					insert = conn.prepareStatement("INSERT INTO SUBTRACKS VALUES (?, ?, ?, ?, ?)");
-					for (DLNAMediaSubtitle sub : media.getSubtitleTracksList()) {
-						if (sub.getExternalFile() == null) { // no save of external subtitles
-							insert.clearParameters();
-							insert.setInt(1, id);
-							insert.setInt(2, sub.getId());
-							insert.setString(3, left(sub.getLang(), SIZE_LANG));
-							insert.setString(4, left(sub.getFlavor(), SIZE_FLAVOR));
-							insert.setInt(5, sub.getType().getStableIndex());
-							try {
-								insert.executeUpdate();
-							} catch (SQLException e) {
-								if (e.getErrorCode() == 23505) {
-									LOGGER.debug("A duplicate key error occurred while trying to store the following file's subtitle information in the database: " + name);
-								} else {
-									LOGGER.debug("An error occurred while trying to store the following file's subtitle information in the database: " + name);
-								}
-								LOGGER.debug("The error given by jdbc was: " + e);
-							}
-						}
-					}
+			if (removed.isEmpty()) {
+				return;
+			}
+
+			String stale = "SELECT ID FROM FILES WHERE FILENAME = ? AND MODIFIED <> ?";
+
+			for (String sql : new String[] {
+				"DELETE FROM AUDIOTRACKS WHERE FILEID IN (" + stale + ")",
+				"DELETE FROM SUBTRACKS WHERE FILEID IN (" + stale + ")",
+				"DELETE FROM FILES WHERE FILENAME = ? AND MODIFIED <> ?"
+			}) {
+				try (PreparedStatement ps = conn.prepareStatement(sql)) {
+					ps.setString(1, name);
+					ps.setTimestamp(2, new Timestamp(modified));
+					ps.executeUpdate();
 				}
+			}
+
+			conn.commit();
 
-				close(insert);
+			for (long removedModified : removed) {
+				index.remove(name, removedModified);
+				searchIndex.remove(name, removedModified);
 			}
+
+			generation.incrementAndGet();
 		} catch (SQLException se) {
-			if (se.getErrorCode() == 23505) {
-				LOGGER.debug("Duplicate key while inserting this entry: " + name + " into the database: " + se.getMessage());
-			} else {
-				LOGGER.error(null, se);
-			}
+			LOGGER.error("Error while removing the stale entries of \"{}\"", name, se);
+			rollback(conn);
 		} finally {
-			close(ps);
+			restoreAutoCommit(conn);
 			close(conn);
 		}
 	}
 
-	public synchronized void updateThumbnail(String name, long modified, int type, DLNAMediaInfo media) {
+	/**
+	 * @param folder The absolute path of a folder.
+	 * @return The fingerprint of the folder when it was last scanned, or null.
+	 */
+	public FolderFingerprint getFolderFingerprint(String folder) {
 		Connection conn = null;
 		PreparedStatement ps = null;
+		ResultSet rs = null;
+
 		try {
 			conn = getConnection();
-			ps = conn.prepareStatement("UPDATE FILES SET THUMB = ? WHERE FILENAME = ? AND MODIFIED = ?");
-			ps.setString(2, name);
-			ps.setTimestamp(3, new Timestamp(modified));
-			if (media != null) {
-				ps.setBytes(1, media.getThumb());
-			} else {
-				ps.setNull(1, Types.BINARY);
+			ps = conn.prepareStatement("SELECT MODIFIED, ENTRIES, NAMEHASH, SUBFOLDERS FROM FOLDERS WHERE FOLDERNAME = ?");
+			ps.setString(1, folder);
+			rs = ps.executeQuery();
+
+			if (rs.next()) {
+				return new FolderFingerprint(
+					folder,
+					rs.getTimestamp("MODIFIED").getTime(),
+					rs.getInt("ENTRIES"),
+					rs.getLong("NAMEHASH"),
+					FolderFingerprint.parseSubfolders(rs.getString("SUBFOLDERS"))
+				);
 			}
-			ps.executeUpdate();
 		} catch (SQLException se) {
-			if (se.getErrorCode() == 23001) {
-				LOGGER.debug("Duplicate key while inserting this entry: " + name + " into the database: " + se.getMessage());
-			} else {
-				LOGGER.error(null, se);
-			}
+			LOGGER.error(null, se);
 		} finally {
+			close(rs);
 			close(ps);
 			close(conn);
 		}
+
+		return null;
+	}
+
+	/**
+	 * Queues the fingerprint of a folder that has been scanned. It is written
+	 * in the background, in the same batch as the entries of the files of the
+	 * folder or after them, so that a folder is never considered unchanged
+	 * while the entries of its files are not committed.
+	 */
+	public void setFolderFingerprint(FolderFingerprint fingerprint) {
+		writer.setFolderFingerprint(fingerprint);
+	}
+
+	private static void setFolderParameters(PreparedStatement ps, FolderFingerprint fingerprint) throws SQLException {
+		ps.setString(1, fingerprint.getFolder());
+		ps.setTimestamp(2, new Timestamp(fingerprint.getModified()));
+		ps.setInt(3, fingerprint.getEntries());
+		ps.setLong(4, fingerprint.getNameHash());
+		ps.setString(5, fingerprint.getSubfoldersString());
+	}
+
+	/**
+	 * Loads the files that couldn't be parsed, which are few enough to be
+	 * kept in memory.
+	 */
+	private void loadParseFailures() {
+		parseFailures.clear();
+
+		try (Connection conn = getConnection(); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT * FROM PARSEFAILURES")) {
+			while (rs.next()) {
+				ParseFailure failure = new ParseFailure(
+					rs.getString("FILENAME"),
+					rs.getTimestamp("MODIFIED").getTime(),
+					rs.getLong("SIZE"),
+					rs.getString("REASON"),
+					rs.getTimestamp("FAILED").getTime()
+				);
+				parseFailures.put(failure.getName(), failure);
+			}
+		} catch (SQLException se) {
+			LOGGER.error("Error while loading the files that could not be parsed", se);
+		}
+
+		if (!parseFailures.isEmpty()) {
+			LOGGER.info("{} files could not be parsed, they are hidden until they change", parseFailures.size());
+		}
+	}
+
+	/**
+	 * @param name The absolute path of a file.
+	 * @param modified The current modification time of the file.
+	 * @param size The current size of the file.
+	 * @return The failure to parse the file, or null if it hasn't failed
+	 *         since it was last changed.
+	 */
+	public ParseFailure getParseFailure(String name, long modified, long size) {
+		ParseFailure failure = parseFailures.get(name);
+		return failure != null && failure.matches(modified, size) ? failure : null;
+	}
+
+	/**
+	 * @return The files that couldn't be parsed, sorted by name.
+	 */
+	public List<ParseFailure> getParseFailures() {
+		List<ParseFailure> failures = new ArrayList<>(parseFailures.values());
+		Collections.sort(failures, new Comparator<ParseFailure>() {
+			@Override
+			public int compare(ParseFailure f1, ParseFailure f2) {
+				return f1.getName().compareTo(f2.getName());
+			}
+		});
+		return failures;
+	}
+
+	/**
+	 * Stores the failure to parse a file, replacing any previous one.
+	 */
+	public void addParseFailure(ParseFailure failure) {
+		parseFailures.put(failure.getName(), failure);
+
+		try (
+			Connection conn = getConnection();
+			PreparedStatement ps = conn.prepareStatement("MERGE INTO PARSEFAILURES(FILENAME, MODIFIED, SIZE, REASON, FAILED) KEY(FILENAME) VALUES (?, ?, ?, ?, ?)")
+		) {
+			ps.setString(1, failure.getName());
+			ps.setTimestamp(2, new Timestamp(failure.getModified()));
+			ps.setLong(3, failure.getSize());
+			ps.setString(4, left(failure.getReason(), 255));
+			ps.setTimestamp(5, new Timestamp(failure.getFailed()));
+			ps.executeUpdate();
+		} catch (SQLException se) {
+			LOGGER.error("Error while storing the failure to parse \"{}\"", failure.getName(), se);
+		}
+	}
+
+	/**
+	 * Forgets the failure to parse a file, e.g. once it has been parsed
+	 * after it was changed or when it has been deleted.
+	 */
+	public void removeParseFailure(String name) {
+		if (parseFailures.remove(name) == null) {
+			return;
+		}
+
+		try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement("DELETE FROM PARSEFAILURES WHERE FILENAME = ?")) {
+			ps.setString(1, name);
+			ps.executeUpdate();
+		} catch (SQLException se) {
+			LOGGER.error("Error while removing the failure to parse \"{}\"", name, se);
+		}
 	}
 
 	public ArrayList<String> getStrings(String sql) {
-		ArrayList<String> list = new ArrayList<>();
+		return getStrings(sql, Collections.<String>emptyList());
+	}
+
+	/**
+	 * Runs a query whose first column is a string, e.g. the names of the
+	 * artists, and returns its distinct values, blank values being returned
+	 * as {@link #NONAME}. Results are cached until the content of the
+	 * database changes; failed queries are not cached and return null.
+	 *
+	 * @param sql The query.
+	 * @param parameters The values of the parameters of the query.
+	 * @return The values, or null if the query failed.
+	 */
+	public ArrayList<String> getStrings(String sql, List<String> parameters) {
+		QueryKey key = new QueryKey('S', sql, parameters);
+		ArrayList<String> cached = getCachedQuery(key);
+
+		if (cached != null) {
+			return cached;
+		}
+
+		long currentGeneration = generation.get();
+		Set<String> strings = new LinkedHashSet<>();
 		Connection conn = null;
 		ResultSet rs = null;
 		PreparedStatement ps = null;
 		try {
 			conn = getConnection();
 			ps = conn.prepareStatement(sql);
+			setParameters(ps, parameters);
 			rs = ps.executeQuery();
 			while (rs.next()) {
 				String str = rs.getString(1);
-				if (isBlank(str)) {
-					if (!list.contains(NONAME)) {
-						list.add(NONAME);
-					}
-				} else if (!list.contains(str)) {
-					list.add(str);
-				}
+				strings.add(isBlank(str) ? NONAME : str);
 			}
 		} catch (SQLException se) {
 			LOGGER.error(null, se);
@@ -644,58 +1363,194 @@ public class DLNAMediaDatabase implements Runnable {
 			close(ps);
 			close(conn);
 		}
+		ArrayList<String> list = new ArrayList<>(strings);
+		putCachedQuery(key, currentGeneration, list);
 		return list;
 	}
 
+	/**
+	 * Removes the entries and the parse failures of the files that have been
+	 * deleted or modified since they were parsed, and returns when it is done.
+	 *
+	 * @see DatabaseCleaner
+	 */
 	public void cleanup() {
+		flush();
+		new DatabaseCleaner(this, configuration.getScanThreads()).run();
+
+		// The files that were deleted or changed since they failed to be parsed
+		for (ParseFailure failure : getParseFailures()) {
+			File file = new File(failure.getName());
+
+			if (!failure.matches(file.lastModified(), file.length())) {
+				removeParseFailure(failure.getName());
+			}
+		}
+	}
+
+	/**
+	 * Starts removing the entries of the files that have been deleted or
+	 * modified with low priority threads, unless it is running already.
+	 */
+	public synchronized void cleanupInBackground() {
+		if (cleaner != null && cleaner.isAlive()) {
+			return;
+		}
+
+		cleaner = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				cleanup();
+			}
+		}, "database-cleanup");
+		cleaner.setDaemon(true);
+		cleaner.setPriority(Thread.MIN_PRIORITY);
+		cleaner.start();
+	}
+
+	/**
+	 * An entry of the FILES table, as checked by the {@link DatabaseCleaner}.
+	 */
+	static class FileEntry {
+		final int id;
+		final String name;
+		final long modified;
+
+		FileEntry(int id, String name, long modified) {
+			this.id = id;
+			this.name = name;
+			this.modified = modified;
+		}
+	}
+
+	int getFileCount() throws SQLException {
+		try (Connection conn = getConnection(); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM FILES")) {
+			dbCount = rs.next() ? rs.getInt(1) : 0;
+			return dbCount;
+		}
+	}
+
+	/**
+	 * Reads the entries of the FILES table in the order of their names. The
+	 * entries of a name are never split between two calls.
+	 *
+	 * @param after The name of the last entry that was read, or an empty
+	 *              string to start from the first one.
+	 * @param limit The number of entries to read.
+	 * @return The entries, or an empty list if there are no more.
+	 */
+	List<FileEntry> getFileEntries(String after, int limit) throws SQLException {
+		List<FileEntry> entries = new ArrayList<>();
+
+		try (Connection conn = getConnection()) {
+			try (PreparedStatement ps = conn.prepareStatement("SELECT ID, FILENAME, MODIFIED FROM FILES WHERE FILENAME > ? ORDER BY FILENAME LIMIT ?")) {
+				ps.setString(1, after);
+				ps.setInt(2, limit);
+				readFileEntries(ps, entries);
+			}
+
+			if (entries.size() == limit) {
+				// The last name may have more entries than the ones that fit
+				String last = entries.get(entries.size() - 1).name;
+
+				while (!entries.isEmpty() && entries.get(entries.size() - 1).name.equals(last)) {
+					entries.remove(entries.size() - 1);
+				}
+
+				try (PreparedStatement ps = conn.prepareStatement("SELECT ID, FILENAME, MODIFIED FROM FILES WHERE FILENAME = ?")) {
+					ps.setString(1, last);
+					readFileEntries(ps, entries);
+				}
+			}
+		}
+
+		return entries;
+	}
+
+	private void readFileEntries(PreparedStatement ps, List<FileEntry> entries) throws SQLException {
+		try (ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				entries.add(new FileEntry(rs.getInt("ID"), rs.getString("FILENAME"), rs.getTimestamp("MODIFIED").getTime()));
+			}
+		}
+	}
+
+	/**
+	 * Removes entries of the FILES table with their audio and subtitle
+	 * tracks, in a single transaction.
+	 */
+	void removeFileEntries(List<FileEntry> entries) throws SQLException {
+		if (entries.isEmpty()) {
+			return;
+		}
+
 		Connection conn = null;
-		PreparedStatement ps = null;
-		ResultSet rs = null;
 
 		try {
 			conn = getConnection();
-			ps = conn.prepareStatement("SELECT COUNT(*) FROM FILES");
-			rs = ps.executeQuery();
-			dbCount = 0;
+			conn.setAutoCommit(false);
 
-			if (rs.next()) {
-				dbCount = rs.getInt(1);
+			try (
+				PreparedStatement audios = conn.prepareStatement("DELETE FROM AUDIOTRACKS WHERE FILEID = ?");
+				PreparedStatement subs = conn.prepareStatement("DELETE FROM SUBTRACKS WHERE FILEID = ?");
+				PreparedStatement files = conn.prepareStatement("DELETE FROM FILES WHERE FILENAME = ? AND MODIFIED = ? AND ID = ?")
+			) {
+				for (FileEntry entry : entries) {
+					audios.setInt(1, entry.id);
+					audios.addBatch();
+					subs.setInt(1, entry.id);
+					subs.addBatch();
+					files.setString(1, entry.name);
+					files.setTimestamp(2, new Timestamp(entry.modified));
+					files.setInt(3, entry.id);
+					files.addBatch();
+				}
+
+				audios.executeBatch();
+				subs.executeBatch();
+				files.executeBatch();
 			}
 
-			rs.close();
-			ps.close();
-			PMS.get().getFrame().setStatusLine(Messages.getString("DLNAMediaDatabase.2") + " 0%");
-			int i = 0;
-			int oldpercent = 0;
-
-			if (dbCount > 0) {
-				ps = conn.prepareStatement("SELECT FILENAME, MODIFIED, ID FROM FILES", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
-				rs = ps.executeQuery();
-				while (rs.next()) {
-					String filename = rs.getString("FILENAME");
-					long modified = rs.getTimestamp("MODIFIED").getTime();
-					File file = new File(filename);
-					if (!file.exists() || file.lastModified() != modified) {
-						rs.deleteRow();
-					}
-					i++;
-					int newpercent = i * 100 / dbCount;
-					if (newpercent > oldpercent) {
-						PMS.get().getFrame().setStatusLine(Messages.getString("DLNAMediaDatabase.2") + newpercent + "%");
-						oldpercent = newpercent;
-					}
-				}
+			conn.commit();
+
+			for (FileEntry entry : entries) {
+				index.remove(entry.name, entry.modified);
+				searchIndex.remove(entry.name, entry.modified);
 			}
+
+			generation.incrementAndGet();
 		} catch (SQLException se) {
-			LOGGER.error(null, se);
+			rollback(conn);
+			throw se;
 		} finally {
-			close(rs);
-			close(ps);
+			restoreAutoCommit(conn);
 			close(conn);
 		}
 	}
 
 	public ArrayList<File> getFiles(String sql) {
+		return getFiles(sql, Collections.<String>emptyList());
+	}
+
+	/**
+	 * Runs a query of file names and modification times, or the condition
+	 * of such a query on the FILES table, and returns the files that haven't
+	 * been modified since. Results are cached until the content of the
+	 * database changes; failed queries are not cached and return null.
+	 *
+	 * @param sql The query or its condition.
+	 * @param parameters The values of the parameters of the query.
+	 * @return The files, or null if the query failed.
+	 */
+	public ArrayList<File> getFiles(String sql, List<String> parameters) {
+		QueryKey key = new QueryKey('F', sql, parameters);
+		ArrayList<File> cached = getCachedQuery(key);
+
+		if (cached != null) {
+			return cached;
+		}
+
+		long currentGeneration = generation.get();
 		ArrayList<File> list = new ArrayList<>();
 		Connection conn = null;
 		ResultSet rs = null;
@@ -703,6 +1558,7 @@ public class DLNAMediaDatabase implements Runnable {
 		try {
 			conn = getConnection();
 			ps = conn.prepareStatement(sql.toLowerCase().startsWith("select") ? sql : ("SELECT FILENAME, MODIFIED FROM FILES WHERE " + sql));
+			setParameters(ps, parameters);
 			rs = ps.executeQuery();
 			while (rs.next()) {
 				String filename = rs.getString("FILENAME");
@@ -720,9 +1576,47 @@ public class DLNAMediaDatabase implements Runnable {
 			close(ps);
 			close(conn);
 		}
+		putCachedQuery(key, currentGeneration, list);
 		return list;
 	}
 
+	private void setParameters(PreparedStatement ps, List<String> parameters) throws SQLException {
+		for (int i = 0; i < parameters.size(); i++) {
+			ps.setString(i + 1, parameters.get(i));
+		}
+	}
+
+	/**
+	 * @return A copy of the cached result of a query, or null if it isn't
+	 *         cached or the database has changed since.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> ArrayList<T> getCachedQuery(QueryKey key) {
+		synchronized (queryCache) {
+			CachedQuery query = queryCache.get(key);
+
+			if (query == null || query.generation != generation.get()) {
+				return null;
+			}
+
+			return new ArrayList<>((List<T>) query.result);
+		}
+	}
+
+	private void putCachedQuery(QueryKey key, long queryGeneration, List<?> result) {
+		synchronized (queryCache) {
+			queryCache.put(key, new CachedQuery(queryGeneration, new ArrayList<>(result)));
+		}
+	}
+
+	/**
+	 * @return The generation of the content of the database, which changes
+	 *         every time entries are added or removed.
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
 	private void close(ResultSet rs) {
 		try {
 			if (rs != null) {
@@ -743,6 +1637,27 @@ public class DLNAMediaDatabase implements Runnable {
 		}
 	}
 
+	private void rollback(Connection conn) {
+		try {
+			if (conn != null) {
+				conn.rollback();
+			}
+		} catch (SQLException e) {
+			LOGGER.debug("Caught exception", e);
+		}
+	}
+
+	private void restoreAutoCommit(Connection conn) {
+		try {
+			if (conn != null) {
+				// Pooled connections are reused by other statements
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			LOGGER.debug("Caught exception", e);
+		}
+	}
+
 	private void close(Connection conn) {
 		try {
 			if (conn != null) {
@@ -780,6 +1695,7 @@ public class DLNAMediaDatabase implements Runnable {
 	public void compact() {
 		LOGGER.info("Compacting database...");
 		PMS.get().getFrame().setStatusLine(Messages.getString("DLNAMediaDatabase.3"));
+		flush();
 		String filename = "database/backup.sql";
 		try {
 			Script.execute(url, "sa", "", filename);
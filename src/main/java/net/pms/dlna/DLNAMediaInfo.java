@@ -36,6 +36,9 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.imageio.ImageIO;
 import net.coobird.thumbnailator.Thumbnails;
 import net.pms.PMS;
@@ -86,6 +89,10 @@ public class DLNAMediaInfo implements Cloneable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(DLNAMediaInfo.class);
 	private static final PmsConfiguration configuration = PMS.getConfiguration();
 
+	// How long the thumbnailers may run before they are stopped, in milliseconds
+	private static final long FFMPEG_THUMBNAIL_TIMEOUT = 10000;
+	private static final long MPLAYER_THUMBNAIL_TIMEOUT = 3000;
+
 	public static final long ENDFILE_POS = 99999475712L;
 
 	/**
@@ -153,7 +160,15 @@ public class DLNAMediaInfo implements Cloneable {
 	 * @deprecated Use standard getter and setter to access this variable.
 	 */
 	@Deprecated
-	public byte thumb[];
+	public volatile byte thumb[];
+
+	// The hash of the thumbnail in the ThumbnailStore, when it was read from the database
+	private volatile String thumbHash;
+
+	// The last thumbnail put in the ThumbnailStore to be served scaled, and its hash
+	private final Object thumbStoreLock = new Object();
+	private byte[] storedThumb;
+	private String storedThumbHash;
 
 	/**
 	 * @deprecated Use standard getter and setter to access this variable.
@@ -237,7 +252,7 @@ public class DLNAMediaInfo implements Cloneable {
 	 * @deprecated Use standard getter and setter to access this variable.
 	 */
 	@Deprecated
-	public boolean thumbready;
+	public volatile boolean thumbready;
 
 	/**
 	 * @deprecated Use standard getter and setter to access this variable.
@@ -257,6 +272,9 @@ public class DLNAMediaInfo implements Cloneable {
 	@Deprecated
 	public boolean parsing = false;
 
+	// Held while the media information is parsed, see lockParse()
+	private ReentrantLock parseLock = new ReentrantLock();
+
 	private boolean ffmpeg_failure;
 	private boolean ffmpeg_annexb_failure;
 	private boolean muxable;
@@ -399,7 +417,15 @@ public class DLNAMediaInfo implements Cloneable {
 		}
 
 		forThumbnail.parse(input, ext, type, true, resume);
-		thumb = forThumbnail.thumb;
+
+		// This media information may be shared by several renderers
+		if (lockParse()) {
+			try {
+				setThumb(forThumbnail.thumb);
+			} finally {
+				unlockParse();
+			}
+		}
 	}
 
 	private ProcessWrapperImpl getFFMpegThumbnail(InputFile media, boolean resume) {
@@ -460,23 +486,21 @@ public class DLNAMediaInfo implements Cloneable {
 
 		// FAILSAFE
 		parsing = true;
-		Runnable r = new Runnable() {
+		ScheduledFuture<?> failsafe = ThumbnailService.getInstance().scheduleTimeout(new Runnable() {
 			@Override
 			public void run() {
-				try {
-					Thread.sleep(10000);
-					ffmpeg_failure = true;
-				} catch (InterruptedException e) { }
-
+				ffmpeg_failure = true;
 				pw.stopProcess();
-				parsing = false;
 			}
-		};
+		}, FFMPEG_THUMBNAIL_TIMEOUT);
+
+		try {
+			pw.runInSameThread();
+		} finally {
+			failsafe.cancel(false);
+			parsing = false;
+		}
 
-		Thread failsafe = new Thread(r, "FFmpeg Thumbnail Failsafe");
-		failsafe.start();
-		pw.runInSameThread();
-		parsing = false;;
 		return pw;
 	}
 
@@ -521,22 +545,20 @@ public class DLNAMediaInfo implements Cloneable {
 
 		// FAILSAFE
 		parsing = true;
-		Runnable r = new Runnable() {
+		ScheduledFuture<?> failsafe = ThumbnailService.getInstance().scheduleTimeout(new Runnable() {
 			@Override
 			public void run() {
-				try {
-					Thread.sleep(3000);
-				} catch (InterruptedException e) { }
-
 				pw.stopProcess();
-				parsing = false;
 			}
-		};
+		}, MPLAYER_THUMBNAIL_TIMEOUT);
+
+		try {
+			pw.runInSameThread();
+		} finally {
+			failsafe.cancel(false);
+			parsing = false;
+		}
 
-		Thread failsafe = new Thread(r, "MPlayer Thumbnail Failsafe");
-		failsafe.start();
-		pw.runInSameThread();
-		parsing = false;
 		return pw;
 	}
 
@@ -551,26 +573,111 @@ public class DLNAMediaInfo implements Cloneable {
 		}
 	}
 
-	public void parse(InputFile inputFile, Format ext, int type, boolean thumbOnly, boolean resume) {
-		int i = 0;
+	/**
+	 * Locks this media information while it is parsed. If another thread is
+	 * parsing it, waits for that parse to finish, at most for the configured
+	 * parse timeout.
+	 *
+	 * @return True if the lock has been acquired, in which case it must be
+	 *         released with {@link #unlockParse()}; false if the wait timed
+	 *         out or was interrupted, in which case the media information
+	 *         must be left as it is.
+	 */
+	boolean lockParse() {
+		if (parseLock.tryLock()) {
+			return true;
+		}
+
+		long start = System.currentTimeMillis();
 
-		while (isParsing()) {
-			if (i == 5) {
-				mediaparsed = true;
-				break;
+		try {
+			if (parseLock.tryLock(configuration.getParseTimeout(), TimeUnit.SECONDS)) {
+				LOGGER.trace("Waited {} ms for the media information to be parsed by another thread", System.currentTimeMillis() - start);
+				return true;
 			}
 
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) { }
+			LOGGER.debug("Timed out waiting for the media information to be parsed by another thread");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return false;
+	}
+
+	void unlockParse() {
+		parseLock.unlock();
+	}
+
+	/**
+	 * Parses an image that {@link ImageProbe} doesn't support, e.g. a TIFF
+	 * image, with Sanselan.
+	 */
+	private void parseImageWithSanselan(File file) {
+		try {
+			ImageInfo info = Sanselan.getImageInfo(file);
+			width = info.getWidth();
+			height = info.getHeight();
+			bitsPerPixel = info.getBitsPerPixel();
+			String formatName = info.getFormatName();
+
+			if (formatName.startsWith("JPEG")) {
+				codecV = "jpg";
+				IImageMetadata meta = Sanselan.getMetadata(file);
+
+				if (meta != null && meta instanceof JpegImageMetadata) {
+					JpegImageMetadata jpegmeta = (JpegImageMetadata) meta;
+					TiffField tf = jpegmeta.findEXIFValue(TiffConstants.EXIF_TAG_MODEL);
+
+					if (tf != null) {
+						model = tf.getStringValue().trim();
+					}
+
+					tf = jpegmeta.findEXIFValue(TiffConstants.EXIF_TAG_EXPOSURE_TIME);
+					if (tf != null) {
+						exposure = (int) (1000 * tf.getDoubleValue());
+					}
+
+					tf = jpegmeta.findEXIFValue(TiffConstants.EXIF_TAG_ORIENTATION);
+					if (tf != null) {
+						orientation = tf.getIntValue();
+					}
 
-			i++;
+					tf = jpegmeta.findEXIFValue(TiffConstants.EXIF_TAG_ISO);
+					if (tf != null) {
+						// Galaxy Nexus jpg pictures may contain multiple values, take the first
+						int[] isoValues = tf.getIntArrayValue();
+						iso = isoValues[0];
+					}
+				}
+			} else if (formatName.startsWith("PNG")) {
+				codecV = "png";
+			} else if (formatName.startsWith("GIF")) {
+				codecV = "gif";
+			} else if (formatName.startsWith("TIF")) {
+				codecV = "tiff";
+			}
+
+			container = codecV;
+		} catch (ImageReadException | IOException e) {
+			LOGGER.info("Error parsing image ({}) with Sanselan, switching to FFmpeg.", file.getAbsolutePath());
 		}
+	}
 
-		if (isMediaparsed()) {
+	public void parse(InputFile inputFile, Format ext, int type, boolean thumbOnly, boolean resume) {
+		if (!lockParse()) {
 			return;
 		}
 
+		try {
+			if (!isMediaparsed()) {
+				parseFile(inputFile, ext, type, thumbOnly, resume);
+			}
+		} finally {
+			unlockParse();
+		}
+	}
+
+	private void parseFile(InputFile inputFile, Format ext, int type, boolean thumbOnly, boolean resume) {
 		if (inputFile != null) {
 			File file = inputFile.getFile();
 			if (file != null) {
@@ -671,71 +778,58 @@ public class DLNAMediaInfo implements Cloneable {
 			}
 
 			if (type == Format.IMAGE && file != null) {
-				try {
-					ffmpeg_parsing = false;
-					ImageInfo info = Sanselan.getImageInfo(file);
-					width = info.getWidth();
-					height = info.getHeight();
-					bitsPerPixel = info.getBitsPerPixel();
-					String formatName = info.getFormatName();
-
-					if (formatName.startsWith("JPEG")) {
-						codecV = "jpg";
-						IImageMetadata meta = Sanselan.getMetadata(file);
-
-						if (meta != null && meta instanceof JpegImageMetadata) {
-							JpegImageMetadata jpegmeta = (JpegImageMetadata) meta;
-							TiffField tf = jpegmeta.findEXIFValue(TiffConstants.EXIF_TAG_MODEL);
-
-							if (tf != null) {
-								model = tf.getStringValue().trim();
-							}
+				ffmpeg_parsing = false;
+				ImageProbe probe = ImageProbe.probe(file);
+
+				if (probe != null) {
+					// JPEG, PNG and GIF images are parsed from their headers only
+					width = probe.getWidth();
+					height = probe.getHeight();
+					bitsPerPixel = probe.getBitsPerPixel();
+					codecV = probe.getCodec();
+					container = codecV;
 
-							tf = jpegmeta.findEXIFValue(TiffConstants.EXIF_TAG_EXPOSURE_TIME);
-							if (tf != null) {
-								exposure = (int) (1000 * tf.getDoubleValue());
-							}
+					if (probe.getModel() != null) {
+						model = probe.getModel();
+					}
 
-							tf = jpegmeta.findEXIFValue(TiffConstants.EXIF_TAG_ORIENTATION);
-							if (tf != null) {
-								orientation = tf.getIntValue();
-							}
+					if (probe.getExposure() > 0) {
+						exposure = probe.getExposure();
+					}
 
-							tf = jpegmeta.findEXIFValue(TiffConstants.EXIF_TAG_ISO);
-							if (tf != null) {
-								// Galaxy Nexus jpg pictures may contain multiple values, take the first
-								int[] isoValues = tf.getIntArrayValue();
-								iso = isoValues[0];
-							}
-						}
-					} else if (formatName.startsWith("PNG")) {
-						codecV = "png";
-					} else if (formatName.startsWith("GIF")) {
-						codecV = "gif";
-					} else if (formatName.startsWith("TIF")) {
-						codecV = "tiff";
+					if (probe.getOrientation() > 0) {
+						orientation = probe.getOrientation();
 					}
 
-					container = codecV;
-				} catch (ImageReadException | IOException e) {
-					LOGGER.info("Error parsing image ({}) with Sanselan, switching to FFmpeg.", file.getAbsolutePath());
+					if (probe.getIso() > 0) {
+						iso = probe.getIso();
+					}
+				} else {
+					parseImageWithSanselan(file);
 				}
+
 				if (configuration.getImageThumbnailsEnabled() && gen_thumb) {
 					LOGGER.trace("Creating (temporary) thumbnail: {}", file.getName());
 
-					// Create the thumbnail image using the Thumbnailator library
-					try {
-						ByteArrayOutputStream out = new ByteArrayOutputStream();	
-						Thumbnails.of(file)
-								.size(320, 180)
-								.outputFormat("JPEG")
-								.outputQuality(1.0f)
-								.toOutputStream(out);
-
-						thumb = out.toByteArray();
-					} catch (IOException | IllegalArgumentException | IllegalStateException e) {
-						LOGGER.debug("Error generating thumbnail for: " + file.getName());
-						LOGGER.debug("The full error was: " + e);
+					byte[] probedThumb = probe != null ? probe.createThumbnail(file, 320, 180) : null;
+
+					if (probedThumb != null) {
+						thumb = probedThumb;
+					} else {
+						// Create the thumbnail image using the Thumbnailator library
+						try {
+							ByteArrayOutputStream out = new ByteArrayOutputStream();
+							Thumbnails.of(file)
+									.size(320, 180)
+									.outputFormat("JPEG")
+									.outputQuality(1.0f)
+									.toOutputStream(out);
+
+							thumb = out.toByteArray();
+						} catch (IOException | IllegalArgumentException | IllegalStateException e) {
+							LOGGER.debug("Error generating thumbnail for: " + file.getName());
+							LOGGER.debug("The full error was: " + e);
+						}
 					}
 				}
 			}
@@ -1361,8 +1455,59 @@ public class DLNAMediaInfo implements Cloneable {
 		return result.toString();
 	}
 
+	/**
+	 * @return A stream of the thumbnail, or null if the thumbnail in the
+	 *         {@link ThumbnailStore} has been deleted.
+	 */
 	public InputStream getThumbnailInputStream() {
-		return new ByteArrayInputStream(thumb);
+		return getThumbnailInputStream(null);
+	}
+
+	/**
+	 * @param size The size to scale the thumbnail down to, or null for the
+	 *             thumbnail as it is.
+	 * @return A stream of the thumbnail, or null if the thumbnail in the
+	 *         {@link ThumbnailStore} has been deleted.
+	 */
+	public InputStream getThumbnailInputStream(ThumbnailSize size) {
+		if (thumb == null && thumbHash != null) {
+			return ThumbnailStore.getInstance().getInputStream(thumbHash, size);
+		}
+
+		byte[] data = thumb;
+
+		if (size != null) {
+			String hash = storeThumb(data);
+
+			if (hash != null) {
+				InputStream stream = ThumbnailStore.getInstance().getInputStream(hash, size);
+
+				if (stream != null) {
+					return stream;
+				}
+			}
+
+			return new ByteArrayInputStream(ThumbnailScaler.scale(data, size));
+		}
+
+		return new ByteArrayInputStream(data);
+	}
+
+	/**
+	 * Stores a freshly parsed thumbnail in the {@link ThumbnailStore} with
+	 * its scaled copies, once, so that they aren't scaled on every request.
+	 *
+	 * @return The hash of the thumbnail, or null if it couldn't be stored.
+	 */
+	private String storeThumb(byte[] data) {
+		synchronized (thumbStoreLock) {
+			if (storedThumb != data) {
+				storedThumbHash = ThumbnailStore.getInstance().put(data);
+				storedThumb = data;
+			}
+
+			return storedThumbHash;
+		}
 	}
 
 	public String getValidFps(boolean ratios) {
@@ -1582,6 +1727,7 @@ public class DLNAMediaInfo implements Cloneable {
 
 		if (cloned instanceof DLNAMediaInfo) {
 			DLNAMediaInfo mediaCloned = ((DLNAMediaInfo) cloned);
+			mediaCloned.parseLock = new ReentrantLock();
 			mediaCloned.setAudioTracksList(new ArrayList<DLNAMediaAudio>());
 
 			for (DLNAMediaAudio audio : audioTracks) {
@@ -1806,6 +1952,10 @@ public class DLNAMediaInfo implements Cloneable {
 	 * @since 1.50.0
 	 */
 	public byte[] getThumb() {
+		if (thumb == null && thumbHash != null) {
+			return ThumbnailStore.getInstance().get(thumbHash);
+		}
+
 		return thumb;
 	}
 
@@ -1815,6 +1965,33 @@ public class DLNAMediaInfo implements Cloneable {
 	 */
 	public void setThumb(byte[] thumb) {
 		this.thumb = thumb;
+		thumbHash = null;
+	}
+
+	/**
+	 * @return True if there is a thumbnail, without loading it.
+	 */
+	public boolean hasThumb() {
+		return thumb != null || thumbHash != null;
+	}
+
+	/**
+	 * @return The hash of the thumbnail in the {@link ThumbnailStore}, if
+	 *         it was read from the database and hasn't been loaded.
+	 */
+	public String getThumbHash() {
+		return thumbHash;
+	}
+
+	/**
+	 * Sets the thumbnail to the one stored with the given hash in the
+	 * {@link ThumbnailStore}, which is only loaded when it is used.
+	 *
+	 * @param thumbHash The hash of the thumbnail.
+	 */
+	public void setThumbHash(String thumbHash) {
+		this.thumbHash = thumbHash;
+		thumb = null;
 	}
 
 	/**
@@ -24,8 +24,7 @@ import java.net.URLEncoder;
 import java.net.UnknownHostException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import net.pms.Messages;
 import net.pms.PMS;
@@ -260,6 +259,29 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 
 	protected HashMap<String, Object> attachments = null;
 
+	/**
+	 * True once this resource has been removed from its parent's children.
+	 */
+	private volatile boolean detached;
+
+	/**
+	 * True if the thumbnail was still being generated when it was requested.
+	 */
+	private volatile boolean thumbnailPending;
+
+	/**
+	 * The MIME type preferred by the renderer of this tree for this resource,
+	 * if any. It is kept here rather than in the media information because
+	 * the latter is shared with the trees of the other renderers.
+	 */
+	private String rendererMimeType;
+
+	/**
+	 * The index of the resources of the tree this resource is the root of,
+	 * created the first time the tree is queried.
+	 */
+	private ResourceIndex resourceIndex;
+
 	/**
 	 * Returns parent object, usually a folder type of resource. In the DLDI
 	 * queries, the UPNP server needs to give out the parent container where
@@ -413,7 +435,7 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 
 	public DLNAResource() {
 		this.specificType = Format.UNKNOWN;
-		this.children = new ArrayList<>();
+		this.children = new ChildrenList();
 		this.updateId = 1;
 		lastSearch = null;
 		resHash = 0;
@@ -546,10 +568,10 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 							// Override with the preferred mime type of the renderer
 							LOGGER.trace("Overriding detected mime type \"{}\" for file \"{}\" with renderer preferred mime type \"{}\"",
 									child.media.getMimeType(), child.getName(), mimeType);
-							child.media.setMimeType(mimeType);
+							child.rendererMimeType = mimeType;
 						}
 
-						LOGGER.trace("File \"{}\" can be streamed with mime type \"{}\"", child.getName(), child.media.getMimeType());
+						LOGGER.trace("File \"{}\" can be streamed with mime type \"{}\"", child.getName(), child.mimeType());
 					} else {
 						// Media is transcodable
 						LOGGER.trace("File \"{}\" can be transcoded", child.getName());
@@ -920,6 +942,87 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 
 		setLastChildId(getLastChildId() + 1);
 		child.setIndexId(getLastChildId());
+
+		DLNAResource root = getAttachedRoot();
+		if (root != null && root.resourceIndex != null) {
+			root.resourceIndex.put(child.getResourceId(), child);
+		}
+	}
+
+	/**
+	 * Attaches a container to this root without adding it to its children:
+	 * the container gets an ID and can be browsed by it, with its children,
+	 * but it isn't listed when the root is browsed. The caller must keep a
+	 * reference to the container for as long as it can be browsed, since the
+	 * resource index only references it weakly.
+	 *
+	 * @param child The container to attach.
+	 */
+	protected synchronized void addHiddenChild(DLNAResource child) {
+		child.parent = this;
+		child.masterParent = masterParent;
+
+		setLastChildId(getLastChildId() + 1);
+		child.setIndexId(getLastChildId());
+
+		if (resourceIndex == null) {
+			resourceIndex = new ResourceIndex();
+		}
+
+		resourceIndex.put(child.getResourceId(), child);
+	}
+
+	/**
+	 * @return The root of the tree this resource is attached to, or null if
+	 *         this resource or one of its ancestors has been removed from
+	 *         its parent.
+	 */
+	private DLNAResource getAttachedRoot() {
+		DLNAResource resource = this;
+
+		while (resource.parent != null) {
+			if (resource.detached) {
+				return null;
+			}
+
+			resource = resource.parent;
+		}
+
+		return resource;
+	}
+
+	/**
+	 * Finds the resource with the given ID in the tree this resource is the
+	 * root of. The resource index is tried first, so that items that have
+	 * already been materialized are found without walking the tree; other
+	 * IDs are searched (and discovered) with {@link #search(String, int,
+	 * RendererConfiguration, String)} and then indexed.
+	 */
+	private DLNAResource lookup(String objectId, int count, RendererConfiguration renderer, String searchStr) {
+		if (parent != null || objectId == null) {
+			return search(objectId, count, renderer, searchStr);
+		}
+
+		ResourceIndex index;
+		synchronized (this) {
+			if (resourceIndex == null) {
+				resourceIndex = new ResourceIndex();
+			}
+
+			index = resourceIndex;
+		}
+
+		DLNAResource found = index.get(objectId);
+		if (found != null && found.getAttachedRoot() == this && objectId.equals(found.getResourceId())) {
+			return found;
+		}
+
+		found = search(objectId, count, renderer, searchStr);
+		if (found != null) {
+			index.put(objectId, found);
+		}
+
+		return found;
 	}
 
 	/**
@@ -935,13 +1038,23 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	 * @return List of DLNAResource items.
 	 * @throws IOException
 	 */
-	public synchronized List<DLNAResource> getDLNAResources(String objectId, boolean children, int start, int count, RendererConfiguration renderer) throws IOException {
+	public List<DLNAResource> getDLNAResources(String objectId, boolean children, int start, int count, RendererConfiguration renderer) throws IOException {
 		return getDLNAResources(objectId, children, start, count, renderer, null);
 	}
 
-	public synchronized List<DLNAResource> getDLNAResources(String objectId, boolean returnChildren, int start, int count, RendererConfiguration renderer, String searchStr) throws IOException {
+	/**
+	 * Same as {@link #getDLNAResources(String, boolean, int, int, RendererConfiguration)},
+	 * but with an optional search string.
+	 * <p>
+	 * This method is not synchronized on the root: each container is locked
+	 * (on its own monitor) only while it is discovered or refreshed and while
+	 * the requested window of children is copied. Requests for independent
+	 * subtrees can therefore be served in parallel, while concurrent requests
+	 * for the same container still discover it only once.
+	 */
+	public List<DLNAResource> getDLNAResources(String objectId, boolean returnChildren, int start, int count, RendererConfiguration renderer, String searchStr) throws IOException {
 		ArrayList<DLNAResource> resources = new ArrayList<>();
-		DLNAResource dlna = search(objectId, count, renderer, searchStr);
+		DLNAResource dlna = lookup(objectId, count, renderer, searchStr);
 
 		if (dlna != null) {
 			String systemName = dlna.getSystemName();
@@ -951,45 +1064,45 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 				resources.add(dlna);
 				dlna.refreshChildrenIfNeeded(searchStr);
 			} else {
-				dlna.discoverWithRenderer(renderer, count, true, searchStr);
+				List<DLNAResource> window = new ArrayList<>();
 
-				if (count == 0) {
-					count = dlna.getChildren().size();
-				}
+				synchronized (dlna) {
+					dlna.discoverWithRenderer(renderer, count, true, searchStr);
+					dlna.materializeChildren(start, count == 0 ? -1 : count);
 
-				if (count > 0) {
-					ArrayBlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(count);
+					if (count == 0) {
+						count = dlna.getChildren().size();
+					}
 
-					int nParallelThreads = 3;
-					if (dlna instanceof DVDISOFile) {
-						nParallelThreads = 1; // Some DVD drives die with 3 parallel threads
+					for (int i = start; i < start + count && i < dlna.getChildren().size(); i++) {
+						window.add(dlna.getChildren().get(i));
 					}
-					ThreadPoolExecutor tpe = new ThreadPoolExecutor(
-						Math.min(count, nParallelThreads),
-						count,
-						20,
-						TimeUnit.SECONDS,
-						queue
-					);
+				}
 
-					for (int i = start; i < start + count; i++) {
-						if (i < dlna.getChildren().size()) {
-							final DLNAResource child = dlna.getChildren().get(i);
+				count = window.size();
 
-							if (child != null) {
-								tpe.execute(child);
-								resources.add(child);
-							} else {
-								LOGGER.warn("null child at index {} in {}", i, systemName);
-							}
+				if (count > 0) {
+					for (int i = 0; i < count; i++) {
+						DLNAResource child = window.get(i);
+
+						if (child != null) {
+							resources.add(child);
+						} else {
+							LOGGER.warn("null child at index {} in {}", start + i, systemName);
 						}
 					}
-					try {
-						tpe.shutdown();
-						tpe.awaitTermination(20, TimeUnit.SECONDS);
-					} catch (InterruptedException e) {
-						LOGGER.error("error while shutting down thread pool executor for " + systemName, e);
-					}
+
+					// Children that aren't resolved before the deadline are returned with
+					// the metadata known so far, and keep being resolved in the background
+					AnalysisExecutor.getInstance().resolve(
+						resources,
+						dlna.getAnalysisDevice(),
+						dlna.getMaxConcurrentAnalyses(),
+						TimeUnit.SECONDS.toMillis(configuration.getResolverTimeout())
+					);
+
+					// Parse what the renderer is likely to browse next while it displays this page
+					PreParser.getInstance().folderBrowsed(dlna);
 
 					LOGGER.trace("End of analysis for " + systemName);
 				}
@@ -1000,7 +1113,7 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 		return resources;
 	}
 
-	protected void refreshChildrenIfNeeded(String search) {
+	protected synchronized void refreshChildrenIfNeeded(String search) {
 		if (isDiscovered() && shouldRefresh(search)) {
 			refreshChildren(search);
 			notifyRefresh();
@@ -1013,10 +1126,22 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	protected void notifyRefresh() {
 		lastRefreshTime = System.currentTimeMillis();
 		updateId += 1;
-		systemUpdateId += 1;
+
+		// Containers are refreshed concurrently, so guard the shared counter
+		synchronized (DLNAResource.class) {
+			systemUpdateId += 1;
+		}
+
+		DidlCache.getInstance().invalidate(this);
 	}
 
-	final protected void discoverWithRenderer(RendererConfiguration renderer, int count, boolean forced, String searchStr) {
+	/**
+	 * Discovers or refreshes the children of this container for the given
+	 * renderer. Synchronized on this container, so that concurrent requests
+	 * for the same container discover it only once, without blocking requests
+	 * for other containers.
+	 */
+	final protected synchronized void discoverWithRenderer(RendererConfiguration renderer, int count, boolean forced, String searchStr) {
 		// Discover children if it hasn't been done already
 		if (!isDiscovered()) {
 			if (configuration.getFolderLimit() && depthLimit()) {
@@ -1032,7 +1157,10 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 			discoverChildren(searchStr);
 			boolean ready;
 
-			if (renderer.isMediaParserV2() && renderer.isDLNATreeHack()) {
+			if (isLazilyEnumerated()) {
+				// Children are created as pages are browsed, see materializeChildren()
+				ready = true;
+			} else if (renderer.isMediaParserV2() && renderer.isDLNATreeHack()) {
 				ready = analyzeChildren(count);
 			} else {
 				ready = analyzeChildren(-1);
@@ -1091,9 +1219,15 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 				if (indexPath.length == 1 || indexPath[1].length() == 0) {
 					return this;
 				} else {
-					discoverWithRenderer(renderer, count, false, null);
+					// Only hold this container's lock while it is discovered;
+					// the rest of the path is walked without it.
+					List<DLNAResource> snapshot;
+					synchronized (this) {
+						discoverWithRenderer(renderer, count, false, null);
+						snapshot = new ArrayList<>(children);
+					}
 
-					for (DLNAResource file : children) {
+					for (DLNAResource file : snapshot) {
 						DLNAResource found = file.search(indexPath[1], count, renderer, null);
 						if (found != null) {
 							return found;
@@ -1107,6 +1241,29 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 		return null;
 	}
 
+	/**
+	 * Returns the key of the device (disk, network share, DVD drive...) the
+	 * children of this container are read from. Children of containers that
+	 * share a device are resolved by a limited number of threads at a time.
+	 *
+	 * @return The device key, or null if the children are not bound to a
+	 *         device, in which case only the server-wide limit applies.
+	 * @see AnalysisExecutor
+	 */
+	protected String getAnalysisDevice() {
+		return null;
+	}
+
+	/**
+	 * @return The maximum number of children of this container that are
+	 *         resolved at the same time on its device, or 0 to use the
+	 *         configured default.
+	 * @see #getAnalysisDevice()
+	 */
+	protected int getMaxConcurrentAnalyses() {
+		return 0;
+	}
+
 	/**
 	 * TODO: (botijo) What is the intention of this function? Looks like a prototype to be overloaded.
 	 */
@@ -1127,6 +1284,31 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 		return true;
 	}
 
+	/**
+	 * Returns whether the children of this container are only created when
+	 * they are browsed, up to the last requested page, instead of all at
+	 * once when it is discovered.
+	 *
+	 * @return True if the children are created by {@link #materializeChildren(int, int)}.
+	 */
+	protected boolean isLazilyEnumerated() {
+		return false;
+	}
+
+	/**
+	 * Creates the children of a lazily enumerated container until the
+	 * requested page is complete, or all of them. The children are created
+	 * from the first one, since their indexes are their positions in the
+	 * list of children, but those before the page may be created without
+	 * being resolved.
+	 *
+	 * @param start The index of the first child of the page.
+	 * @param count The number of children of the page, or -1 for all of them.
+	 * @see #isLazilyEnumerated()
+	 */
+	protected void materializeChildren(int start, int count) {
+	}
+
 	/**
 	 * Reload the list of children.
 	 */
@@ -1462,6 +1644,7 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 			// Make sure clones (typically #--TRANSCODE--# folder files)
 			// have the option to respond to resolve events
 			o.resolved = false;
+			o.resourceIndex = null;
 
 			if (media != null) {
 				o.media = (DLNAMediaInfo) media.clone();
@@ -1724,8 +1907,18 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	 *            for some hacks.
 	 * @return String representing the item. An example would start like this:
 	 *         {@code <container id="0$1" childCount="1" parentID="0" restricted="true">}
+	 * @see DidlCache
 	 */
 	public final String getDidlString(RendererConfiguration mediaRenderer) {
+		return DidlCache.getInstance().getDidlString(this, mediaRenderer);
+	}
+
+	/**
+	 * Renders the DIDL-Lite fragment of this resource, bypassing the cache.
+	 *
+	 * @see #getDidlString(RendererConfiguration)
+	 */
+	final String createDidlString(RendererConfiguration mediaRenderer) {
 		StringBuilder sb = new StringBuilder();
 		boolean subsAreValidForStreaming = false;
 		if (!isFolder()) {
@@ -1960,8 +2153,8 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 			}
 		}
 
-		appendThumbnail(mediaRenderer, sb, "JPEG_TN");
-		appendThumbnail(mediaRenderer, sb, "JPEG_SM");
+		appendThumbnail(mediaRenderer, sb, ThumbnailSize.TN);
+		appendThumbnail(mediaRenderer, sb, ThumbnailSize.SM);
 
 		if (getLastModified() > 0 && mediaRenderer.isSendDateMetadata()) {
 			addXMLTagAndAttribute(sb, "dc:date", SDF_DATE.format(new Date(getLastModified())));
@@ -2009,18 +2202,27 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	 *
 	 * @param mediaRenderer The renderer configuration.
 	 * @param sb The StringBuilder to append the response to.
+	 * @param size The size of the thumbnail. JPEG thumbnails are linked to
+	 *             a copy scaled down to it, PNG ones to the original.
 	 */
-	private void appendThumbnail(RendererConfiguration mediaRenderer, StringBuilder sb, String format) {
-		final String thumbURL = getThumbnailURL();
+	private void appendThumbnail(RendererConfiguration mediaRenderer, StringBuilder sb, ThumbnailSize size) {
+		String thumbURL = getThumbnailURL();
 
 		if (StringUtils.isNotBlank(thumbURL)) {
+			String format = size.getProfile();
+			boolean png = getThumbnailContentType().equals(PNG_TYPEMIME) && !mediaRenderer.isForceJPGThumbnails();
+
+			if (!png) {
+				thumbURL = StringUtils.replaceOnce(thumbURL, "/" + ThumbnailSize.URL_PREFIX, "/" + size.getURLPrefix());
+			}
+
 			if (mediaRenderer.getThumbNailAsResource()) {
 				// Samsung 2012 (ES and EH) models do not recognize the "albumArtURI" element. Instead,
 				// the "res" element should be used.
 				// Also use "res" when faking JPEG thumbs.
 				openTag(sb, "res");
 
-				if (getThumbnailContentType().equals(PNG_TYPEMIME) && !mediaRenderer.isForceJPGThumbnails()) {
+				if (png) {
 					addAttribute(sb, "protocolInfo", "http-get:*:image/png:DLNA.ORG_PN=PNG_TN");
 				} else {
 					addAttribute(sb, "protocolInfo", "http-get:*:image/jpeg:DLNA.ORG_PN=" + format);
@@ -2034,7 +2236,7 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 				openTag(sb, "upnp:albumArtURI");
 				addAttribute(sb, "xmlns:dlna", "urn:schemas-dlna-org:metadata-1-0/");
 
-				if (getThumbnailContentType().equals(PNG_TYPEMIME) && !mediaRenderer.isForceJPGThumbnails()) {
+				if (png) {
 					addAttribute(sb, "dlna:profileID", "PNG_TN");
 				} else {
 					addAttribute(sb, "dlna:profileID", format);
@@ -2412,6 +2614,8 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 			// singletons. Therefore it is impossible to have exactly one mime
 			// type to return.
 			return player.mimeType();
+		} else if (rendererMimeType != null) {
+			return rendererMimeType;
 		} else if (media != null && media.isMediaparsed()) {
 			return media.getMimeType();
 		} else if (getFormat() != null) {
@@ -2431,11 +2635,16 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	/**
 	 * Checks if a thumbnail exists, and, if not, generates one (if possible).
 	 * Called from Request/RequestV2 in response to thumbnail requests e.g. HEAD /get/0$1$0$42$3/thumbnail0000%5BExample.mkv
-	 * Calls DLNAMediaInfo.generateThumbnail, which in turn calls DLNAMediaInfo.parse.
+	 * The thumbnail is generated by the {@link ThumbnailService}, which calls
+	 * DLNAMediaInfo.generateThumbnail, which in turn calls DLNAMediaInfo.parse.
+	 * If it isn't ready after a short while, it is left to be generated in
+	 * the background, see {@link #isThumbnailPending()}.
 	 *
 	 * @param inputFile File to check or generate the thumbnail for.
 	 */
-	protected void checkThumbnail(InputFile inputFile) {
+	protected void checkThumbnail(final InputFile inputFile) {
+		thumbnailPending = false;
+
 		if (media != null && !media.isThumbready() && configuration.isThumbnailGenerationEnabled()) {
 			Double seekPosition = (double) configuration.getThumbnailSeekPos();
 
@@ -2447,14 +2656,66 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 				}
 			}
 
-			media.generateThumbnail(inputFile, getFormat(), getType(), seekPosition, isResume());
+			final DLNAMediaInfo target = media;
+			final Double seek = seekPosition;
+			final Format thumbnailFormat = getFormat();
+			final int type = getType();
+			final boolean isResume = isResume();
+			final File file = inputFile.getFile();
+			String key;
 
-			if (media.getThumb() != null && configuration.getUseCache() && inputFile.getFile() != null) {
-				PMS.get().getDatabase().updateThumbnail(inputFile.getFile().getAbsolutePath(), inputFile.getFile().lastModified(), getType(), media);
+			if (file != null) {
+				key = file.getAbsolutePath() + "|" + file.lastModified() + "|" + seek;
+			} else {
+				key = getSystemName() + "@" + System.identityHashCode(target) + "|" + seek;
+			}
+
+			ThumbnailService service = ThumbnailService.getInstance();
+			byte[] thumb = service.generate(key, new Callable<byte[]>() {
+				@Override
+				public byte[] call() {
+					target.generateThumbnail(inputFile, thumbnailFormat, type, seek, isResume);
+
+					if (target.getThumb() != null && configuration.getUseCache() && file != null) {
+						PMS.get().getDatabase().updateThumbnail(file.getAbsolutePath(), file.lastModified(), type, target);
+					}
+
+					return target.getThumb();
+				}
+			}, TimeUnit.SECONDS.toMillis(configuration.getThumbnailWait()));
+
+			if (thumb != null) {
+				// The thumbnail may have been generated for the media of another
+				// renderer, and the media may be shared with other renderers
+				if (target.lockParse()) {
+					try {
+						if (!target.hasThumb()) {
+							target.setThumb(thumb);
+						}
+
+						target.setThumbready(true);
+					} finally {
+						target.unlockParse();
+					}
+				}
+			} else {
+				thumbnailPending = service.isPending(key);
 			}
 		}
 	}
 
+	/**
+	 * Returns whether the thumbnail of this resource was still being
+	 * generated the last time it was checked, in which case the thumbnail
+	 * sent to the renderer is a placeholder that it shouldn't keep.
+	 *
+	 * @return True if the thumbnail is being generated.
+	 * @see #checkThumbnail()
+	 */
+	public boolean isThumbnailPending() {
+		return thumbnailPending;
+	}
+
 	/**
 	 * Returns the input stream for this resource's generic thumbnail,
 	 * which is the first of:
@@ -2506,6 +2767,19 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 		return getResourceInputStream(defaultThumbnailImage);
 	}
 
+	/**
+	 * Returns the input stream for this resource's thumbnail scaled down
+	 * to the given size. Overridden by the resources whose thumbnails can be
+	 * scaled, the others ignore the size.
+	 *
+	 * @param size The size, or null for the thumbnail as it is.
+	 * @return The InputStream
+	 * @throws IOException
+	 */
+	public InputStream getThumbnailInputStream(ThumbnailSize size) throws IOException {
+		return getThumbnailInputStream();
+	}
+
 	/**
 	 * Returns the input stream for this resource's thumbnail
 	 * (or a default image if a thumbnail can't be found).
@@ -3016,13 +3290,33 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	}
 
 	/**
-	 * Sets the list of children for this resource.
+	 * Replaces the children of this resource with the given ones. They are
+	 * copied into the list returned by {@link #getChildren()}, which keeps
+	 * track of the resources attached to the tree, rather than taking the
+	 * place of that list: the replaced children are dropped from the
+	 * resource index and the new ones that belong to this resource are
+	 * added to it.
 	 *
 	 * @param children The list of children to set.
 	 * @since 1.50
 	 */
-	protected void setChildren(List<DLNAResource> children) {
-		this.children = children;
+	protected synchronized void setChildren(List<DLNAResource> children) {
+		if (children == this.children) {
+			return;
+		}
+
+		List<DLNAResource> replacement = new ArrayList<>(children);
+		this.children.clear();
+		this.children.addAll(replacement);
+
+		DLNAResource root = getAttachedRoot();
+		if (root != null && root.resourceIndex != null) {
+			for (DLNAResource child : replacement) {
+				if (child != null && child.parent == this && child.getId() != null) {
+					root.resourceIndex.put(child.getResourceId(), child);
+				}
+			}
+		}
 	}
 
 	/**
@@ -3284,4 +3578,132 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	public ExternalListener getMasterParent() {
 		return masterParent;
 	}
+
+	/**
+	 * The list of children of a container. Keeps track of which resources
+	 * are attached to the tree, and drops the removed ones from the resource
+	 * index, however they are removed (including by plugins that modify
+	 * {@link #getChildren()} directly).
+	 */
+	private class ChildrenList extends ArrayList<DLNAResource> {
+		private static final long serialVersionUID = -3624315276438715046L;
+
+		private void attached(DLNAResource child) {
+			if (child != null) {
+				child.detached = false;
+			}
+		}
+
+		private void detached(Object object) {
+			if (object instanceof DLNAResource) {
+				DLNAResource child = (DLNAResource) object;
+				DLNAResource root = getAttachedRoot();
+
+				if (root != null && root.resourceIndex != null && child.getId() != null) {
+					root.resourceIndex.remove(child.getResourceId(), child);
+				}
+
+				child.detached = true;
+			}
+		}
+
+		@Override
+		public boolean add(DLNAResource child) {
+			attached(child);
+			return super.add(child);
+		}
+
+		@Override
+		public void add(int index, DLNAResource child) {
+			attached(child);
+			super.add(index, child);
+		}
+
+		@Override
+		public boolean addAll(Collection<? extends DLNAResource> c) {
+			for (DLNAResource child : c) {
+				attached(child);
+			}
+
+			return super.addAll(c);
+		}
+
+		@Override
+		public boolean addAll(int index, Collection<? extends DLNAResource> c) {
+			for (DLNAResource child : c) {
+				attached(child);
+			}
+
+			return super.addAll(index, c);
+		}
+
+		@Override
+		public DLNAResource set(int index, DLNAResource child) {
+			DLNAResource previous = super.set(index, child);
+
+			if (previous != child) {
+				detached(previous);
+				attached(child);
+			}
+
+			return previous;
+		}
+
+		@Override
+		public DLNAResource remove(int index) {
+			DLNAResource child = super.remove(index);
+			detached(child);
+			return child;
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			if (super.remove(o)) {
+				detached(o);
+				return true;
+			}
+
+			return false;
+		}
+
+		@Override
+		public boolean removeAll(Collection<?> c) {
+			for (DLNAResource child : this) {
+				if (c.contains(child)) {
+					detached(child);
+				}
+			}
+
+			return super.removeAll(c);
+		}
+
+		@Override
+		public boolean retainAll(Collection<?> c) {
+			for (DLNAResource child : this) {
+				if (!c.contains(child)) {
+					detached(child);
+				}
+			}
+
+			return super.retainAll(c);
+		}
+
+		@Override
+		protected void removeRange(int fromIndex, int toIndex) {
+			for (int i = fromIndex; i < toIndex; i++) {
+				detached(get(i));
+			}
+
+			super.removeRange(fromIndex, toIndex);
+		}
+
+		@Override
+		public void clear() {
+			for (DLNAResource child : this) {
+				detached(child);
+			}
+
+			super.clear();
+		}
+	}
 }
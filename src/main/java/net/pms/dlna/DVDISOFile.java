@@ -75,6 +75,16 @@ public class DVDISOFile extends VirtualFolder {
 		}
 	}
 
+	@Override
+	protected String getAnalysisDevice() {
+		return file.getAbsolutePath();
+	}
+
+	@Override
+	protected int getMaxConcurrentAnalyses() {
+		return 1; // Some DVD drives die with 3 parallel threads
+	}
+
 	@Override
 	protected void resolveOnce() {
 		double titles[] = new double[100];
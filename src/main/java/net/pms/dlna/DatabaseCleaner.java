@@ -0,0 +1,219 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import net.pms.Messages;
+import net.pms.PMS;
+import net.pms.newgui.IFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes the entries of the media database whose files have been deleted
+ * or modified. The FILES table is read in chunks, in the order of its
+ * primary key, and the entries of every chunk are grouped by folder: each
+ * folder is listed once, by one of several low priority threads, and only
+ * the files that are still listed are checked one by one. The entries of
+ * a missing folder are removed without checking its files.
+ * <p>
+ * The stale entries of a chunk are removed with their audio and subtitle
+ * tracks in a single transaction, so an interrupted cleanup keeps what it
+ * has done and the server can keep using the database meanwhile.
+ */
+class DatabaseCleaner implements Runnable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseCleaner.class);
+	private static final int CHUNK_SIZE = 5000;
+	private static final String SPLIT_TRACK = "#SplitTrack";
+
+	private final DLNAMediaDatabase database;
+	private final int threads;
+
+	/**
+	 * @param database The database to clean.
+	 * @param threads The number of folders checked at once.
+	 */
+	DatabaseCleaner(DLNAMediaDatabase database, int threads) {
+		this.database = database;
+		this.threads = threads;
+	}
+
+	@Override
+	public void run() {
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			int counter = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "database-cleaner-" + (counter++));
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+
+		int checked = 0;
+		int removed = 0;
+
+		try {
+			int total = database.getFileCount();
+			String last = "";
+			setStatus(0);
+
+			while (true) {
+				List<DLNAMediaDatabase.FileEntry> entries = database.getFileEntries(last, CHUNK_SIZE);
+
+				if (entries.isEmpty()) {
+					break;
+				}
+
+				last = entries.get(entries.size() - 1).name;
+				List<DLNAMediaDatabase.FileEntry> stale = getStaleEntries(executor, entries);
+				database.removeFileEntries(stale);
+				checked += entries.size();
+				removed += stale.size();
+
+				if (total > 0) {
+					setStatus(Math.min(checked * 100 / total, 100));
+				}
+			}
+		} catch (SQLException e) {
+			LOGGER.error("Error while cleaning the database", e);
+		} catch (InterruptedException e) {
+			LOGGER.debug("The database cleanup was interrupted");
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+			IFrame frame = PMS.get().getFrame();
+
+			if (frame != null) {
+				frame.setStatusLine(null);
+			}
+		}
+
+		LOGGER.info("Checked {} entries of the database and removed {} stale ones in {} seconds", checked, removed, (System.currentTimeMillis() - start) / 1000);
+	}
+
+	private void setStatus(int percent) {
+		IFrame frame = PMS.get().getFrame();
+
+		if (frame != null) {
+			frame.setStatusLine(Messages.getString("DLNAMediaDatabase.2") + percent + "%");
+		}
+	}
+
+	private List<DLNAMediaDatabase.FileEntry> getStaleEntries(ExecutorService executor, List<DLNAMediaDatabase.FileEntry> entries) throws InterruptedException {
+		Map<String, List<DLNAMediaDatabase.FileEntry>> folders = new LinkedHashMap<>();
+
+		for (DLNAMediaDatabase.FileEntry entry : entries) {
+			String folder = getFile(entry).getParent();
+			List<DLNAMediaDatabase.FileEntry> folderEntries = folders.get(folder);
+
+			if (folderEntries == null) {
+				folderEntries = new ArrayList<>();
+				folders.put(folder, folderEntries);
+			}
+
+			folderEntries.add(entry);
+		}
+
+		List<Future<List<DLNAMediaDatabase.FileEntry>>> results = new ArrayList<>();
+
+		for (final Map.Entry<String, List<DLNAMediaDatabase.FileEntry>> folder : folders.entrySet()) {
+			results.add(executor.submit(new Callable<List<DLNAMediaDatabase.FileEntry>>() {
+				@Override
+				public List<DLNAMediaDatabase.FileEntry> call() {
+					return getStaleEntries(folder.getKey(), folder.getValue());
+				}
+			}));
+		}
+
+		List<DLNAMediaDatabase.FileEntry> stale = new ArrayList<>();
+
+		for (Future<List<DLNAMediaDatabase.FileEntry>> result : results) {
+			try {
+				stale.addAll(result.get());
+			} catch (ExecutionException e) {
+				LOGGER.debug("Error while checking the files of the database", e.getCause());
+			}
+		}
+
+		return stale;
+	}
+
+	/**
+	 * Checks the entries of the files of a single folder.
+	 */
+	private List<DLNAMediaDatabase.FileEntry> getStaleEntries(String folder, List<DLNAMediaDatabase.FileEntry> entries) {
+		if (folder == null) {
+			return entries;
+		}
+
+		Set<String> names = new HashSet<>();
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(new File(folder).toPath())) {
+			for (Path path : stream) {
+				names.add(path.getFileName().toString());
+			}
+		} catch (NoSuchFileException | NotDirectoryException e) {
+			return entries;
+		} catch (IOException | DirectoryIteratorException e) {
+			// Maybe an unavailable network share, don't remove anything
+			LOGGER.debug("Could not list the folder \"{}\": {}", folder, e.getMessage());
+			return new ArrayList<>();
+		}
+
+		List<DLNAMediaDatabase.FileEntry> stale = new ArrayList<>();
+
+		for (DLNAMediaDatabase.FileEntry entry : entries) {
+			File file = getFile(entry);
+
+			if (!names.contains(file.getName()) || file.lastModified() != entry.modified) {
+				stale.add(entry);
+			}
+		}
+
+		return stale;
+	}
+
+	/**
+	 * @return The file of an entry, without the split track suffix that is
+	 *         added to the name of the entries of split audio tracks.
+	 */
+	private static File getFile(DLNAMediaDatabase.FileEntry entry) {
+		int splitTrack = entry.name.lastIndexOf(SPLIT_TRACK);
+		return new File(splitTrack > 0 ? entry.name.substring(0, splitTrack) : entry.name);
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Upgrades the schema of the media database from the previous version to
+ * a given one, in place (see {@link DatabaseMigrator}).
+ * <p>
+ * H2 commits every schema change at once, so a migration can't be rolled
+ * back: it must be written so that it can be run again after it has been
+ * interrupted, e.g. by checking which columns exist already.
+ */
+abstract class DatabaseMigration {
+	private final int version;
+	private final String description;
+
+	/**
+	 * @param version The version this migration upgrades to.
+	 * @param description What the migration does, for the logs.
+	 */
+	DatabaseMigration(int version, String description) {
+		this.version = version;
+		this.description = description;
+	}
+
+	int getVersion() {
+		return version;
+	}
+
+	String getDescription() {
+		return description;
+	}
+
+	/**
+	 * Applies the changes of the schema and fills the new columns from what
+	 * the database holds already.
+	 */
+	abstract void migrate(Connection conn) throws SQLException;
+
+	static void execute(Connection conn, String sql) throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate(sql);
+		}
+	}
+
+	static boolean hasColumn(Connection conn, String table, String column) throws SQLException {
+		try (ResultSet rs = conn.getMetaData().getColumns(null, null, table, column)) {
+			return rs.next();
+		}
+	}
+
+	/**
+	 * Removes the entries whose metadata a change of the parser has made
+	 * wrong or incomplete, so that only their files are parsed again, and
+	 * forgets the fingerprints of the folders, so that the next scan of the
+	 * library finds them.
+	 *
+	 * @param condition The SQL condition on the FILES table the entries match.
+	 * @return The number of removed entries.
+	 */
+	static int invalidate(Connection conn, String condition) throws SQLException {
+		String ids = "SELECT ID FROM FILES WHERE " + condition;
+		execute(conn, "DELETE FROM AUDIOTRACKS WHERE FILEID IN (" + ids + ")");
+		execute(conn, "DELETE FROM SUBTRACKS WHERE FILEID IN (" + ids + ")");
+		execute(conn, "DELETE FROM FOLDERS");
+
+		try (Statement stmt = conn.createStatement()) {
+			return stmt.executeUpdate("DELETE FROM FILES WHERE " + condition);
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import net.pms.formats.Format;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Upgrades the media database to the latest version of its schema without
+ * losing what has been parsed and generated already. Every change of the
+ * schema bumps its version and adds a {@link DatabaseMigration} to the list
+ * below; a database is only recreated when it is too old to be migrated.
+ */
+class DatabaseMigrator {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseMigrator.class);
+
+	private final List<DatabaseMigration> migrations = new ArrayList<>();
+
+	/**
+	 * @param thumbnails The store the thumbnails of the old versions are moved to.
+	 */
+	DatabaseMigrator(final ThumbnailStore thumbnails) {
+		migrations.add(new DatabaseMigration(2, "add the fingerprints of the folders") {
+			@Override
+			void migrate(Connection conn) throws SQLException {
+				execute(conn, "CREATE TABLE IF NOT EXISTS FOLDERS (FOLDERNAME VARCHAR2(1024) NOT NULL PRIMARY KEY, MODIFIED TIMESTAMP NOT NULL, ENTRIES INT NOT NULL, NAMEHASH BIGINT NOT NULL, SUBFOLDERS CLOB)");
+			}
+		});
+
+		migrations.add(new DatabaseMigration(3, "move the thumbnails to the thumbnail store") {
+			@Override
+			void migrate(Connection conn) throws SQLException {
+				if (!hasColumn(conn, "FILES", "THUMBHASH")) {
+					execute(conn, "ALTER TABLE FILES ADD COLUMN THUMBHASH VARCHAR2(40)");
+				}
+
+				if (!hasColumn(conn, "FILES", "THUMB")) {
+					return;
+				}
+
+				int moved = 0;
+
+				try (
+					Statement select = conn.createStatement();
+					PreparedStatement update = conn.prepareStatement("UPDATE FILES SET THUMBHASH = ? WHERE ID = ?")
+				) {
+					ResultSet rs = select.executeQuery("SELECT ID, THUMB FROM FILES WHERE THUMB IS NOT NULL AND THUMBHASH IS NULL");
+
+					while (rs.next()) {
+						String hash = thumbnails.put(rs.getBytes("THUMB"), false);
+
+						if (hash != null) {
+							update.setString(1, hash);
+							update.setInt(2, rs.getInt("ID"));
+							update.addBatch();
+
+							if (++moved % 500 == 0) {
+								update.executeBatch();
+							}
+						}
+					}
+
+					update.executeBatch();
+				}
+
+				execute(conn, "ALTER TABLE FILES DROP COLUMN THUMB");
+				LOGGER.debug("Moved {} thumbnails to the thumbnail store", moved);
+			}
+		});
+
+		migrations.add(new DatabaseMigration(4, "add the files that could not be parsed") {
+			@Override
+			void migrate(Connection conn) throws SQLException {
+				execute(conn, "CREATE TABLE IF NOT EXISTS PARSEFAILURES (FILENAME VARCHAR2(1024) NOT NULL PRIMARY KEY, MODIFIED TIMESTAMP NOT NULL, SIZE BIGINT NOT NULL, REASON VARCHAR2(255) NOT NULL, FAILED TIMESTAMP NOT NULL)");
+			}
+		});
+
+		migrations.add(new DatabaseMigration(5, "parse the images again from their headers") {
+			@Override
+			void migrate(Connection conn) throws SQLException {
+				// Images are now parsed by ImageProbe, which also reads their EXIF thumbnail
+				int removed = invalidate(conn, "TYPE = " + Format.IMAGE);
+				LOGGER.debug("Removed {} images, they will be parsed again", removed);
+			}
+		});
+	}
+
+	/**
+	 * @return The version of the schema after the last migration.
+	 */
+	int getLatestVersion() {
+		return migrations.get(migrations.size() - 1).getVersion();
+	}
+
+	/**
+	 * @param version The version of a database.
+	 * @return True if a database of that version can be migrated to the
+	 *         latest one.
+	 */
+	boolean canMigrate(String version) {
+		try {
+			if (version == null) {
+				return false;
+			}
+
+			int number = Integer.parseInt(version);
+			return number >= migrations.get(0).getVersion() - 1 && number <= getLatestVersion();
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Applies the migrations from the given version to the latest one, one
+	 * after the other. The version of the database is updated after every
+	 * migration, so that an interrupted upgrade resumes where it stopped.
+	 *
+	 * @param conn The connection to the database.
+	 * @param version The version of the database.
+	 * @throws SQLException If a migration failed, in which case the database
+	 *         is left at the version of the last successful one.
+	 */
+	void migrate(Connection conn, String version) throws SQLException {
+		if (!canMigrate(version)) {
+			throw new SQLException("The database version " + version + " can't be migrated");
+		}
+
+		int current = Integer.parseInt(version);
+
+		for (DatabaseMigration migration : migrations) {
+			if (migration.getVersion() <= current) {
+				continue;
+			}
+
+			long start = System.currentTimeMillis();
+			LOGGER.info("Upgrading the database to version {}: {}", migration.getVersion(), migration.getDescription());
+			migration.migrate(conn);
+
+			try (PreparedStatement ps = conn.prepareStatement("UPDATE METADATA SET VALUE = ? WHERE KEY = 'VERSION'")) {
+				ps.setString(1, Integer.toString(migration.getVersion()));
+				ps.executeUpdate();
+			}
+
+			current = migration.getVersion();
+			LOGGER.debug("Upgraded the database to version {} in {} ms", current, System.currentTimeMillis() - start);
+		}
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind queue of the media database. The entries of parsed files,
+ * their thumbnails and the fingerprints of scanned folders are queued and
+ * written by a background thread, in batches of a single transaction, when
+ * enough of them are queued or when the oldest one has waited long enough.
+ * Resolver threads no longer wait for each other and for the disk to store
+ * what they have parsed.
+ * <p>
+ * Queued entries stay visible until they are committed (see
+ * {@link #get(String, long)}), so that the database can answer lookups of
+ * files whose entries haven't been written yet. Writes are committed in the
+ * order they were queued, so the fingerprint of a folder is only committed
+ * with or after the entries of its files.
+ */
+class DatabaseWriter implements Runnable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseWriter.class);
+
+	private final DLNAMediaDatabase database;
+	private final int batchSize;
+	private final long delay;
+
+	/**
+	 * Serializes the batches, which are written by the background thread or
+	 * by {@link #flush()}.
+	 */
+	private final Object writeLock = new Object();
+
+	// Guarded by this
+	private Map<String, Write> pending = new LinkedHashMap<>();
+	private Map<String, Write> writing = Collections.emptyMap();
+	private long firstPending;
+	private Thread thread;
+
+	/**
+	 * A queued write: the entry of a file, the update of the thumbnail of
+	 * an entry that was written already, or the fingerprint of a folder.
+	 */
+	static class Write {
+		final String name;
+		final long modified;
+		final boolean insert;
+		final int type;
+		final DLNAMediaInfo media;
+		final FolderFingerprint fingerprint;
+		String thumbHash;
+
+		Write(String name, long modified, boolean insert, int type, DLNAMediaInfo media, String thumbHash) {
+			this.name = name;
+			this.modified = modified;
+			this.insert = insert;
+			this.type = type;
+			this.media = media;
+			this.thumbHash = thumbHash;
+			fingerprint = null;
+		}
+
+		Write(FolderFingerprint fingerprint) {
+			name = fingerprint.getFolder();
+			modified = fingerprint.getModified();
+			insert = false;
+			type = 0;
+			media = null;
+			this.fingerprint = fingerprint;
+		}
+
+		String key() {
+			return fingerprint != null ? "folder|" + name : DatabaseWriter.key(name, modified);
+		}
+	}
+
+	/**
+	 * Stores the thumbnail of a file in the {@link ThumbnailStore}, unless
+	 * it comes from there already.
+	 *
+	 * @return The hash of the thumbnail, or null if there is none.
+	 */
+	private static String storeThumbnail(DLNAMediaInfo media) {
+		if (media == null) {
+			return null;
+		}
+
+		String hash = media.getThumbHash();
+		return hash != null ? hash : ThumbnailStore.getInstance().put(media.getThumb());
+	}
+
+	/**
+	 * @param database The database the batches are written to.
+	 * @param batchSize The number of queued writes that triggers a batch.
+	 * @param delay The maximum time a write waits for a batch, in milliseconds.
+	 */
+	DatabaseWriter(DLNAMediaDatabase database, int batchSize, long delay) {
+		this.database = database;
+		this.batchSize = batchSize;
+		this.delay = delay;
+	}
+
+	private static String key(String name, long modified) {
+		return name + "|" + modified;
+	}
+
+	/**
+	 * Queues the entry of a file. It replaces the queued entry of the same
+	 * file and modification time, if any.
+	 */
+	void insert(String name, long modified, int type, DLNAMediaInfo media) {
+		Write write = new Write(name, modified, true, type, media, storeThumbnail(media));
+
+		synchronized (this) {
+			enqueue(write);
+		}
+	}
+
+	/**
+	 * Queues the update of the thumbnail of a file. If the entry of the file
+	 * is still queued, its thumbnail is updated instead.
+	 */
+	void updateThumbnail(String name, long modified, int type, DLNAMediaInfo media) {
+		String thumbHash = storeThumbnail(media);
+
+		synchronized (this) {
+			Write write = pending.get(key(name, modified));
+
+			if (write != null && write.insert) {
+				write.thumbHash = thumbHash;
+				return;
+			}
+
+			enqueue(new Write(name, modified, false, type, media, thumbHash));
+		}
+	}
+
+	/**
+	 * Queues the fingerprint of a scanned folder, which is committed with or
+	 * after the entries of the files queued before it.
+	 */
+	void setFolderFingerprint(FolderFingerprint fingerprint) {
+		synchronized (this) {
+			enqueue(new Write(fingerprint));
+		}
+	}
+
+	private void enqueue(Write write) {
+		// Don't let the queue grow without bounds if the disk can't keep up
+		while (pending.size() >= 4 * batchSize) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		if (pending.isEmpty()) {
+			firstPending = System.currentTimeMillis();
+		}
+
+		// A replaced write keeps its position, so remove it to keep the order
+		pending.remove(write.key());
+		pending.put(write.key(), write);
+
+		if (thread == null) {
+			thread = new Thread(this, "database-writer");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		if (pending.size() == 1 || pending.size() >= batchSize) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return The queued or uncommitted write of the given file, or null.
+	 */
+	synchronized Write get(String name, long modified) {
+		String key = key(name, modified);
+		Write write = pending.get(key);
+		return write != null ? write : writing.get(key);
+	}
+
+	/**
+	 * Writes all the queued entries and returns when they are committed.
+	 */
+	void flush() {
+		synchronized (writeLock) {
+			Map<String, Write> batch;
+
+			synchronized (this) {
+				if (pending.isEmpty()) {
+					return;
+				}
+
+				batch = pending;
+				writing = batch;
+				pending = new LinkedHashMap<>();
+				notifyAll();
+			}
+
+			try {
+				long start = System.currentTimeMillis();
+				database.write(batch.values());
+				LOGGER.trace("Wrote {} entries to the database in {} ms", batch.size(), System.currentTimeMillis() - start);
+			} finally {
+				synchronized (this) {
+					writing = Collections.emptyMap();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				synchronized (this) {
+					while (pending.isEmpty()) {
+						wait();
+					}
+
+					long deadline = firstPending + delay;
+					long now;
+
+					while (pending.size() < batchSize && (now = System.currentTimeMillis()) < deadline) {
+						wait(deadline - now);
+					}
+				}
+
+				flush();
+			} catch (InterruptedException e) {
+				LOGGER.debug("The database writer was interrupted");
+				return;
+			} catch (RuntimeException e) {
+				LOGGER.error("Error while writing to the database", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import net.pms.PMS;
+import net.pms.configuration.RendererConfiguration;
+
+/**
+ * Bounded cache of the DIDL-Lite fragments rendered for the resources
+ * returned by Browse and Search requests. Renderers keep requesting the same
+ * pages while the user scrolls, and most of the time nothing has changed
+ * since the previous request.
+ * <p>
+ * Fragments are keyed by resource ID and renderer. A fragment is only
+ * reused if it was rendered for the same resource object with the same
+ * update IDs (of the resource and of its parent), the same media
+ * information, thumbnail, player and subtitles. The fragments of a container
+ * and of its children are dropped when the container is refreshed (see
+ * {@link DLNAResource#notifyRefresh()}), the others are kept. The keys of
+ * the fragments are indexed by container, so that a refresh only touches
+ * the fragments it drops.
+ */
+public class DidlCache {
+	private static DidlCache instance;
+
+	private final Map<String, Fragment> entries;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	// The keys of the fragments of every container and of its children
+	private final Map<DLNAResource, Set<String>> containers = new WeakHashMap<>();
+
+	private static class Fragment {
+		private final WeakReference<DLNAResource> resource;
+		private final WeakReference<DLNAResource> parent;
+		private final String state;
+		private final String didl;
+
+		Fragment(DLNAResource resource, String state, String didl) {
+			this.resource = new WeakReference<>(resource);
+			this.parent = new WeakReference<>(resource.getParent());
+			this.state = state;
+			this.didl = didl;
+		}
+	}
+
+	public static synchronized DidlCache getInstance() {
+		if (instance == null) {
+			instance = new DidlCache(PMS.getConfiguration().getDidlCacheSize());
+		}
+
+		return instance;
+	}
+
+	/**
+	 * @param maxEntries The maximum number of fragments kept, 0 to disable
+	 *                   the cache.
+	 */
+	public DidlCache(final int maxEntries) {
+		entries = new LinkedHashMap<String, Fragment>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Fragment> eldest) {
+				if (size() > maxEntries) {
+					unindex(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the DIDL-Lite fragment of a resource for a renderer, rendering
+	 * it only if it isn't cached already.
+	 */
+	String getDidlString(DLNAResource resource, RendererConfiguration renderer) {
+		if (renderer == null || resource.isResume()) {
+			// Resume items show the playback position, which changes all the time
+			return resource.createDidlString(renderer);
+		}
+
+		String key = resource.getResourceId() + '|' + renderer.getRendererName();
+		String state = getState(resource);
+		Fragment fragment;
+
+		synchronized (entries) {
+			fragment = entries.get(key);
+		}
+
+		if (fragment != null && fragment.resource.get() == resource && fragment.state.equals(state)) {
+			hits.incrementAndGet();
+			return fragment.didl;
+		}
+
+		misses.incrementAndGet();
+		String didl = resource.createDidlString(renderer);
+		fragment = new Fragment(resource, state, didl);
+
+		synchronized (entries) {
+			Fragment previous = entries.remove(key);
+
+			if (previous != null) {
+				unindex(key, previous);
+			}
+
+			// Indexed first, the new fragment may be evicted right away
+			index(key, resource);
+			index(key, resource.getParent());
+			entries.put(key, fragment);
+		}
+
+		return didl;
+	}
+
+	/**
+	 * Describes everything a fragment depends on besides the resource ID and
+	 * the renderer.
+	 */
+	private static String getState(DLNAResource resource) {
+		StringBuilder sb = new StringBuilder();
+		DLNAResource parent = resource.getParent();
+		DLNAMediaInfo media = resource.getMedia();
+		sb.append(resource.getUpdateId());
+		sb.append(':').append(parent != null ? parent.getUpdateId() : 0);
+		sb.append(':').append(System.identityHashCode(media));
+		sb.append(':').append(media != null && media.isMediaparsed());
+		sb.append(':').append(media != null && media.hasThumb());
+		sb.append(':').append(media != null ? media.getThumbHash() : null);
+		sb.append(':').append(resource.isThumbnailPending());
+		sb.append(':').append(resource.getThumbnailContentType());
+		sb.append(':').append(System.identityHashCode(resource.getPlayer()));
+		sb.append(':').append(System.identityHashCode(resource.getMediaSubtitle()));
+		sb.append(':').append(resource.getFakeParentId());
+		return sb.toString();
+	}
+
+	private void index(String key, DLNAResource container) {
+		if (container != null) {
+			Set<String> keys = containers.get(container);
+
+			if (keys == null) {
+				keys = new HashSet<>();
+				containers.put(container, keys);
+			}
+
+			keys.add(key);
+		}
+	}
+
+	private void unindex(String key, Fragment fragment) {
+		unindex(key, fragment.resource.get());
+		unindex(key, fragment.parent.get());
+	}
+
+	private void unindex(String key, DLNAResource container) {
+		if (container != null) {
+			Set<String> keys = containers.get(container);
+
+			if (keys != null) {
+				keys.remove(key);
+
+				if (keys.isEmpty()) {
+					containers.remove(container);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops the cached fragments of a container and of its children.
+	 *
+	 * @param container The container.
+	 */
+	public void invalidate(DLNAResource container) {
+		synchronized (entries) {
+			Set<String> keys = containers.remove(container);
+
+			if (keys == null) {
+				return;
+			}
+
+			for (String key : keys) {
+				Fragment fragment = entries.remove(key);
+
+				if (fragment != null) {
+					unindex(key, fragment);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops all cached fragments.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			containers.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return The number of fragments that were served from the cache.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of fragments that had to be rendered.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return The ratio of fragments served from the cache, between 0 and 1.
+	 */
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total > 0 ? (double) h / total : 0;
+	}
+}
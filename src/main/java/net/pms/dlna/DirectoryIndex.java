@@ -0,0 +1,117 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Server-wide cache of the sorted entries of large folders, in the order
+ * in which {@link MapFile} lists them. Listing and sorting a folder of tens
+ * of thousands of files takes seconds, so it is done once and reused by the
+ * trees of all renderers, and when a tree is rebuilt, for as long as the
+ * folders are not modified.
+ */
+class DirectoryIndex {
+	private static final int MAX_INDEXES = 32;
+
+	private static final Map<String, Index> indexes = new LinkedHashMap<String, Index>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Index> eldest) {
+			return size() > MAX_INDEXES;
+		}
+	};
+
+	private static class Index {
+		private final long lastModified;
+		private final List<File> entries;
+
+		Index(long lastModified, List<File> entries) {
+			this.lastModified = lastModified;
+			this.entries = entries;
+		}
+	}
+
+	private DirectoryIndex() {
+	}
+
+	/**
+	 * @param folders The listed folders.
+	 * @param sortMethod The sort method of the entries.
+	 * @return The sorted entries of the folders, or null if they haven't been
+	 *         indexed since they were last modified.
+	 */
+	static List<File> get(List<File> folders, int sortMethod) {
+		Index index;
+
+		synchronized (indexes) {
+			index = indexes.get(getKey(folders, sortMethod));
+		}
+
+		if (index != null && index.lastModified == getLastModified(folders)) {
+			return index.entries;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Stores the sorted entries of the folders.
+	 *
+	 * @return An unmodifiable view of the entries.
+	 */
+	static List<File> put(List<File> folders, int sortMethod, long lastModified, List<File> entries) {
+		List<File> unmodifiable = Collections.unmodifiableList(entries);
+
+		synchronized (indexes) {
+			indexes.put(getKey(folders, sortMethod), new Index(lastModified, unmodifiable));
+		}
+
+		return unmodifiable;
+	}
+
+	static long getLastModified(List<File> folders) {
+		long modified = 0;
+
+		for (File f : folders) {
+			if (f != null) {
+				modified = Math.max(modified, f.lastModified());
+			}
+		}
+
+		return modified;
+	}
+
+	private static String getKey(List<File> folders, int sortMethod) {
+		StringBuilder sb = new StringBuilder().append(sortMethod);
+
+		for (File f : folders) {
+			if (f != null) {
+				sb.append(File.pathSeparatorChar).append(f.getAbsolutePath());
+			}
+		}
+
+		return sb.toString();
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+/**
+ * In-memory index of the entries of the media database, so that checking
+ * whether a file has an entry doesn't need a query.
+ * <p>
+ * Every entry is stored as a single 64-bit hash of its file name and
+ * modification time, in an open-addressing table of longs that is at most
+ * half full: 16 to 32 bytes per entry, e.g. 16 MB for a million files. With
+ * a million entries, a file without entry has about one chance in ten
+ * thousand billions to be reported as having one, so the index is trusted
+ * without checking the database.
+ */
+class FileIndex {
+	private static final int MIN_CAPACITY = 1024;
+
+	// 0 marks a free slot
+	private long[] table = new long[MIN_CAPACITY];
+	private int size;
+
+	/**
+	 * @return The hash of an entry, never 0.
+	 */
+	static long hash(String name, long modified) {
+		// FNV-1a of the name, mixed with the modification time
+		long h = 0xcbf29ce484222325L;
+
+		for (int i = 0; i < name.length(); i++) {
+			h ^= name.charAt(i);
+			h *= 0x100000001b3L;
+		}
+
+		h ^= modified * 0x9e3779b97f4a7c15L;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == 0 ? 1 : h;
+	}
+
+	synchronized boolean contains(String name, long modified) {
+		long key = hash(name, modified);
+		int mask = table.length - 1;
+
+		for (int i = slot(key, mask); table[i] != 0; i = (i + 1) & mask) {
+			if (table[i] == key) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	synchronized void add(String name, long modified) {
+		if (insert(table, hash(name, modified))) {
+			size++;
+
+			// Keep the load factor under 1/2
+			if (size * 2 > table.length) {
+				resize(table.length * 2);
+			}
+		}
+	}
+
+	synchronized void remove(String name, long modified) {
+		long key = hash(name, modified);
+		int mask = table.length - 1;
+		int i = slot(key, mask);
+
+		while (table[i] != key) {
+			if (table[i] == 0) {
+				return;
+			}
+
+			i = (i + 1) & mask;
+		}
+
+		// Shift the following entries back, so that no probe sequence is broken
+		int free = i;
+
+		for (i = (i + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+			int home = slot(table[i], mask);
+
+			if (((i - home) & mask) >= ((i - free) & mask)) {
+				table[free] = table[i];
+				free = i;
+			}
+		}
+
+		table[free] = 0;
+		size--;
+	}
+
+	synchronized void clear() {
+		table = new long[MIN_CAPACITY];
+		size = 0;
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return The memory used by the table, in bytes.
+	 */
+	synchronized long getMemoryUsage() {
+		return 8L * table.length;
+	}
+
+	private static int slot(long key, int mask) {
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+
+	private static boolean insert(long[] table, long key) {
+		int mask = table.length - 1;
+		int i = slot(key, mask);
+
+		while (table[i] != 0) {
+			if (table[i] == key) {
+				return false;
+			}
+
+			i = (i + 1) & mask;
+		}
+
+		table[i] = key;
+		return true;
+	}
+
+	private void resize(int capacity) {
+		long[] resized = new long[capacity];
+
+		for (long key : table) {
+			if (key != 0) {
+				insert(resized, key);
+			}
+		}
+
+		table = resized;
+	}
+}
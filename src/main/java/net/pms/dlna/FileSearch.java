@@ -18,6 +18,13 @@ public class FileSearch implements SearchObj {
 
 	@Override
 	public void search(String searchString, DLNAResource searcher) {
+		DLNAMediaDatabase database = PMS.get().getDatabase();
+
+		if (database != null && database.isSearchable()) {
+			searchIndex(database, searchString, searcher);
+			return;
+		}
+
 		searchString = searchString.toLowerCase();
 		for (RealFile res : folders) {
 			String name = res.getName().toLowerCase();
@@ -34,6 +41,32 @@ public class FileSearch implements SearchObj {
 		}
 	}
 
+	/**
+	 * Adds the files of the search index of the media database that are in
+	 * the searched folders, without walking them.
+	 */
+	private void searchIndex(DLNAMediaDatabase database, String searchString, DLNAResource searcher) {
+		List<String> paths = new ArrayList<>();
+
+		for (RealFile res : folders) {
+			paths.add(res.getFile().getAbsolutePath());
+		}
+
+		for (String name : database.search(searchString, 0)) {
+			for (String path : paths) {
+				if (name.equals(path) || (name.startsWith(path) && (path.endsWith(File.separator) || name.startsWith(File.separator, path.length())))) {
+					File file = new File(name);
+
+					if (file.exists()) {
+						searcher.addChild(new RealFile(file));
+					}
+
+					break;
+				}
+			}
+		}
+	}
+
 	private void searchFiles(File[] files, String str, DLNAResource searcher, int cnt) {
 		if (files == null) {
 			return;
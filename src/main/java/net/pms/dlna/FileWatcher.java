@@ -0,0 +1,441 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import static java.nio.file.StandardWatchEventKinds.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches folders for changes with the file system events of the operating
+ * system (inotify, ReadDirectoryChangesW...), so that containers only list
+ * their folders again when they have actually changed, instead of checking
+ * them on every access.
+ * <p>
+ * Every watched folder has a generation counter that is increased by every
+ * event in it (see {@link #getGeneration(File)}). A container remembers
+ * the generation of its folders when it lists them, and is dirty as soon as
+ * it changes. Folders that are not watched, because watching is disabled,
+ * because they are on a network share whose changes are not reported, or
+ * because the operating system refused to watch more folders, have no
+ * generation: their containers keep checking modification times.
+ * <p>
+ * Folders watched with their subfolders also have a tree generation (see
+ * {@link #getTreeGeneration(File)}), which is increased by every event in
+ * the folder or in any of its subfolders.
+ * <p>
+ * Stale entries of modified and deleted files are removed from the media
+ * database shortly after the events arrive, once per file however many
+ * events it got in the meantime.
+ */
+public class FileWatcher implements Runnable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FileWatcher.class);
+	private static final PmsConfiguration configuration = PMS.getConfiguration();
+
+	/**
+	 * Types of file stores whose changes made by other hosts are not reported.
+	 */
+	private static final Set<String> REMOTE_FILE_STORES = new HashSet<>(Arrays.asList(
+		"9p", "afpfs", "cifs", "davfs", "fuse.sshfs", "ncpfs", "nfs", "nfs4", "smb2", "smbfs", "webdav"
+	));
+
+	/**
+	 * How long modified and deleted files are collected before their stale
+	 * entries are removed, in milliseconds.
+	 */
+	private static final long STALE_ENTRIES_DELAY = 1000;
+
+	private static FileWatcher instance;
+
+	private final WatchService watchService;
+	private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+	private final Set<WatchKey> recursiveKeys = Collections.newSetFromMap(new ConcurrentHashMap<WatchKey, Boolean>());
+	private final Map<Path, AtomicLong> generations = new ConcurrentHashMap<>();
+	private final Map<Path, AtomicLong> treeGenerations = new ConcurrentHashMap<>();
+
+	// Only used by the watcher thread
+	private final Set<File> staleFiles = new LinkedHashSet<>();
+	private long staleDeadline;
+	private volatile boolean exhausted;
+	private Thread thread;
+
+	public static synchronized FileWatcher getInstance() {
+		if (instance == null) {
+			WatchService watchService = null;
+
+			if (configuration.isWatchFolders()) {
+				try {
+					watchService = FileSystems.getDefault().newWatchService();
+				} catch (IOException | UnsupportedOperationException e) {
+					LOGGER.info("Folders can't be watched for changes, they will be checked on access: {}", e.getMessage());
+				}
+			}
+
+			instance = new FileWatcher(watchService);
+		}
+
+		return instance;
+	}
+
+	/**
+	 * @param watchService The watch service to use, or null to watch nothing.
+	 */
+	FileWatcher(WatchService watchService) {
+		this.watchService = watchService;
+	}
+
+	/**
+	 * Starts watching a folder, if it isn't already.
+	 *
+	 * @param folder The folder to watch.
+	 * @param recursive Whether to watch all its subfolders too, including
+	 *                  those created later.
+	 * @return True if the folder is watched, with all its subfolders if
+	 *         recursive. A tree that could only be watched in part has no
+	 *         tree generation, so that it keeps being checked on access.
+	 */
+	public boolean watch(File folder, boolean recursive) {
+		if (watchService == null || folder == null || !folder.isDirectory()) {
+			return false;
+		}
+
+		Path path = folder.toPath().toAbsolutePath();
+
+		if (recursive ? treeGenerations.containsKey(path) : generations.containsKey(path)) {
+			return true;
+		}
+
+		if (!isWatchable(path)) {
+			return false;
+		}
+
+		boolean complete = register(path, recursive);
+
+		if (recursive && complete && generations.containsKey(path) && !treeGenerations.containsKey(path)) {
+			treeGenerations.put(path, new AtomicLong());
+		}
+
+		start();
+		return recursive ? treeGenerations.containsKey(path) : generations.containsKey(path);
+	}
+
+	/**
+	 * Returns the generation of a folder, which changes every time a file of
+	 * the folder is created, modified or deleted.
+	 *
+	 * @param folder The folder.
+	 * @return The generation, or -1 if the folder isn't watched.
+	 */
+	public long getGeneration(File folder) {
+		return getGeneration(generations, folder);
+	}
+
+	/**
+	 * Returns the combined generation of several folders.
+	 *
+	 * @return The generation, or -1 if any of the folders isn't watched.
+	 * @see #getGeneration(File)
+	 */
+	public long getGeneration(Iterable<File> folders) {
+		return getGeneration(generations, folders);
+	}
+
+	/**
+	 * Returns the tree generation of a folder watched with its subfolders,
+	 * which changes every time a file of the folder or of any of its
+	 * subfolders is created, modified or deleted.
+	 *
+	 * @param folder The folder.
+	 * @return The generation, or -1 if the folder isn't watched with its
+	 *         subfolders.
+	 */
+	public long getTreeGeneration(File folder) {
+		return getGeneration(treeGenerations, folder);
+	}
+
+	/**
+	 * Returns the combined tree generation of several folders.
+	 *
+	 * @return The generation, or -1 if any of the folders isn't watched with
+	 *         its subfolders.
+	 * @see #getTreeGeneration(File)
+	 */
+	public long getTreeGeneration(Iterable<File> folders) {
+		return getGeneration(treeGenerations, folders);
+	}
+
+	private long getGeneration(Map<Path, AtomicLong> map, File folder) {
+		if (watchService == null || folder == null) {
+			return -1;
+		}
+
+		AtomicLong generation = map.get(folder.toPath().toAbsolutePath());
+		return generation != null ? generation.get() : -1;
+	}
+
+	private long getGeneration(Map<Path, AtomicLong> map, Iterable<File> folders) {
+		long sum = 0;
+
+		for (File folder : folders) {
+			long generation = getGeneration(map, folder);
+
+			if (generation < 0) {
+				return -1;
+			}
+
+			sum += generation;
+		}
+
+		return sum;
+	}
+
+	private boolean isWatchable(Path path) {
+		try {
+			String type = Files.getFileStore(path).type();
+
+			if (type != null && REMOTE_FILE_STORES.contains(type.toLowerCase())) {
+				LOGGER.debug("\"{}\" is on a network share ({}), it will be checked on access", path, type);
+				return false;
+			}
+
+			return true;
+		} catch (IOException | RuntimeException e) {
+			LOGGER.debug("Could not determine the file store of \"{}\": {}", path, e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Registers a folder and, if recursive, all its subfolders.
+	 *
+	 * @return True if all the folders have been registered.
+	 */
+	private boolean register(Path folder, final boolean recursive) {
+		if (exhausted) {
+			return false;
+		}
+
+		if (!recursive) {
+			return registerFolder(folder, false);
+		}
+
+		final boolean[] complete = {true};
+
+		try {
+			Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					if (registerFolder(dir, true)) {
+						return FileVisitResult.CONTINUE;
+					}
+
+					complete[0] = false;
+					return FileVisitResult.TERMINATE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			LOGGER.debug("Error while watching the subfolders of \"{}\": {}", folder, e.getMessage());
+			return false;
+		}
+
+		return complete[0];
+	}
+
+	/**
+	 * Stops reporting tree generations for the trees that contain a folder
+	 * whose subfolders could not all be registered: their containers go
+	 * back to checking them on access.
+	 */
+	private void incomplete(Path folder) {
+		for (Path parent = folder; parent != null; parent = parent.getParent()) {
+			if (treeGenerations.remove(parent) != null) {
+				LOGGER.debug("\"{}\" is no longer watched as a whole, it will be checked on access", parent);
+			}
+		}
+	}
+
+	private boolean registerFolder(Path folder, boolean recursive) {
+		try {
+			WatchKey key = folder.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+			keys.put(key, folder);
+
+			if (recursive) {
+				recursiveKeys.add(key);
+			}
+
+			if (!generations.containsKey(folder)) {
+				generations.put(folder, new AtomicLong());
+			}
+
+			return true;
+		} catch (IOException e) {
+			// Most likely the limit of watched folders of the system
+			LOGGER.info("Could not watch \"{}\", remaining folders will be checked on access: {}", folder, e.getMessage());
+			exhausted = true;
+			return false;
+		}
+	}
+
+	private synchronized void start() {
+		if (thread == null) {
+			thread = new Thread(this, "file-watcher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			WatchKey key;
+
+			try {
+				if (staleFiles.isEmpty()) {
+					key = watchService.take();
+				} else {
+					key = watchService.poll(Math.max(staleDeadline - System.currentTimeMillis(), 1), TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+
+			if (!staleFiles.isEmpty() && System.currentTimeMillis() >= staleDeadline) {
+				removeStaleEntries();
+			}
+
+			if (key == null) {
+				continue;
+			}
+
+			Path folder = keys.get(key);
+
+			if (folder != null) {
+				try {
+					processEvents(key, folder);
+				} catch (RuntimeException e) {
+					LOGGER.debug("Error while processing the changes of \"{}\"", folder, e);
+				}
+			}
+
+			if (!key.reset()) {
+				// The folder was deleted or unmounted
+				boolean recursive = recursiveKeys.remove(key);
+				keys.remove(key);
+
+				if (folder != null) {
+					changed(folder, recursive);
+					generations.remove(folder);
+					treeGenerations.remove(folder);
+				}
+			}
+		}
+	}
+
+	private void processEvents(WatchKey key, Path folder) {
+		boolean recursive = recursiveKeys.contains(key);
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				// Events were lost, the whole folder must be listed again
+				LOGGER.debug("Too many changes in \"{}\"", folder);
+
+				if (recursive && !register(folder, true)) {
+					incomplete(folder);
+				}
+
+				continue;
+			}
+
+			Path child = folder.resolve((Path) event.context());
+			LOGGER.trace("{}: {}", event.kind().name(), child);
+
+			if (event.kind() == ENTRY_CREATE) {
+				if (recursive && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS) && !register(child, true)) {
+					incomplete(child);
+				}
+			} else if (configuration.getUseCache()) {
+				if (staleFiles.isEmpty()) {
+					staleDeadline = System.currentTimeMillis() + STALE_ENTRIES_DELAY;
+				}
+
+				staleFiles.add(child.toFile());
+			}
+		}
+
+		changed(folder, recursive);
+	}
+
+	/**
+	 * Increases the generation of a folder and, if it is watched with its
+	 * subfolders, the tree generations of the folder and of its parents.
+	 */
+	private void changed(Path folder, boolean recursive) {
+		AtomicLong generation = generations.get(folder);
+
+		if (generation != null) {
+			generation.incrementAndGet();
+		}
+
+		if (recursive) {
+			for (Path parent = folder; parent != null; parent = parent.getParent()) {
+				AtomicLong treeGeneration = treeGenerations.get(parent);
+
+				if (treeGeneration != null) {
+					treeGeneration.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Keeps the media database in sync with the files modified or deleted
+	 * since the last call.
+	 */
+	private void removeStaleEntries() {
+		DLNAMediaDatabase database = PMS.get().getDatabase();
+
+		for (File file : staleFiles) {
+			if (database != null && !file.isDirectory()) {
+				database.removeStaleEntries(file.getAbsolutePath(), file.exists() ? file.lastModified() : 0);
+			}
+		}
+
+		staleFiles.clear();
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Summary of the entries of a folder, stored in the media database when the
+ * folder has been scanned: its modification time, its number of entries and
+ * a hash of their names and modification times. A folder whose fingerprint
+ * hasn't changed since the last scan has the same files, neither added,
+ * removed nor modified in place, which don't need to be scanned again. The
+ * names of its subfolders are stored too, so that they can be scanned
+ * without checking every entry of the folder.
+ */
+public class FolderFingerprint {
+	private static final String SEPARATOR = "/";
+
+	private final String folder;
+	private final long modified;
+	private final int entries;
+	private final long nameHash;
+	private final List<String> subfolders;
+
+	public FolderFingerprint(String folder, long modified, int entries, long nameHash, List<String> subfolders) {
+		this.folder = folder;
+		this.modified = modified;
+		this.entries = entries;
+		this.nameHash = nameHash;
+		this.subfolders = subfolders;
+	}
+
+	/**
+	 * Computes the current fingerprint of a folder.
+	 *
+	 * @param dir The folder.
+	 * @return The fingerprint, without subfolders, or null if the folder
+	 *         can't be read.
+	 */
+	public static FolderFingerprint of(File dir) {
+		long modified = dir.lastModified();
+		String[] names = dir.list();
+
+		if (names == null) {
+			return null;
+		}
+
+		long hash = 0;
+
+		for (String name : names) {
+			// Files modified in place don't change the modification time of their folder
+			long entryModified = new File(dir, name).lastModified();
+
+			// Summed, so that the order of the entries doesn't matter
+			hash += hash(name) * 31 + entryModified;
+		}
+
+		return new FolderFingerprint(dir.getAbsolutePath(), modified, names.length, hash, null);
+	}
+
+	private static long hash(String s) {
+		long h = 1125899906842597L;
+
+		for (int i = 0; i < s.length(); i++) {
+			h = 31 * h + s.charAt(i);
+		}
+
+		return h;
+	}
+
+	/**
+	 * @return A copy of this fingerprint with the given subfolders.
+	 */
+	public FolderFingerprint withSubfolders(List<String> subfolders) {
+		return new FolderFingerprint(folder, modified, entries, nameHash, subfolders);
+	}
+
+	/**
+	 * @return True if the other fingerprint describes the same entries and
+	 *         knows the subfolders.
+	 */
+	public boolean matches(FolderFingerprint other) {
+		return other != null &&
+			other.subfolders != null &&
+			folder.equals(other.folder) &&
+			modified == other.modified &&
+			entries == other.entries &&
+			nameHash == other.nameHash;
+	}
+
+	public String getFolder() {
+		return folder;
+	}
+
+	public long getModified() {
+		return modified;
+	}
+
+	public int getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return The hash of the names and modification times of the entries.
+	 */
+	public long getNameHash() {
+		return nameHash;
+	}
+
+	/**
+	 * @return The names of the subfolders, or null if they are unknown.
+	 */
+	public List<String> getSubfolders() {
+		return subfolders;
+	}
+
+	/**
+	 * @return The names of the subfolders, as stored in the database.
+	 */
+	String getSubfoldersString() {
+		return subfolders == null ? null : StringUtils.join(subfolders, SEPARATOR);
+	}
+
+	/**
+	 * Parses the names of subfolders stored in the database.
+	 */
+	static List<String> parseSubfolders(String s) {
+		if (s == null) {
+			return null;
+		}
+
+		if (s.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		return new ArrayList<>(Arrays.asList(s.split(SEPARATOR)));
+	}
+}
@@ -0,0 +1,542 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import net.coobird.thumbnailator.Thumbnails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the properties of JPEG, PNG and GIF images from their headers,
+ * without decoding them: the dimensions, and for JPEG images the EXIF
+ * camera model, exposure time, ISO speed, orientation and embedded
+ * thumbnail. Reading stops at the first frame header, so a photo is
+ * parsed from its first kilobytes whatever its size.
+ * <p>
+ * The other formats are left to Sanselan (see {@link DLNAMediaInfo}).
+ */
+final class ImageProbe {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ImageProbe.class);
+	private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+	private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+	// EXIF tags
+	private static final int TAG_MODEL = 0x0110;
+	private static final int TAG_ORIENTATION = 0x0112;
+	private static final int TAG_EXIF_IFD = 0x8769;
+	private static final int TAG_EXPOSURE_TIME = 0x829A;
+	private static final int TAG_ISO = 0x8827;
+	private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+	private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+	private String codec;
+	private int width;
+	private int height;
+	private int bitsPerPixel;
+	private String model;
+	private int exposure;
+	private int orientation;
+	private int iso;
+	private byte[] exifThumbnail;
+
+	private ImageProbe() {
+	}
+
+	/**
+	 * Reads the headers of an image.
+	 *
+	 * @param file The image.
+	 * @return The properties of the image, or null if it isn't a JPEG, PNG
+	 *         or GIF image or its headers can't be read.
+	 */
+	static ImageProbe probe(File file) {
+		ImageProbe probe = new ImageProbe();
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			byte[] signature = new byte[8];
+			in.mark(signature.length);
+			in.readFully(signature);
+			in.reset();
+
+			if (signature[0] == (byte) 0xFF && signature[1] == (byte) 0xD8) {
+				probe.codec = "jpg";
+				skip(in, 2);
+				return probe.readJpeg(in) ? probe : null;
+			} else if (Arrays.equals(signature, PNG_SIGNATURE)) {
+				probe.codec = "png";
+				skip(in, PNG_SIGNATURE.length);
+				return probe.readPng(in) ? probe : null;
+			} else if (signature[0] == 'G' && signature[1] == 'I' && signature[2] == 'F' && signature[3] == '8') {
+				probe.codec = "gif";
+				skip(in, 6);
+				probe.readGif(in);
+				return probe;
+			}
+		} catch (IOException e) {
+			LOGGER.trace("Could not read the headers of {}: {}", file.getName(), e.getMessage());
+		} catch (RuntimeException e) {
+			// Corrupt headers mustn't fail the parsing of the folder
+			LOGGER.debug("Could not read the corrupt headers of {}: {}", file.getName(), e.toString());
+		}
+
+		return null;
+	}
+
+	/**
+	 * Reads the segments of a JPEG image up to its frame header.
+	 *
+	 * @return True if the frame header was found.
+	 */
+	private boolean readJpeg(DataInputStream in) throws IOException {
+		while (true) {
+			if (in.readUnsignedByte() != 0xFF) {
+				return false;
+			}
+
+			int marker = in.readUnsignedByte();
+
+			// Fill bytes
+			while (marker == 0xFF) {
+				marker = in.readUnsignedByte();
+			}
+
+			if (marker == 0x01 || marker >= 0xD0 && marker <= 0xD8) {
+				// Markers without a segment
+				continue;
+			}
+
+			if (marker == 0xD9 || marker == 0xDA) {
+				// End of image or start of scan, without any frame
+				return false;
+			}
+
+			int length = in.readUnsignedShort() - 2;
+
+			if (length < 0) {
+				return false;
+			}
+
+			if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+				// Start of frame
+				int precision = in.readUnsignedByte();
+				height = in.readUnsignedShort();
+				width = in.readUnsignedShort();
+				bitsPerPixel = precision * in.readUnsignedByte();
+				return true;
+			}
+
+			if (marker == 0xE1 && exifThumbnail == null && model == null) {
+				byte[] segment = new byte[length];
+				in.readFully(segment);
+
+				if (length > EXIF_HEADER.length && Arrays.equals(Arrays.copyOf(segment, EXIF_HEADER.length), EXIF_HEADER)) {
+					try {
+						new Exif(segment, EXIF_HEADER.length).read();
+					} catch (IOException e) {
+						// Keep what was read before the error
+						LOGGER.trace("Invalid EXIF data: {}", e.getMessage());
+					}
+				}
+			} else {
+				skip(in, length);
+			}
+		}
+	}
+
+	private boolean readPng(DataInputStream in) throws IOException {
+		in.readInt();
+		byte[] type = new byte[4];
+		in.readFully(type);
+
+		if (!"IHDR".equals(new String(type, StandardCharsets.US_ASCII))) {
+			return false;
+		}
+
+		width = in.readInt();
+		height = in.readInt();
+		int bitDepth = in.readUnsignedByte();
+		int samples;
+
+		switch (in.readUnsignedByte()) {
+			case 2:
+				samples = 3;
+				break;
+			case 4:
+				samples = 2;
+				break;
+			case 6:
+				samples = 4;
+				break;
+			default:
+				samples = 1;
+		}
+
+		bitsPerPixel = bitDepth * samples;
+		return true;
+	}
+
+	private void readGif(DataInputStream in) throws IOException {
+		width = Short.reverseBytes(in.readShort()) & 0xFFFF;
+		height = Short.reverseBytes(in.readShort()) & 0xFFFF;
+		bitsPerPixel = (in.readUnsignedByte() >> 4 & 0x07) + 1;
+	}
+
+	private static void skip(DataInputStream in, int length) throws IOException {
+		while (length > 0) {
+			int skipped = in.skipBytes(length);
+
+			if (skipped <= 0) {
+				throw new EOFException();
+			}
+
+			length -= skipped;
+		}
+	}
+
+	/**
+	 * Creates a thumbnail that fits in the given size, from the thumbnail
+	 * embedded in the EXIF data if it fits in it, or else from the image
+	 * decoded with the coarsest subsampling that keeps twice the
+	 * resolution of the thumbnail. The thumbnail is rotated after the EXIF
+	 * orientation.
+	 *
+	 * @param file The image.
+	 * @return The JPEG thumbnail, or null if the image can't be decoded.
+	 */
+	byte[] createThumbnail(File file, int maxWidth, int maxHeight) {
+		try {
+			BufferedImage image = null;
+			boolean scale = true;
+
+			if (exifThumbnail != null) {
+				image = ImageIO.read(new ByteArrayInputStream(exifThumbnail));
+
+				if (image != null && image.getWidth() <= maxWidth && image.getHeight() <= maxHeight) {
+					if (getRotation() == 0) {
+						return exifThumbnail;
+					}
+
+					scale = false;
+				} else {
+					image = null;
+				}
+			}
+
+			if (image == null) {
+				image = readSubsampled(file, maxWidth * 2, maxHeight * 2);
+			}
+
+			if (image == null) {
+				return null;
+			}
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			Thumbnails.Builder<BufferedImage> builder = Thumbnails.of(image);
+
+			if (scale) {
+				builder.size(maxWidth, maxHeight);
+			} else {
+				builder.scale(1);
+			}
+
+			builder
+				.rotate(getRotation())
+				.outputFormat("JPEG")
+				.outputQuality(1.0f)
+				.toOutputStream(out);
+			return out.toByteArray();
+		} catch (IOException | IllegalArgumentException | IllegalStateException e) {
+			LOGGER.debug("Could not create the thumbnail of {}: {}", file.getName(), e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Decodes an image keeping only every nth pixel of every nth line, n
+	 * being the largest step that still leaves enough pixels to scale the
+	 * image down to the given size.
+	 */
+	private static BufferedImage readSubsampled(File file, int minWidth, int minHeight) throws IOException {
+		try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+			if (in == null) {
+				return null;
+			}
+
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+
+			if (!readers.hasNext()) {
+				return null;
+			}
+
+			ImageReader reader = readers.next();
+
+			try {
+				reader.setInput(in, true, true);
+				int step = Math.max(1, Math.max(reader.getWidth(0) / minWidth, reader.getHeight(0) / minHeight));
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(step, step, 0, 0);
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * @return The clockwise rotation in degrees that the EXIF orientation
+	 *         asks for. Mirrored orientations aren't supported.
+	 */
+	private int getRotation() {
+		switch (orientation) {
+			case 3:
+				return 180;
+			case 6:
+				return 90;
+			case 8:
+				return 270;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * @return "jpg", "png" or "gif".
+	 */
+	String getCodec() {
+		return codec;
+	}
+
+	int getWidth() {
+		return width;
+	}
+
+	int getHeight() {
+		return height;
+	}
+
+	int getBitsPerPixel() {
+		return bitsPerPixel;
+	}
+
+	/**
+	 * @return The camera model, or null if unknown.
+	 */
+	String getModel() {
+		return model;
+	}
+
+	/**
+	 * @return The exposure time in milliseconds, or 0 if unknown.
+	 */
+	int getExposure() {
+		return exposure;
+	}
+
+	/**
+	 * @return The EXIF orientation, or 0 if unknown.
+	 */
+	int getOrientation() {
+		return orientation;
+	}
+
+	/**
+	 * @return The ISO speed, or 0 if unknown.
+	 */
+	int getIso() {
+		return iso;
+	}
+
+	/**
+	 * @return The thumbnail embedded in the EXIF data, or null if there is
+	 *         none.
+	 */
+	byte[] getExifThumbnail() {
+		return exifThumbnail;
+	}
+
+	/**
+	 * The TIFF structure of an EXIF segment.
+	 */
+	private class Exif {
+		private final byte[] data;
+		private final int base;
+		private boolean littleEndian;
+
+		/**
+		 * @param data The segment.
+		 * @param base The offset of the TIFF header, which the offsets of
+		 *             the structure are relative to.
+		 */
+		Exif(byte[] data, int base) {
+			this.data = data;
+			this.base = base;
+		}
+
+		void read() throws IOException {
+			check(0, 8);
+
+			if (data[base] == 'I' && data[base + 1] == 'I') {
+				littleEndian = true;
+			} else if (data[base] != 'M' || data[base + 1] != 'M') {
+				throw new IOException("Unknown byte order");
+			}
+
+			if (getShort(2) != 42) {
+				throw new IOException("Not a TIFF header");
+			}
+
+			int ifd0 = getInt(4);
+			int exifIfd = 0;
+			int entries = getShort(ifd0);
+
+			for (int i = 0; i < entries; i++) {
+				int entry = ifd0 + 2 + 12 * i;
+
+				switch (getShort(entry)) {
+					case TAG_MODEL:
+						model = getString(entry);
+						break;
+					case TAG_ORIENTATION:
+						orientation = getValue(entry);
+						break;
+					case TAG_EXIF_IFD:
+						exifIfd = getValue(entry);
+						break;
+					default:
+						break;
+				}
+			}
+
+			int ifd1 = getInt(ifd0 + 2 + 12 * entries);
+
+			if (exifIfd > 0) {
+				readExifIfd(exifIfd);
+			}
+
+			if (ifd1 > 0) {
+				readThumbnailIfd(ifd1);
+			}
+		}
+
+		private void readExifIfd(int ifd) throws IOException {
+			int entries = getShort(ifd);
+
+			for (int i = 0; i < entries; i++) {
+				int entry = ifd + 2 + 12 * i;
+
+				switch (getShort(entry)) {
+					case TAG_EXPOSURE_TIME:
+						int offset = getInt(entry + 8);
+						long denominator = getInt(offset + 4) & 0xFFFFFFFFL;
+
+						if (denominator != 0) {
+							exposure = (int) (1000 * (getInt(offset) & 0xFFFFFFFFL) / denominator);
+						}
+
+						break;
+					case TAG_ISO:
+						// Some cameras store several values, take the first
+						iso = getValue(entry);
+						break;
+					default:
+						break;
+				}
+			}
+		}
+
+		private void readThumbnailIfd(int ifd) throws IOException {
+			int entries = getShort(ifd);
+			int offset = 0;
+			int length = 0;
+
+			for (int i = 0; i < entries; i++) {
+				int entry = ifd + 2 + 12 * i;
+
+				switch (getShort(entry)) {
+					case TAG_THUMBNAIL_OFFSET:
+						offset = getValue(entry);
+						break;
+					case TAG_THUMBNAIL_LENGTH:
+						length = getValue(entry);
+						break;
+					default:
+						break;
+				}
+			}
+
+			if (offset > 0 && length > 0) {
+				check(offset, length);
+				exifThumbnail = Arrays.copyOfRange(data, base + offset, base + offset + length);
+			}
+		}
+
+		/**
+		 * @return The first value of a SHORT or LONG entry.
+		 */
+		private int getValue(int entry) throws IOException {
+			return getShort(entry + 2) == 3 ? getShort(entry + 8) : getInt(entry + 8);
+		}
+
+		/**
+		 * @return The value of an ASCII entry, without its trailing null
+		 *         characters and spaces.
+		 */
+		private String getString(int entry) throws IOException {
+			int count = getInt(entry + 4);
+			int offset = count <= 4 ? entry + 8 : getInt(entry + 8);
+			check(offset, count);
+			return new String(data, base + offset, count, StandardCharsets.ISO_8859_1).replace('\0', ' ').trim();
+		}
+
+		private int getShort(int offset) throws IOException {
+			check(offset, 2);
+			int b0 = data[base + offset] & 0xFF;
+			int b1 = data[base + offset + 1] & 0xFF;
+			return littleEndian ? b1 << 8 | b0 : b0 << 8 | b1;
+		}
+
+		private int getInt(int offset) throws IOException {
+			int s0 = getShort(offset);
+			int s1 = getShort(offset + 2);
+			return littleEndian ? s1 << 16 | s0 : s0 << 16 | s1;
+		}
+
+		private void check(int offset, int length) throws IOException {
+			if (offset < 0 || length < 0 || (long) base + offset + length > data.length) {
+				throw new IOException("Truncated EXIF data");
+			}
+		}
+	}
+}
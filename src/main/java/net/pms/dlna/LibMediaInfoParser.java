@@ -4,7 +4,9 @@ import java.io.File;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import net.pms.PMS;
 import net.pms.configuration.FormatConfiguration;
+import net.pms.configuration.PmsConfiguration;
 import net.pms.formats.v2.SubtitleType;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.StringUtils;
@@ -21,38 +23,114 @@ public class LibMediaInfoParser {
 	// Pattern to parse the year from a string
 	private static final Pattern yearPattern = Pattern.compile(YEAR_REGEX);
 
-	private static MediaInfo MI;
+	// Whether the MediaInfo library could be loaded, which doesn't change when handles are discarded
+	private static final boolean valid;
+
+	// The handle created when this class was loaded, until it is given to the pool
+	private static MediaInfo first;
+	private static MediaInfoPool pool;
 	private static Base64 base64;
 
 	static {
-		MI = new MediaInfo();
+		first = new MediaInfo();
+		valid = first.isValid();
 
-		if (MI.isValid()) {
-			MI.Option("Complete", "1");
-			MI.Option("Language", "raw");
+		if (valid) {
+			first.Option("Complete", "1");
+			first.Option("Language", "raw");
 		}
 
 		base64 = new Base64();
 	}
 
+	/**
+	 * @return True if the MediaInfo library could be loaded when the server
+	 *         started. The handles of the pool may be replaced since, but
+	 *         this doesn't change.
+	 */
 	public static boolean isValid() {
-		return MI.isValid();
+		return valid;
 	}
 
 	public static void close() {
 		try {
-			MI.finalize();
+			getPool().close();
 		} catch (Throwable e) {
 			LOGGER.debug("Caught exception", e);
 		}
 	}
 
-	public synchronized static void parse(DLNAMediaInfo media, InputFile inputFile, int type) {
+	/**
+	 * @return The pool of MediaInfo handles, the first of which is the one
+	 *         created when this class was loaded.
+	 */
+	private static synchronized MediaInfoPool getPool() {
+		if (pool == null) {
+			PmsConfiguration configuration = PMS.getConfiguration();
+			pool = new MediaInfoPool(first, configuration != null ? configuration.getMediaInfoHandles() : 1);
+			first = null;
+		}
+
+		return pool;
+	}
+
+	/**
+	 * Parses a file with a MediaInfo handle of the pool, so that several
+	 * files can be parsed at the same time. The media information is locked
+	 * while it is parsed, so that it is only parsed once (see
+	 * {@link DLNAMediaInfo#lockParse()}).
+	 */
+	public static void parse(DLNAMediaInfo media, InputFile inputFile, int type) {
 		File file = inputFile.getFile();
 
-		if (!media.isMediaparsed() && file != null && MI.isValid() && MI.Open(file.getAbsolutePath()) > 0) {
+		if (file == null || !valid) {
+			return;
+		}
+
+		if (!media.lockParse()) {
+			return;
+		}
+
+		try {
+			if (media.isMediaparsed()) {
+				return;
+			}
+
+			MediaInfoPool handles = getPool();
+			MediaInfo mi;
+
+			try {
+				mi = handles.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			if (mi == null) {
+				return;
+			}
+
+			boolean failed = true;
+
+			try {
+				parse(mi, media, inputFile, file, type);
+				failed = false;
+			} finally {
+				if (failed) {
+					handles.discard(mi);
+				} else {
+					handles.release(mi);
+				}
+			}
+		} finally {
+			media.unlockParse();
+		}
+	}
+
+	private static void parse(MediaInfo mi, DLNAMediaInfo media, InputFile inputFile, File file, int type) {
+		if (mi.Open(file.getAbsolutePath()) > 0) {
 			try {
-				String info = MI.Inform();
+				String info = mi.Inform();
 				MediaInfo.StreamType streamType = MediaInfo.StreamType.General;
 				DLNAMediaAudio currentAudioTrack = new DLNAMediaAudio();
 				boolean audioPrepped = false;
@@ -336,7 +414,7 @@ public class LibMediaInfoParser {
 			} catch (Exception e) {
 				LOGGER.error("Error in MediaInfo parsing:", e);
 			} finally {
-				MI.Close();
+				mi.Close();
 				if (media.getContainer() == null) {
 					media.setContainer(DLNAMediaLang.UND);
 				}
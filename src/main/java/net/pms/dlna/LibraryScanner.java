@@ -0,0 +1,338 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import net.pms.Messages;
+import net.pms.PMS;
+import net.pms.newgui.IFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scans a tree of resources, discovering (and, with MediaInfo, parsing) the
+ * content of several folders at once. Every folder is a fork/join task that
+ * discovers it and forks a task per subfolder, so idle threads steal the
+ * subfolders of busy ones. The folders of a single device (see
+ * {@link DLNAResource#getAnalysisDevice()}) are only discovered by a limited
+ * number of threads at a time, so that a spinning disk isn't thrashed; the
+ * threads waiting for a device are replaced in the meantime, so that the
+ * folders of the other devices keep being scanned.
+ * <p>
+ * The fingerprint of every scanned folder (see {@link FolderFingerprint}) is
+ * stored in the database. When a folder is scanned again, its files are only
+ * discovered if its fingerprint has changed; otherwise the scan goes on with
+ * its subfolders, whose names were stored with the fingerprint.
+ * <p>
+ * Progress is reported as numbers of folders and files, at most twice per
+ * second, instead of the name of every scanned file.
+ */
+class LibraryScanner {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LibraryScanner.class);
+	private static final long REPORT_INTERVAL = 500;
+
+	private final RootFolder root;
+	private final DLNAMediaDatabase database;
+	private final int parallelism;
+	private final int threadsPerDevice;
+	private final Map<String, Semaphore> devices = new HashMap<>();
+
+	private final AtomicInteger foldersFound = new AtomicInteger();
+	private final AtomicInteger foldersScanned = new AtomicInteger();
+	private final AtomicInteger filesFound = new AtomicInteger();
+	private final AtomicInteger foldersSkipped = new AtomicInteger();
+	private final AtomicLong lastReport = new AtomicLong();
+
+	/**
+	 * @param root The root folder, which tells whether the scan was stopped.
+	 * @param parallelism The number of folders scanned at once.
+	 * @param threadsPerDevice The number of folders of a device scanned at once.
+	 */
+	LibraryScanner(RootFolder root, int parallelism, int threadsPerDevice) {
+		this.root = root;
+		this.parallelism = parallelism;
+		this.threadsPerDevice = threadsPerDevice;
+		database = PMS.getConfiguration().getUseCache() ? PMS.get().getDatabase() : null;
+	}
+
+	/**
+	 * Scans the children of the given resource, which must be discovered
+	 * already, and returns when they have all been scanned or the scan was
+	 * stopped.
+	 */
+	void scan(DLNAResource resource) {
+		long start = System.currentTimeMillis();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+		try {
+			pool.invoke(new FolderTask(resource, true));
+		} finally {
+			pool.shutdown();
+		}
+
+		LOGGER.info(
+			"Scanned {} folders ({} unchanged) and {} files in {} seconds",
+			foldersScanned.get(),
+			foldersSkipped.get(),
+			filesFound.get(),
+			(System.currentTimeMillis() - start) / 1000
+		);
+	}
+
+	/**
+	 * Scans a folder: discovers it, unless it is unchanged since the last
+	 * scan, and forks a task per subfolder.
+	 */
+	private class FolderTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final DLNAResource folder;
+		private final boolean discovered;
+
+		/**
+		 * @param folder The folder.
+		 * @param discovered Whether the folder is discovered already, so that
+		 *                   only its children are scanned.
+		 */
+		FolderTask(DLNAResource folder, boolean discovered) {
+			this.folder = folder;
+			this.discovered = discovered;
+		}
+
+		@Override
+		protected void compute() {
+			if (!root.isScanRunning()) {
+				return;
+			}
+
+			List<DLNAResource> children;
+
+			if (discovered) {
+				synchronized (folder) {
+					children = new ArrayList<>(folder.getChildren());
+				}
+			} else {
+				FolderFingerprint fingerprint = getFingerprint(folder);
+				FolderFingerprint stored = fingerprint != null ? database.getFolderFingerprint(fingerprint.getFolder()) : null;
+
+				if (fingerprint != null && fingerprint.matches(stored)) {
+					foldersSkipped.incrementAndGet();
+					foldersScanned.incrementAndGet();
+					children = getUnchangedSubfolders(folder, stored);
+				} else {
+					discover(folder);
+					foldersScanned.incrementAndGet();
+					report();
+
+					if (fingerprint != null) {
+						storeFingerprint(folder, fingerprint);
+					}
+
+					synchronized (folder) {
+						children = new ArrayList<>(folder.getChildren());
+					}
+				}
+			}
+
+			List<FolderTask> subtasks = new ArrayList<>();
+
+			for (DLNAResource child : children) {
+				if (!child.allowScan()) {
+					continue;
+				}
+
+				if (child instanceof RealFile && !child.isFolder()) {
+					filesFound.incrementAndGet();
+				} else {
+					child.setDefaultRenderer(folder.getDefaultRenderer());
+					subtasks.add(new FolderTask(child, false));
+				}
+			}
+
+			foldersFound.addAndGet(subtasks.size());
+			invokeAll(subtasks);
+
+			if (!discovered) {
+				// Free the memory, the scanned folder will be discovered again when browsed
+				synchronized (folder) {
+					folder.getChildren().clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The current fingerprint of a folder of the file system, or
+	 *         null if the folder is virtual or the cache is disabled.
+	 */
+	private FolderFingerprint getFingerprint(DLNAResource folder) {
+		if (database == null || !(folder instanceof RealFile)) {
+			return null;
+		}
+
+		return FolderFingerprint.of(((RealFile) folder).getFile());
+	}
+
+	private List<DLNAResource> getUnchangedSubfolders(DLNAResource folder, FolderFingerprint stored) {
+		File dir = ((RealFile) folder).getFile();
+		List<DLNAResource> subfolders = new ArrayList<>();
+
+		for (String name : stored.getSubfolders()) {
+			File subfolder = new File(dir, name);
+
+			if (subfolder.isDirectory()) {
+				RealFile resource = new RealFile(subfolder);
+				resource.setDefaultRenderer(folder.getDefaultRenderer());
+				subfolders.add(resource);
+			}
+		}
+
+		return subfolders;
+	}
+
+	/**
+	 * Stores the fingerprint of a discovered folder with the names of its
+	 * subfolders. Folders whose children are grouped into virtual folders
+	 * (e.g. A-Z) don't expose their subfolders and are left out.
+	 */
+	private void storeFingerprint(DLNAResource folder, FolderFingerprint fingerprint) {
+		List<String> subfolders = new ArrayList<>();
+
+		synchronized (folder) {
+			for (DLNAResource child : folder.getChildren()) {
+				if (child instanceof RealFile) {
+					if (child.isFolder()) {
+						subfolders.add(((RealFile) child).getFile().getName());
+					}
+				} else if (child instanceof MapFile) {
+					return;
+				}
+			}
+		}
+
+		database.setFolderFingerprint(fingerprint.withSubfolders(subfolders));
+	}
+
+	private void discover(DLNAResource folder) {
+		Semaphore device = getDevice(folder.getAnalysisDevice());
+
+		if (device != null) {
+			try {
+				// Lets the pool start another thread while this one waits for the device
+				ForkJoinPool.managedBlock(new DeviceBlocker(device));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+
+		try {
+			synchronized (folder) {
+				if (folder.isDiscovered()) {
+					folder.refreshChildren();
+				} else {
+					if (folder instanceof DVDISOFile || folder instanceof DVDISOTitle) { // ugly hack
+						folder.resolve();
+					}
+
+					folder.discoverChildren();
+					folder.analyzeChildren(-1);
+					folder.setDiscovered(true);
+				}
+			}
+		} catch (RuntimeException e) {
+			LOGGER.debug("Error while scanning \"{}\"", folder.getName(), e);
+		} finally {
+			if (device != null) {
+				device.release();
+			}
+		}
+	}
+
+	/**
+	 * Waits for a permit of a device on behalf of a worker of the pool.
+	 */
+	private static class DeviceBlocker implements ForkJoinPool.ManagedBlocker {
+		private final Semaphore device;
+		private boolean acquired;
+
+		DeviceBlocker(Semaphore device) {
+			this.device = device;
+		}
+
+		@Override
+		public boolean block() throws InterruptedException {
+			if (!acquired) {
+				device.acquire();
+				acquired = true;
+			}
+
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			if (!acquired) {
+				acquired = device.tryAcquire();
+			}
+
+			return acquired;
+		}
+	}
+
+	private Semaphore getDevice(String key) {
+		if (key == null) {
+			return null;
+		}
+
+		synchronized (devices) {
+			Semaphore device = devices.get(key);
+
+			if (device == null) {
+				device = new Semaphore(threadsPerDevice);
+				devices.put(key, device);
+			}
+
+			return device;
+		}
+	}
+
+	private void report() {
+		long now = System.currentTimeMillis();
+		long last = lastReport.get();
+
+		if (now - last >= REPORT_INTERVAL && lastReport.compareAndSet(last, now)) {
+			String status = String.format(Messages.getString("DLNAMediaDatabase.6"), foldersScanned.get(), foldersFound.get(), filesFound.get());
+			LOGGER.debug(status);
+			IFrame frame = PMS.get().getFrame();
+
+			if (frame != null) {
+				frame.setStatusLine(status);
+			}
+		}
+	}
+}
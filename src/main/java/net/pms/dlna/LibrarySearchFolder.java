@@ -0,0 +1,135 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.pms.PMS;
+import net.pms.dlna.virtual.VirtualFolder;
+
+/**
+ * The results of a search of the whole media library (see
+ * {@link DLNAMediaDatabase#search(String, int)}). The matching files are
+ * known at once, but their children are created up to the last page
+ * browsed, with their cached metadata loaded in bulk, as renderers browse
+ * the results.
+ */
+public class LibrarySearchFolder extends VirtualFolder {
+	private final List<String> queries;
+	private final int type;
+	private List<String> matches;
+	private int nextMatch;
+
+	/**
+	 * @param name The name of the folder.
+	 * @param queries The alternative words to search for: files matching
+	 *                any of them are found.
+	 * @param type The type of the files to search for, or 0 for all types.
+	 */
+	public LibrarySearchFolder(String name, List<String> queries, int type) {
+		super(name, null);
+		this.queries = new ArrayList<>(queries);
+		this.type = type;
+	}
+
+	/**
+	 * @return True if this folder holds the results of the given search.
+	 */
+	public boolean isSearchOf(List<String> queries, int type) {
+		return this.queries.equals(queries) && this.type == type;
+	}
+
+	@Override
+	public void discoverChildren() {
+		DLNAMediaDatabase database = PMS.get().getDatabase();
+
+		if (database == null) {
+			matches = Collections.emptyList();
+		} else if (queries.size() == 1) {
+			matches = database.search(queries.get(0), type);
+		} else {
+			Set<String> merged = new LinkedHashSet<>();
+
+			for (String query : queries) {
+				merged.addAll(database.search(query, type));
+			}
+
+			matches = new ArrayList<>(merged);
+			Collections.sort(matches, String.CASE_INSENSITIVE_ORDER);
+		}
+
+		nextMatch = 0;
+	}
+
+	@Override
+	protected boolean isLazilyEnumerated() {
+		return true;
+	}
+
+	/**
+	 * Creates the children of the next matches until there are enough of
+	 * them to serve the requested page. Files that have been deleted since
+	 * they were indexed are skipped.
+	 */
+	@Override
+	protected void materializeChildren(int start, int pageCount) {
+		if (matches == null) {
+			return;
+		}
+
+		int count = pageCount < 0 ? -1 : start + pageCount;
+
+		DLNAMediaDatabase database = PMS.get().getDatabase();
+
+		while (nextMatch < matches.size() && (count < 0 || getChildren().size() < count)) {
+			int end = count < 0 ? matches.size() : Math.min(matches.size(), nextMatch + count - getChildren().size());
+			List<File> files = new ArrayList<>();
+
+			for (String match : matches.subList(nextMatch, end)) {
+				files.add(new File(match));
+			}
+
+			nextMatch = end;
+			Map<String, DLNAMediaInfo> preloaded = database != null ? database.getData(files) : Collections.<String, DLNAMediaInfo>emptyMap();
+
+			for (File file : files) {
+				if (file.exists()) {
+					RealFile realFile = new RealFile(file);
+					DLNAMediaInfo media = preloaded.get(file.getAbsolutePath());
+
+					if (media != null) {
+						realFile.setCachedMedia(media);
+					}
+
+					addChild(realFile);
+				}
+			}
+		}
+	}
+
+	@Override
+	public int childrenNumber() {
+		return super.childrenNumber() + (matches != null ? matches.size() - nextMatch : 0);
+	}
+}
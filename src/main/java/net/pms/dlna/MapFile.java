@@ -21,6 +21,10 @@ package net.pms.dlna;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import net.pms.PMS;
 import net.pms.configuration.MapFileConfiguration;
@@ -46,9 +50,17 @@ public class MapFile extends DLNAResource {
 	private static final Logger LOGGER = LoggerFactory.getLogger(MapFile.class);
 	private static final PmsConfiguration configuration = PMS.getConfiguration();
 	private List<File> discoverable;
+	private int nextDiscoverable;
+	private int nextConfChild;
+	private boolean lazy;
+	private boolean deferResolution;
+	private long watchGeneration = -1;
 	private String forcedName;
+	private Map<String, DLNAMediaInfo> preloaded = Collections.emptyMap();
 
 	private ArrayList<RealFile> searchList;
+	private FileSearch fileSearch;
+	private String analysisDevice;
 
 	/**
 	 * @deprecated Use standard getter and setter to access this variable.
@@ -104,6 +116,10 @@ public class MapFile extends DLNAResource {
 						LOGGER.debug("Ignoring empty/non-relevant directory: " + f.getName());
 					} else { // Otherwise add the file
 						RealFile rf = new RealFile(f);
+						DLNAMediaInfo media = preloaded.remove(f.getAbsolutePath());
+						if (media != null) {
+							rf.setCachedMedia(media);
+						}
 						if (searchList != null) {
 							searchList.add(rf);
 						}
@@ -121,18 +137,21 @@ public class MapFile extends DLNAResource {
 		}
 	}
 
-	private List<File> getFileList() {
+	/**
+	 * @return The entries of the mapped folders, as they are on disk.
+	 */
+	List<File> getFileList() {
 		List<File> out = new ArrayList<>();
 
 		for (File file : this.conf.getFiles()) {
 			if (file != null && file.isDirectory()) {
 				if (file.canRead()) {
-					File[] files = file.listFiles();
-
-					if (files == null) {
+					try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.toPath())) {
+						for (Path path : stream) {
+							out.add(path.toFile());
+						}
+					} catch (IOException | DirectoryIteratorException e) {
 						LOGGER.warn("Can't read files from directory: {}", file.getAbsolutePath());
-					} else {
-						out.addAll(Arrays.asList(files));
 					}
 				} else {
 					LOGGER.warn("Can't read directory: {}", file.getAbsolutePath());
@@ -151,28 +170,154 @@ public class MapFile extends DLNAResource {
 	@Override
 	public boolean analyzeChildren(int count) {
 		int currentChildrenCount = getChildren().size();
-		int vfolder = 0;
-		FileSearch fs = null;
-		if (!discoverable.isEmpty() && configuration.getSearchInFolder()) {
-			searchList = new ArrayList<>();
-			fs = new FileSearch(searchList);
-			addChild(new SearchFolder(fs));
-		}
+		addSearchFolder();
+		preloadMedia(count);
+
 		while (((getChildren().size() - currentChildrenCount) < count) || (count == -1)) {
-			if (vfolder < getConf().getChildren().size()) {
-				addChild(new MapFile(getConf().getChildren().get(vfolder)));
-				++vfolder;
-			} else {
-				if (discoverable.isEmpty()) {
-					break;
-				}
-				manageFile(discoverable.remove(0), null);
+			if (!addNextChild()) {
+				break;
 			}
 		}
-		if (fs != null) {
-			fs.update(searchList);
+
+		preloaded = Collections.emptyMap();
+
+		if (fileSearch != null) {
+			fileSearch.update(searchList);
+		}
+
+		return getPendingCount() == 0;
+	}
+
+	/**
+	 * Creates the children of a lazily enumerated folder until there are
+	 * enough of them to serve the requested page. Children are created in
+	 * order, so the children before the page are created too, but they are
+	 * neither looked up in the database nor resolved: browsing the end of a
+	 * large folder first only parses the files of that page. The skipped
+	 * children are resolved when their own page is browsed, like those
+	 * listed for renderers that don't use MediaInfo, so files that can't be
+	 * parsed are only hidden if they were created within a page.
+	 */
+	@Override
+	protected void materializeChildren(int start, int count) {
+		if (!lazy) {
+			return;
+		}
+
+		addSearchFolder();
+		deferResolution = true;
+
+		try {
+			while (getChildren().size() < start && addNextChild()) {
+				// keep going
+			}
+		} finally {
+			deferResolution = false;
+		}
+
+		int end = count < 0 ? -1 : start + count;
+		preloadMedia(end < 0 ? -1 : end - getChildren().size());
+
+		while ((end < 0 || getChildren().size() < end) && addNextChild()) {
+			// keep going
+		}
+
+		preloaded = Collections.emptyMap();
+
+		if (fileSearch != null) {
+			fileSearch.update(searchList);
+		}
+	}
+
+	/**
+	 * @return The entries of a lazily enumerated folder whose children have
+	 *         not been created yet, in the order they will be.
+	 */
+	synchronized List<File> getPendingFiles() {
+		if (discoverable == null || nextDiscoverable >= discoverable.size()) {
+			return Collections.emptyList();
+		}
+
+		return new ArrayList<>(discoverable.subList(nextDiscoverable, discoverable.size()));
+	}
+
+	@Override
+	protected boolean isLazilyEnumerated() {
+		return lazy;
+	}
+
+	/**
+	 * @return True while the children created for this folder must not be
+	 *         resolved when they are added, because they are before the
+	 *         requested page.
+	 */
+	boolean isResolutionDeferred() {
+		return deferResolution;
+	}
+
+	/**
+	 * Counts the entries of a lazily enumerated folder that have not been
+	 * created yet, so that renderers are told the real size of the folder.
+	 */
+	@Override
+	public int childrenNumber() {
+		return super.childrenNumber() + (lazy ? getPendingCount() : 0);
+	}
+
+	/**
+	 * Loads the media information of the next entries from the database at
+	 * once, before their children are created and resolved one by one.
+	 *
+	 * @param count The number of entries, or -1 for all the pending entries.
+	 */
+	private void preloadMedia(int count) {
+		if (discoverable == null || count == 0 || !configuration.getUseCache()) {
+			return;
+		}
+
+		DLNAMediaDatabase database = PMS.get().getDatabase();
+		int end = count < 0 ? discoverable.size() : Math.min(discoverable.size(), nextDiscoverable + count);
+
+		if (database != null && nextDiscoverable < end) {
+			preloaded = database.getData(discoverable.subList(nextDiscoverable, end));
+		}
+	}
+
+	private void addSearchFolder() {
+		if (fileSearch == null && discoverable != null && nextDiscoverable < discoverable.size() && configuration.getSearchInFolder()) {
+			searchList = new ArrayList<>();
+			fileSearch = new FileSearch(searchList);
+			addChild(new SearchFolder(fileSearch));
+		}
+	}
+
+	/**
+	 * Creates the child of the next pending entry.
+	 *
+	 * @return False if there was no pending entry left.
+	 */
+	private boolean addNextChild() {
+		if (nextConfChild < getConf().getChildren().size()) {
+			addChild(new MapFile(getConf().getChildren().get(nextConfChild++)));
+			return true;
+		}
+
+		if (discoverable == null || nextDiscoverable >= discoverable.size()) {
+			return false;
+		}
+
+		manageFile(discoverable.get(nextDiscoverable++), null);
+		return true;
+	}
+
+	private int getPendingCount() {
+		int pending = getConf().getChildren().size() - nextConfChild;
+
+		if (discoverable != null) {
+			pending += discoverable.size() - nextDiscoverable;
 		}
-		return discoverable.isEmpty();
+
+		return pending;
 	}
 
 	@Override
@@ -180,22 +325,40 @@ public class MapFile extends DLNAResource {
 		discoverChildren(null);
 	}
 
+	/**
+	 * Returns the name of the file store (e.g. "/dev/sda1") of the first
+	 * mapped folder, so that all folders on the same disk or share share
+	 * its analysis limit.
+	 */
+	@Override
+	protected String getAnalysisDevice() {
+		if (analysisDevice == null && !getConf().getFiles().isEmpty()) {
+			analysisDevice = StringUtils.defaultString(AnalysisExecutor.getDevice(getConf().getFiles().get(0)));
+		}
+
+		return StringUtils.isEmpty(analysisDevice) ? null : analysisDevice;
+	}
+
 	@Override
 	public void discoverChildren(String str) {
 		//super.discoverChildren(str);
 
-		if (discoverable == null) {
-			discoverable = new ArrayList<>();
-		} else {
+		if (discoverable != null) {
+			// The entries of a letter folder, given by the folder it belongs to
+			watchFolders();
+			lazy = isLazy(discoverable);
 			return;
 		}
 
 		int sm = configuration.getSortMethod(getPath());
-
-		List<File> files = getFileList();
-
-		// ATZ handling
-		if (files.size() > configuration.getATZLimit() && StringUtils.isEmpty(forcedName)) {
+		watchFolders();
+		List<File> entries = getEntries(sm);
+
+		if (StringUtils.isNotEmpty(forcedName)) {
+			// A letter folder listed again, e.g. after it was refreshed
+			List<File> letter = groupByLetter(entries).get(forcedName);
+			discoverable = letter != null ? letter : new ArrayList<File>();
+		} else if (entries.size() > configuration.getATZLimit()) {
 			/*
 			 * Too many files to display at once, add A-Z folders
 			 * instead and let the filters begin
@@ -203,51 +366,51 @@ public class MapFile extends DLNAResource {
 			 * Note: If we done this at the level directly above we don't do it again
 			 * since all files start with the same letter then
 			 */
-			TreeMap<String, ArrayList<File>> map = new TreeMap<>();
-			for (File f : files) {
-				if ((!f.isFile() && !f.isDirectory()) || f.isHidden()) {
-					// skip these
-					continue;
-				}
-				if (f.isDirectory() && configuration.isHideEmptyFolders() && !FileUtil.isFolderRelevant(f, configuration)) {
-					LOGGER.debug("Ignoring empty/non-relevant directory: " + f.getName());
-					continue;
-				}
+			discoverable = new ArrayList<>();
 
-				String filenameToSort = FileUtil.renameForSorting(f.getName());
+			for (Map.Entry<String, List<File>> letter : groupByLetter(entries).entrySet()) {
+				MapFile mf = new MapFile(getConf(), letter.getValue());
+				mf.forcedName = letter.getKey();
+				addChild(mf);
+			}
 
-				char c = filenameToSort.toUpperCase().charAt(0);
+			return;
+		} else {
+			discoverable = entries;
+		}
 
-				if (!(c >= 'A' && c <= 'Z')) {
-					// "other char"
-					c = '#';
-				}
-				ArrayList<File> l = map.get(String.valueOf(c));
-				if (l == null) {
-					// new letter
-					l = new ArrayList<>();
-				}
-				l.add(f);
-				map.put(String.valueOf(c), l);
-			}
+		lazy = isLazy(discoverable);
+	}
 
-			for (String letter : map.keySet()) {
-				// loop over all letters, this avoids adding
-				// empty letters
-				ArrayList<File> l = map.get(letter);
-				UMSUtils.sort(l, sm);
-				MapFile mf = new MapFile(getConf(), l);
-				mf.forcedName = letter;
-				addChild(mf);
+	/**
+	 * Lists the entries of the mapped folders in the order their children
+	 * are created: subfolders first, then files, each sorted with the given
+	 * method. The entries of large folders are listed and sorted once,
+	 * until the folders are modified (see {@link DirectoryIndex}), before
+	 * they are split into letter folders.
+	 *
+	 * @param sm The sort method.
+	 * @return The entries, which must not be modified.
+	 */
+	List<File> getEntries(int sm) {
+		List<File> folders = getConf().getFiles();
+
+		if (sm != UMSUtils.SORT_RANDOM) {
+			List<File> index = DirectoryIndex.get(folders, sm);
+
+			if (index != null) {
+				return index;
 			}
-			return;
 		}
 
+		long lastModified = DirectoryIndex.getLastModified(folders);
+		List<File> files = getFileList();
+		List<File> entries = new ArrayList<>();
 		UMSUtils.sort(files, (sm == UMSUtils.SORT_RANDOM ? UMSUtils.SORT_LOC_NAT : sm));
 
 		for (File f : files) {
 			if (f.isDirectory()) {
-				discoverable.add(f); // manageFile(f);
+				entries.add(f);
 			}
 		}
 
@@ -258,13 +421,91 @@ public class MapFile extends DLNAResource {
 
 		for (File f : files) {
 			if (f.isFile()) {
-				discoverable.add(f); // manageFile(f);
+				entries.add(f);
 			}
 		}
+
+		if (sm != UMSUtils.SORT_RANDOM && (isLazy(entries) || entries.size() > configuration.getATZLimit())) {
+			entries = DirectoryIndex.put(folders, sm, lastModified, entries);
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Splits the entries of a folder by the first letter of their sorting
+	 * names, '#' standing for the other characters. Hidden entries and, if
+	 * configured, irrelevant folders are left out.
+	 *
+	 * @param entries The entries, in order.
+	 * @return The entries of every letter, in the same order, by letter.
+	 */
+	static SortedMap<String, List<File>> groupByLetter(List<File> entries) {
+		SortedMap<String, List<File>> map = new TreeMap<>();
+
+		for (File f : entries) {
+			if (f.isHidden()) {
+				// skip these
+				continue;
+			}
+
+			if (f.isDirectory() && configuration.isHideEmptyFolders() && !FileUtil.isFolderRelevant(f, configuration)) {
+				LOGGER.debug("Ignoring empty/non-relevant directory: " + f.getName());
+				continue;
+			}
+
+			String filenameToSort = FileUtil.renameForSorting(f.getName());
+			char c = filenameToSort.isEmpty() ? '#' : filenameToSort.toUpperCase().charAt(0);
+
+			if (!(c >= 'A' && c <= 'Z')) {
+				// "other char"
+				c = '#';
+			}
+
+			List<File> l = map.get(String.valueOf(c));
+
+			if (l == null) {
+				// new letter
+				l = new ArrayList<>();
+				map.put(String.valueOf(c), l);
+			}
+
+			l.add(f);
+		}
+
+		return map;
+	}
+
+	/**
+	 * Large folders are enumerated lazily: their children are only created
+	 * when renderers browse them, up to the last requested page.
+	 */
+	private boolean isLazy(List<File> entries) {
+		int limit = configuration.getLazyFolderLimit();
+		return limit > 0 && entries.size() > limit;
+	}
+
+	/**
+	 * Watches the mapped folders for changes, and remembers their current
+	 * generation before they are listed.
+	 */
+	private void watchFolders() {
+		FileWatcher watcher = FileWatcher.getInstance();
+
+		for (File f : getConf().getFiles()) {
+			watcher.watch(f, false);
+		}
+
+		watchGeneration = watcher.getGeneration(getConf().getFiles());
 	}
 
 	@Override
 	public boolean isRefreshNeeded() {
+		if (watchGeneration >= 0) {
+			// The folders are watched, no need to check them
+			return FileWatcher.getInstance().getGeneration(getConf().getFiles()) != watchGeneration;
+		}
+
 		long modified = 0;
 
 		for (File f : this.getConf().getFiles()) {
@@ -283,6 +524,26 @@ public class MapFile extends DLNAResource {
 
 	@Override
 	public void doRefreshChildren(String str) {
+		watchFolders();
+
+		if (lazy) {
+			// Most entries have no child to compare with, enumerate the folder again
+			getChildren().clear();
+			discoverable = null;
+			nextDiscoverable = 0;
+			nextConfChild = 0;
+			lazy = false;
+			searchList = null;
+			fileSearch = null;
+			discoverChildren(str);
+
+			if (!lazy) {
+				analyzeChildren(-1);
+			}
+
+			return;
+		}
+
 		List<File> files = getFileList();
 		List<File> addedFiles = new ArrayList<>();
 		List<DLNAResource> removedFiles = new ArrayList<>();
@@ -0,0 +1,187 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of native MediaInfo handles. A handle parses a single file at a time,
+ * so every parsing thread borrows its own one: up to a given number of files
+ * are parsed at once instead of one after the other.
+ * <p>
+ * Handles are created on demand. A handle whose use failed (e.g. a native
+ * call threw an error) is disposed of instead of being returned to the
+ * pool, and a new one is created when it is needed, so that a broken handle
+ * can't fail the parsing of other files. This includes the first handle:
+ * whether MediaInfo can be used is decided once, when the server starts
+ * (see {@link LibMediaInfoParser#isValid()}), not by the state of a handle.
+ */
+class MediaInfoPool {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MediaInfoPool.class);
+
+	private final int size;
+	private final BlockingQueue<MediaInfo> idle = new LinkedBlockingQueue<>();
+
+	// Guarded by this
+	private int handles;
+	private boolean closed;
+
+	/**
+	 * @param first A valid handle, which becomes the first handle of the pool.
+	 * @param size The maximum number of handles.
+	 */
+	MediaInfoPool(MediaInfo first, int size) {
+		this.size = Math.max(size, 1);
+		handles = 1;
+		idle.add(first);
+	}
+
+	/**
+	 * Borrows a handle, creating it if all the handles are in use and the
+	 * pool isn't full, or waiting for one to be released otherwise.
+	 *
+	 * @return The handle, or null if the pool has been closed or no handle
+	 *         can be created.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	MediaInfo acquire() throws InterruptedException {
+		while (true) {
+			MediaInfo handle = idle.poll();
+
+			if (handle != null) {
+				return handle;
+			}
+
+			boolean create;
+
+			synchronized (this) {
+				if (closed) {
+					return null;
+				}
+
+				create = handles < size;
+
+				if (create) {
+					handles++;
+				}
+			}
+
+			if (create) {
+				handle = createHandle();
+
+				if (handle != null) {
+					return handle;
+				}
+
+				synchronized (this) {
+					if (--handles == 0) {
+						return null;
+					}
+				}
+			}
+
+			// Check again from time to time, since failed handles free their place
+			handle = idle.poll(1, TimeUnit.SECONDS);
+
+			if (handle != null) {
+				return handle;
+			}
+		}
+	}
+
+	/**
+	 * @return A new handle, or null if it couldn't be created.
+	 */
+	private MediaInfo createHandle() {
+		MediaInfo handle = newHandle();
+
+		if (!handle.isValid()) {
+			return null;
+		}
+
+		handle.Option("Complete", "1");
+		handle.Option("Language", "raw");
+		LOGGER.trace("Created a MediaInfo handle");
+		return handle;
+	}
+
+	/**
+	 * Loads a new native handle, overridden by tests.
+	 */
+	MediaInfo newHandle() {
+		return new MediaInfo();
+	}
+
+	/**
+	 * Returns a handle to the pool.
+	 */
+	void release(MediaInfo handle) {
+		synchronized (this) {
+			if (!closed) {
+				idle.add(handle);
+				return;
+			}
+		}
+
+		dispose(handle);
+	}
+
+	/**
+	 * Disposes of a handle that failed, so that it isn't used again.
+	 */
+	void discard(MediaInfo handle) {
+		LOGGER.debug("Disposing of a failed MediaInfo handle");
+
+		synchronized (this) {
+			handles--;
+		}
+
+		dispose(handle);
+	}
+
+	/**
+	 * Disposes of the idle handles. Handles in use are disposed of when
+	 * they are released.
+	 */
+	void close() {
+		synchronized (this) {
+			closed = true;
+		}
+
+		MediaInfo handle;
+
+		while ((handle = idle.poll()) != null) {
+			dispose(handle);
+		}
+	}
+
+	private static void dispose(MediaInfo handle) {
+		try {
+			if (handle.isValid()) {
+				handle.dispose();
+			}
+		} catch (Throwable e) {
+			LOGGER.debug("Error while disposing of a MediaInfo handle", e);
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package net.pms.dlna;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
@@ -19,6 +20,7 @@ public class MediaMonitor extends VirtualFolder {
 	private File[] dirs;
 	private Set<String> oldEntries;
 	private PmsConfiguration config;
+	private long watchGeneration = -1;
 
 	public MediaMonitor(File[] dirs) {
 		super(Messages.getString("VirtualFolder.2"), "images/thumbnail-folder-256.png");
@@ -108,6 +110,17 @@ public class MediaMonitor extends VirtualFolder {
 
 	@Override
 	public void discoverChildren() {
+		FileWatcher watcher = FileWatcher.getInstance();
+
+		// Registered once: the watcher follows the subfolders created later
+		if (watchGeneration < 0) {
+			for (File f : dirs) {
+				watcher.watch(f, true);
+			}
+		}
+
+		watchGeneration = watcher.getTreeGeneration(Arrays.asList(dirs));
+
 		for (File f : dirs) {
 			scanDir(f.listFiles(), this);
 		}
@@ -115,9 +128,22 @@ public class MediaMonitor extends VirtualFolder {
 
 	@Override
 	public boolean isRefreshNeeded() {
+		if (watchGeneration >= 0) {
+			return FileWatcher.getInstance().getTreeGeneration(Arrays.asList(dirs)) != watchGeneration;
+		}
+
+		// The folders can't be watched, assume they have changed
 		return true;
 	}
 
+	@Override
+	public void doRefreshChildren() {
+		if (watchGeneration >= 0) {
+			getChildren().clear();
+			discoverChildren();
+		}
+	}
+
 	private boolean monitorClass(DLNAResource res) {
 		return (res instanceof MonitorEntry) || (res instanceof MediaMonitor);
 	}
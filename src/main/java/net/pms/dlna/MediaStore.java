@@ -0,0 +1,207 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server-wide registry of the parsed media information of files, shared by
+ * the content trees of all renderers. Every renderer still has its own tree
+ * of resources, with its own filtering, transcode folders and MIME type
+ * decisions, but the resources of the same file point to the same {@link
+ * DLNAMediaInfo}: a file is parsed only once and its metadata (including its
+ * thumbnail) is held in memory only once, whatever the number of renderers.
+ * <p>
+ * Only the media information is shared: the discovery of folders, the
+ * resources themselves and the resume copies of a file (which get their own
+ * clone of its media information) remain per renderer. The writes made to
+ * shared media information after it has been parsed, such as setting its
+ * thumbnail, are made under its parse lock (see {@link
+ * DLNAMediaInfo#lockParse()}).
+ * <p>
+ * Media information is weakly referenced: it is forgotten as soon as no
+ * tree uses it anymore, and it is ignored when the file has been modified
+ * since it was parsed.
+ * <p>
+ * Files being parsed are registered too (see {@link #parse(String, long,
+ * Callable, long)}), so that a file requested by several renderers at once
+ * is parsed by one of them while the others wait for its result.
+ */
+public class MediaStore {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MediaStore.class);
+	private static final MediaStore instance = new MediaStore();
+
+	private final ConcurrentHashMap<String, MediaReference> medias = new ConcurrentHashMap<>();
+	private final ReferenceQueue<DLNAMediaInfo> collected = new ReferenceQueue<>();
+
+	// The parses in progress, by name and modification time
+	private final ConcurrentHashMap<String, FutureTask<DLNAMediaInfo>> parses = new ConcurrentHashMap<>();
+
+	// Statistics of the waits for parses in progress
+	private final AtomicLong waits = new AtomicLong();
+	private final AtomicLong waitTime = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+
+	private static class MediaReference extends WeakReference<DLNAMediaInfo> {
+		private final String key;
+		private final long modified;
+
+		MediaReference(String key, long modified, DLNAMediaInfo media, ReferenceQueue<DLNAMediaInfo> queue) {
+			super(media, queue);
+			this.key = key;
+			this.modified = modified;
+		}
+	}
+
+	public static MediaStore getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @param key The name of the file, as stored in the media database.
+	 * @param modified The last modification time of the file.
+	 * @return The parsed media information of the file, or null if it has
+	 *         not been parsed since it was last modified.
+	 */
+	DLNAMediaInfo get(String key, long modified) {
+		MediaReference reference = medias.get(key);
+
+		if (reference == null || reference.modified != modified) {
+			return null;
+		}
+
+		DLNAMediaInfo media = reference.get();
+		return media != null && media.isMediaparsed() ? media : null;
+	}
+
+	void put(String key, long modified, DLNAMediaInfo media) {
+		purge();
+		medias.put(key, new MediaReference(key, modified, media, collected));
+	}
+
+	int size() {
+		purge();
+		return medias.size();
+	}
+
+	/**
+	 * Parses a file once, however many threads need it at the same time.
+	 * The first caller runs the parser in its own thread; the others wait
+	 * for its result. The parser should {@link #put(String, long,
+	 * DLNAMediaInfo)} the media information it has parsed, so that later
+	 * callers find it without waiting.
+	 *
+	 * @param key The name of the file, as stored in the media database.
+	 * @param modified The last modification time of the file.
+	 * @param parser The parser of the file.
+	 * @param timeout How long to wait for the parse of another thread, in
+	 *                milliseconds.
+	 * @return The media information returned by the parser, or null if it
+	 *         failed or the wait timed out.
+	 */
+	DLNAMediaInfo parse(String key, long modified, Callable<DLNAMediaInfo> parser, long timeout) {
+		String parseKey = key + "|" + modified;
+		FutureTask<DLNAMediaInfo> task = new FutureTask<>(parser);
+		FutureTask<DLNAMediaInfo> running = parses.putIfAbsent(parseKey, task);
+
+		if (running == null) {
+			try {
+				task.run();
+			} finally {
+				parses.remove(parseKey, task);
+			}
+
+			running = task;
+		}
+
+		long start = System.currentTimeMillis();
+
+		try {
+			return running.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			timeouts.incrementAndGet();
+			LOGGER.debug("Timed out waiting for \"{}\" to be parsed by another thread", key);
+		} catch (ExecutionException e) {
+			LOGGER.debug("Error while parsing \"{}\"", key, e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (running != task) {
+				long waited = System.currentTimeMillis() - start;
+				LOGGER.trace(
+					"Waited {} ms for \"{}\" to be parsed by another thread ({} waits, {} ms in total, {} timeouts)",
+					waited,
+					key,
+					waits.incrementAndGet(),
+					waitTime.addAndGet(waited),
+					timeouts.get()
+				);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return The number of times a thread waited for a file to be parsed
+	 *         by another thread.
+	 */
+	public long getParseWaits() {
+		return waits.get();
+	}
+
+	/**
+	 * @return The total time threads waited for files to be parsed by other
+	 *         threads, in milliseconds.
+	 */
+	public long getParseWaitTime() {
+		return waitTime.get();
+	}
+
+	/**
+	 * @return The number of waits for a file to be parsed by another thread
+	 *         that timed out.
+	 */
+	public long getParseTimeouts() {
+		return timeouts.get();
+	}
+
+	/**
+	 * Drops the entries of media information that has been garbage collected.
+	 */
+	private void purge() {
+		Reference<? extends DLNAMediaInfo> reference;
+
+		while ((reference = collected.poll()) != null) {
+			MediaReference mediaReference = (MediaReference) reference;
+			medias.remove(mediaReference.key, mediaReference);
+		}
+	}
+}
@@ -6,6 +6,7 @@ import net.pms.dlna.virtual.VirtualFolder;
 public class MonitorEntry extends VirtualFolder {
 	private MediaMonitor mm;
 	private File f;
+	private long watchGeneration = -1;
 
 	public MonitorEntry(File f, MediaMonitor mm) {
 		super(f.getName(), null);
@@ -15,6 +16,19 @@ public class MonitorEntry extends VirtualFolder {
 
 	@Override
 	public void discoverChildren() {
+		// Watched along with the folders of the monitor
+		watchGeneration = FileWatcher.getInstance().getGeneration(f);
 		mm.scanDir(f.listFiles(), this);
 	}
+
+	@Override
+	public boolean isRefreshNeeded() {
+		return watchGeneration >= 0 && FileWatcher.getInstance().getGeneration(f) != watchGeneration;
+	}
+
+	@Override
+	public void doRefreshChildren() {
+		getChildren().clear();
+		discoverChildren();
+	}
 }
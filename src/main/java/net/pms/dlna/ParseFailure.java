@@ -0,0 +1,82 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+/**
+ * A file that couldn't be parsed, e.g. an encrypted file, as stored in the
+ * media database. The file is hidden without being parsed again until its
+ * modification time or size changes.
+ */
+public class ParseFailure {
+	public static final String ENCRYPTED = "Encrypted";
+	public static final String UNKNOWN_CONTAINER = "Unknown container";
+
+	private final String name;
+	private final long modified;
+	private final long size;
+	private final String reason;
+	private final long failed;
+
+	/**
+	 * @param name The absolute path of the file.
+	 * @param modified The modification time of the file.
+	 * @param size The size of the file.
+	 * @param reason Why the file couldn't be parsed.
+	 * @param failed When the file couldn't be parsed.
+	 */
+	public ParseFailure(String name, long modified, long size, String reason, long failed) {
+		this.name = name;
+		this.modified = modified;
+		this.size = size;
+		this.reason = reason;
+		this.failed = failed;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getModified() {
+		return modified;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public String getReason() {
+		return reason;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return True if the file hasn't changed since it couldn't be parsed.
+	 */
+	public boolean matches(long modified, long size) {
+		return this.modified == modified && this.size == size;
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + reason + ")";
+	}
+}
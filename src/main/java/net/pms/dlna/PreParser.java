@@ -0,0 +1,361 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.dlna.AnalysisExecutor.Priority;
+import net.pms.formats.FormatFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses files in the background, before renderers browse them, so that
+ * their children are created from the media cache instead of waiting for
+ * MediaInfo or FFmpeg. The files are parsed by the {@link AnalysisExecutor},
+ * after the pages renderers are waiting for, in this order:
+ * <ol>
+ * <li>the entries of the browsed folder that are not listed yet,</li>
+ * <li>the files of a few folders on each side of the browsed folder,</li>
+ * <li>the files of the whole media library, if enabled.</li>
+ * </ol>
+ * Files of browsed folders are dropped when the queue of the executor is
+ * full, they are parsed when they are browsed instead; the media library
+ * is walked at the pace the queue is emptied.
+ * <p>
+ * Parsed files are stored in the media cache, which is required.
+ */
+public class PreParser {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PreParser.class);
+	private static final int LISTED_FOLDERS = 256;
+
+	// The number of folders listed on each side of the browsed folder
+	private static final int SIBLINGS_WINDOW = 4;
+	private static PreParser instance;
+
+	private final PmsConfiguration configuration;
+	private final AnalysisExecutor executor;
+
+	// The files that are queued, so that they are only queued once
+	private final Set<String> queued = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	// The folders whose files have been queued, with their modification time
+	private final Map<String, Long> listed = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > LISTED_FOLDERS;
+		}
+	};
+
+	// The last browsed folder of every parent whose siblings walk is queued
+	private final Map<DLNAResource, DLNAResource> siblingWalks = new ConcurrentHashMap<>();
+
+	private Thread library;
+
+	public static synchronized PreParser getInstance() {
+		if (instance == null) {
+			instance = new PreParser(PMS.getConfiguration(), AnalysisExecutor.getInstance());
+		}
+
+		return instance;
+	}
+
+	PreParser(PmsConfiguration configuration, AnalysisExecutor executor) {
+		this.configuration = configuration;
+		this.executor = executor;
+	}
+
+	private boolean isEnabled() {
+		return configuration.getUseCache() && configuration.getPreparseQueueSize() > 0 && PMS.get().getDatabase() != null;
+	}
+
+	/**
+	 * Queues the files a renderer is likely to browse after a page of the
+	 * given folder: the rest of the folder, then the folders next to it.
+	 * Doesn't wait for anything: the files are listed in the background, and
+	 * the folders of a parent are walked by a single task at a time.
+	 *
+	 * @param folder The browsed folder.
+	 */
+	void folderBrowsed(final DLNAResource folder) {
+		if (!isEnabled() || !(folder instanceof MapFile)) {
+			return;
+		}
+
+		final String device = folder.getAnalysisDevice();
+		executor.offer(new Runnable() {
+			@Override
+			public void run() {
+				for (File file : ((MapFile) folder).getPendingFiles()) {
+					if (!queue(file, folder, device, Priority.FOLDER)) {
+						break;
+					}
+				}
+			}
+		}, device, Priority.FOLDER);
+
+		final DLNAResource parent = folder.getParent();
+
+		if (parent == null || siblingWalks.put(parent, folder) != null) {
+			// The queued walk will start from this folder
+			return;
+		}
+
+		boolean offered = executor.offer(new Runnable() {
+			@Override
+			public void run() {
+				DLNAResource browsed = siblingWalks.remove(parent);
+
+				if (browsed != null) {
+					queueSiblings(browsed, parent);
+				}
+			}
+		}, device, Priority.SIBLINGS);
+
+		if (!offered) {
+			siblingWalks.remove(parent);
+		}
+	}
+
+	/**
+	 * Queues the files of the folders next to the browsed folder, nearest
+	 * first, until the queue is full.
+	 */
+	private void queueSiblings(DLNAResource folder, DLNAResource parent) {
+		List<DLNAResource> siblings;
+
+		synchronized (parent) {
+			siblings = new ArrayList<>(parent.getChildren());
+		}
+
+		int index = siblings.indexOf(folder);
+
+		if (index < 0) {
+			return;
+		}
+
+		for (int distance = 1; distance <= SIBLINGS_WINDOW; distance++) {
+			for (int i : new int[] {index + distance, index - distance}) {
+				if (i >= 0 && i < siblings.size() && !queueSibling(siblings.get(i))) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues the files of a folder, unless they have been queued already
+	 * since it was last modified.
+	 *
+	 * @return False if the queue is full.
+	 */
+	private boolean queueSibling(DLNAResource sibling) {
+		if (!(sibling instanceof MapFile) || !sibling.isFolder() || !isListingNeeded((MapFile) sibling)) {
+			return true;
+		}
+
+		String device = sibling.getAnalysisDevice();
+
+		for (File file : ((MapFile) sibling).getFileList()) {
+			if (file.isFile() && !file.isHidden() && FormatFactory.getAssociatedFormat(file.getName()) != null) {
+				if (!queue(file, sibling, device, Priority.SIBLINGS)) {
+					forgetListing((MapFile) sibling);
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return False if the files of the folder have been queued already
+	 *         since it was last modified.
+	 */
+	private boolean isListingNeeded(MapFile folder) {
+		List<File> files = folder.getConf().getFiles();
+
+		if (files.isEmpty()) {
+			return false;
+		}
+
+		String key = files.get(0).getAbsolutePath();
+		long modified = DirectoryIndex.getLastModified(files);
+
+		synchronized (listed) {
+			Long previous = listed.put(key, modified);
+			return previous == null || previous != modified;
+		}
+	}
+
+	/**
+	 * Lists the folder again the next time, because its files couldn't all
+	 * be queued.
+	 */
+	private void forgetListing(MapFile folder) {
+		synchronized (listed) {
+			listed.remove(folder.getConf().getFiles().get(0).getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Starts parsing the files of the shared folders in the background, at
+	 * the lowest priority, if enabled. The ignored folders are left out, as
+	 * they are from the root folder.
+	 *
+	 * @param root The root folder, whose renderer the files are parsed for.
+	 */
+	public synchronized void parseLibrary(final RootFolder root) {
+		if (library != null || !configuration.isPreparseLibrary() || !isEnabled()) {
+			return;
+		}
+
+		final List<File> folders = root.getSharedFolders();
+		library = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.currentTimeMillis();
+
+				try {
+					walk(folders, root);
+					LOGGER.debug("Queued the files of the media library in {} seconds", (System.currentTimeMillis() - start) / 1000);
+				} catch (InterruptedException e) {
+					LOGGER.debug("Stopped queuing the files of the media library");
+				}
+			}
+		}, "preparse-library");
+		library.setDaemon(true);
+		library.setPriority(Thread.MIN_PRIORITY);
+		library.start();
+	}
+
+	/**
+	 * Queues the files of the given folders and of their subfolders, waiting
+	 * for room in the queue when it is full. Every folder is walked once,
+	 * however many symbolic links lead to it.
+	 */
+	private void walk(List<File> folders, DLNAResource root) throws InterruptedException {
+		Deque<File> pending = new ArrayDeque<>(folders);
+		Set<String> visited = new HashSet<>();
+
+		while (!pending.isEmpty()) {
+			File folder = pending.poll();
+
+			try {
+				if (!visited.add(folder.getCanonicalPath())) {
+					continue;
+				}
+			} catch (IOException e) {
+				LOGGER.debug("Error while resolving \"{}\": {}", folder.getAbsolutePath(), e.getMessage());
+				continue;
+			}
+
+			File[] files = folder.listFiles();
+
+			if (files == null) {
+				continue;
+			}
+
+			String device = AnalysisExecutor.getDevice(folder);
+
+			for (final File file : files) {
+				if (file.isHidden()) {
+					continue;
+				}
+
+				if (file.isDirectory()) {
+					pending.add(file);
+				} else if (FormatFactory.getAssociatedFormat(file.getName()) != null && queued.add(file.getAbsolutePath())) {
+					executor.put(task(file, root), device, Priority.LIBRARY);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues a file if it isn't queued already.
+	 *
+	 * @return False if the queue is full.
+	 */
+	private boolean queue(File file, DLNAResource parent, String device, Priority priority) {
+		if (!queued.add(file.getAbsolutePath())) {
+			return true;
+		}
+
+		if (!executor.offer(task(file, parent), device, priority)) {
+			queued.remove(file.getAbsolutePath());
+			return false;
+		}
+
+		return true;
+	}
+
+	private Runnable task(final File file, final DLNAResource parent) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				try {
+					parse(file, parent);
+				} finally {
+					queued.remove(file.getAbsolutePath());
+				}
+			}
+		};
+	}
+
+	/**
+	 * Parses a file that isn't in the media cache yet and stores it there.
+	 * The file is parsed once even if a renderer browses it meanwhile (see
+	 * {@link MediaStore#parse(String, long, java.util.concurrent.Callable, long)}).
+	 *
+	 * @param file The file.
+	 * @param parent The folder whose renderer the file is parsed for.
+	 */
+	private void parse(File file, DLNAResource parent) {
+		DLNAMediaDatabase database = PMS.get().getDatabase();
+
+		if (database == null || !file.isFile() || database.isDataExists(file.getAbsolutePath(), file.lastModified())) {
+			return;
+		}
+
+		RealFile resource = new RealFile(file);
+		resource.setParent(parent);
+		resource.setDefaultRenderer(parent.getDefaultRenderer());
+		resource.resolveFormat();
+
+		if (resource.getFormat() != null) {
+			LOGGER.trace("Parsing \"{}\" in the background", file.getAbsolutePath());
+			resource.resolve();
+		}
+	}
+}
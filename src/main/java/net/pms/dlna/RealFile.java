@@ -20,7 +20,10 @@ package net.pms.dlna;
 
 import com.sun.jna.Platform;
 import java.io.*;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import net.pms.PMS;
 import net.pms.configuration.PmsConfiguration;
 import net.pms.formats.Format;
@@ -37,6 +40,9 @@ public class RealFile extends MapFile {
 
 	private boolean useSuperThumb;
 
+	// Media information loaded from the database with the other files of the folder
+	private DLNAMediaInfo cachedMedia;
+
 	public RealFile(File file) {
 		getConf().getFiles().add(file);
 		setLastModified(file.lastModified());
@@ -50,8 +56,17 @@ public class RealFile extends MapFile {
 		useSuperThumb = false;
 	}
 
+	/**
+	 * Sets the media information that was loaded from the database for this
+	 * file, so that it isn't looked up again when the file is resolved.
+	 *
+	 * @see DLNAMediaDatabase#getData(java.util.List)
+	 */
+	void setCachedMedia(DLNAMediaInfo media) {
+		cachedMedia = media;
+	}
+
 	@Override
-	// FIXME: this is called repeatedly for invalid files e.g. files MediaInfo can't parse
 	public boolean isValid() {
 		File file = this.getFile();
 		resolveFormat();
@@ -61,11 +76,26 @@ public class RealFile extends MapFile {
 
 		boolean valid = file.exists() && (getFormat() != null || file.isDirectory());
 
-		if (valid && getParent().getDefaultRenderer() != null && getParent().getDefaultRenderer().isMediaParserV2()) {
+		// Files before the browsed page of a large folder are resolved when their own page is browsed
+		boolean deferred = getParent() instanceof MapFile && ((MapFile) getParent()).isResolutionDeferred();
+
+		if (valid && !deferred && getParent().getDefaultRenderer() != null && getParent().getDefaultRenderer().isMediaParserV2()) {
+			// Files that couldn't be parsed are hidden without being parsed again until they change
+			DLNAMediaDatabase database = configuration.getUseCache() && file.isFile() ? PMS.get().getDatabase() : null;
+
+			if (database != null) {
+				ParseFailure failure = database.getParseFailure(file.getAbsolutePath(), file.lastModified(), file.length());
+
+				if (failure != null) {
+					LOGGER.trace("Hiding {}, which could not be parsed: {}", file.getAbsolutePath(), failure.getReason());
+					return false;
+				}
+			}
+
 			// we need to resolve the DLNA resource now
 			run();
 
-			if (getMedia() != null && getMedia().getThumb() == null && getType() != Format.AUDIO) { // MediaInfo retrieves cover art now
+			if (getMedia() != null && !getMedia().hasThumb() && getType() != Format.AUDIO) { // MediaInfo retrieves cover art now
 				getMedia().setThumbready(false);
 			}
 
@@ -74,15 +104,26 @@ public class RealFile extends MapFile {
 			//    known types    + bad parse = bad/encrypted file
 			if (getType() != Format.UNKNOWN && getMedia() != null && (getMedia().isEncrypted() || getMedia().getContainer() == null || getMedia().getContainer().equals(DLNAMediaLang.UND))) {
 				valid = false;
+				String reason;
+
 				if (getMedia().isEncrypted()) {
 					LOGGER.info("The file {} is encrypted. It will be hidden", file.getAbsolutePath());
+					reason = ParseFailure.ENCRYPTED;
 				} else {
 					LOGGER.info("The file {} could not be parsed. It will be hidden", file.getAbsolutePath());
+					reason = ParseFailure.UNKNOWN_CONTAINER;
+				}
+
+				if (database != null && getMedia().isMediaparsed()) {
+					database.addParseFailure(new ParseFailure(file.getAbsolutePath(), file.lastModified(), file.length(), reason, System.currentTimeMillis()));
 				}
+			} else if (database != null) {
+				// The file may have failed before it was changed
+				database.removeParseFailure(file.getAbsolutePath());
 			}
 
 			// XXX isMediaParserV2ThumbnailGeneration is only true for the "default renderer"
-			if (getParent().getDefaultRenderer().isMediaParserV2ThumbnailGeneration()) {
+			if (valid && getParent().getDefaultRenderer().isMediaParserV2ThumbnailGeneration()) {
 				checkThumbnail();
 			}
 		}
@@ -161,18 +202,32 @@ public class RealFile extends MapFile {
 		File file = getFile();
 		if (file.isFile() && (getMedia() == null || !getMedia().isMediaparsed())) {
 			boolean found = false;
-			InputFile input = new InputFile();
+			final InputFile input = new InputFile();
 			input.setFile(file);
 			String fileName = file.getAbsolutePath();
 			if (getSplitTrack() > 0) {
 				fileName += "#SplitTrack" + getSplitTrack();
 			}
 
-			if (configuration.getUseCache()) {
+			// Reuse the media information of the same file in the tree of another renderer
+			final MediaStore store = MediaStore.getInstance();
+			final long lastModified = file.lastModified();
+			DLNAMediaInfo shared = store.get(fileName, lastModified);
+
+			if (shared != null) {
+				setMedia(shared);
+				return;
+			}
+
+			if (cachedMedia != null && getSplitTrack() == 0 && lastModified == getLastModified()) {
+				setMedia(cachedMedia);
+				getMedia().finalize(getType(), input);
+				found = true;
+			} else if (configuration.getUseCache()) {
 				DLNAMediaDatabase database = PMS.get().getDatabase();
 
 				if (database != null) {
-					ArrayList<DLNAMediaInfo> medias = database.getData(fileName, file.lastModified());
+					ArrayList<DLNAMediaInfo> medias = database.getData(fileName, lastModified);
 
 					if (medias != null && medias.size() == 1) {
 						setMedia(medias.get(0));
@@ -182,29 +237,62 @@ public class RealFile extends MapFile {
 				}
 			}
 
+			cachedMedia = null;
+
 			if (!found) {
-				if (getMedia() == null) {
+				// Parse the file once, even if other renderers need it at the same time
+				final String parsedName = fileName;
+				DLNAMediaInfo parsed = store.parse(fileName, lastModified, new Callable<DLNAMediaInfo>() {
+					@Override
+					public DLNAMediaInfo call() {
+						parseMedia(input, parsedName, lastModified, store);
+						return getMedia();
+					}
+				}, TimeUnit.SECONDS.toMillis(configuration.getParseTimeout()));
+
+				if (parsed != null) {
+					setMedia(parsed);
+				} else if (getMedia() == null) {
+					// Left unparsed, it will be parsed the next time it is resolved
 					setMedia(new DLNAMediaInfo());
 				}
+			}
 
-				found = !getMedia().isMediaparsed() && !getMedia().isParsing();
+			if (getMedia().isMediaparsed()) {
+				store.put(fileName, lastModified, getMedia());
+			}
+		}
+	}
 
-				if (getFormat() != null) {
-					getFormat().parse(getMedia(), input, getType(), getParent().getDefaultRenderer());
-				} else {
-					// Don't think that will ever happen
-					getMedia().parse(input, getFormat(), getType(), false, isResume());
-				}
+	/**
+	 * Parses the file and stores its media information in the media cache
+	 * and in the media store.
+	 */
+	private void parseMedia(InputFile input, String fileName, long lastModified, MediaStore store) {
+		if (getMedia() == null) {
+			setMedia(new DLNAMediaInfo());
+		}
 
-				if (found && configuration.getUseCache()) {
-					DLNAMediaDatabase database = PMS.get().getDatabase();
+		boolean found = !getMedia().isMediaparsed() && !getMedia().isParsing();
 
-					if (database != null) {
-						database.insertData(fileName, file.lastModified(), getType(), getMedia());
-					}
-				}
+		if (getFormat() != null) {
+			getFormat().parse(getMedia(), input, getType(), getParent().getDefaultRenderer());
+		} else {
+			// Don't think that will ever happen
+			getMedia().parse(input, getFormat(), getType(), false, isResume());
+		}
+
+		if (found && configuration.getUseCache()) {
+			DLNAMediaDatabase database = PMS.get().getDatabase();
+
+			if (database != null) {
+				database.insertData(fileName, lastModified, getType(), getMedia());
 			}
 		}
+
+		if (getMedia().isMediaparsed()) {
+			store.put(fileName, lastModified, getMedia());
+		}
 	}
 
 	@Override
@@ -214,6 +302,11 @@ public class RealFile extends MapFile {
 
 	@Override
 	public InputStream getThumbnailInputStream() throws IOException {
+		return getThumbnailInputStream(null);
+	}
+
+	@Override
+	public InputStream getThumbnailInputStream(ThumbnailSize size) throws IOException {
 		if (useSuperThumb || getParent() instanceof FileTranscodeVirtualFolder && (getMediaSubtitle() != null || getMediaAudio() != null)) {
 			return super.getThumbnailInputStream();
 		}
@@ -271,15 +364,33 @@ public class RealFile extends MapFile {
 			}
 		}
 
-		boolean hasAlreadyEmbeddedCoverArt = getType() == Format.AUDIO && getMedia() != null && getMedia().getThumb() != null;
+		boolean hasAlreadyEmbeddedCoverArt = getType() == Format.AUDIO && getMedia() != null && getMedia().hasThumb();
 
 		if (cachedThumbnail != null && (!hasAlreadyEmbeddedCoverArt || file.isDirectory())) {
+			if (size != null) {
+				String hash = ThumbnailStore.getInstance().putFile(cachedThumbnail);
+
+				if (hash != null) {
+					InputStream stream = ThumbnailStore.getInstance().getInputStream(hash, size);
+
+					if (stream != null) {
+						return stream;
+					}
+				}
+
+				return new ByteArrayInputStream(ThumbnailScaler.scale(Files.readAllBytes(cachedThumbnail.toPath()), size));
+			}
+
 			return new FileInputStream(cachedThumbnail);
-		} else if (getMedia() != null && getMedia().getThumb() != null) {
-			return getMedia().getThumbnailInputStream();
-		} else {
-			return super.getThumbnailInputStream();
+		} else if (getMedia() != null && getMedia().hasThumb()) {
+			InputStream stream = getMedia().getThumbnailInputStream(size);
+
+			if (stream != null) {
+				return stream;
+			}
 		}
+
+		return super.getThumbnailInputStream();
 	}
 
 	@Override
@@ -297,7 +408,7 @@ public class RealFile extends MapFile {
 		StringBuilder sb = new StringBuilder();
 		sb.append(PMS.get().getServer().getURL());
 		sb.append("/");
-		if (getMedia() != null && getMedia().getThumb() != null) {
+		if (getMedia() != null && getMedia().hasThumb()) {
 			return super.getThumbnailURL();
 		} else if (getType() == Format.AUDIO) {
 			if (getParent() != null && getParent() instanceof RealFile && ((RealFile) getParent()).getPotentialCover() != null) {
@@ -0,0 +1,91 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the resource IDs of a tree (e.g. "0$1$5$3") to the resources that
+ * were materialized with them, so that they can be found without walking
+ * the tree. Resources are weakly referenced: the index never keeps a
+ * resource that was removed from the tree alive.
+ * <p>
+ * The index is a cache, not the source of truth: callers must check that a
+ * resource it returns is still attached to the tree under the same ID (see
+ * {@link DLNAResource#getDLNAResources(String, boolean, int, int,
+ * net.pms.configuration.RendererConfiguration, String)}).
+ */
+class ResourceIndex {
+	private final ConcurrentHashMap<String, ResourceReference> resources = new ConcurrentHashMap<>();
+	private final ReferenceQueue<DLNAResource> collected = new ReferenceQueue<>();
+
+	private static class ResourceReference extends WeakReference<DLNAResource> {
+		private final String id;
+
+		ResourceReference(String id, DLNAResource resource, ReferenceQueue<DLNAResource> queue) {
+			super(resource, queue);
+			this.id = id;
+		}
+	}
+
+	/**
+	 * @param id The resource ID.
+	 * @return The resource that was indexed with this ID, or null.
+	 */
+	DLNAResource get(String id) {
+		ResourceReference reference = resources.get(id);
+		return reference != null ? reference.get() : null;
+	}
+
+	void put(String id, DLNAResource resource) {
+		purge();
+		resources.put(id, new ResourceReference(id, resource, collected));
+	}
+
+	/**
+	 * Removes the ID from the index if it is still mapped to the given resource.
+	 */
+	void remove(String id, DLNAResource resource) {
+		ResourceReference reference = resources.get(id);
+
+		if (reference != null && reference.get() == resource) {
+			resources.remove(id, reference);
+		}
+	}
+
+	int size() {
+		purge();
+		return resources.size();
+	}
+
+	/**
+	 * Drops the entries of resources that have been garbage collected.
+	 */
+	private void purge() {
+		Reference<? extends DLNAResource> reference;
+
+		while ((reference = collected.poll()) != null) {
+			ResourceReference resourceReference = (ResourceReference) reference;
+			resources.remove(resourceReference.id, resourceReference);
+		}
+	}
+}
@@ -55,8 +55,10 @@ import xmlwise.XmlParseException;
 public class RootFolder extends DLNAResource {
 	private static final Logger LOGGER = LoggerFactory.getLogger(RootFolder.class);
 	private static final PmsConfiguration configuration = PMS.getConfiguration();
-	private boolean running;
+	private volatile boolean running;
 	private FolderLimit lim;
+	private LibrarySearchFolder librarySearch;
+	private long librarySearchGeneration;
 	private MediaMonitor mon;
 	private RecentlyPlayed last;
 	private ArrayList<String> tags;
@@ -196,11 +198,11 @@ public class RootFolder extends DLNAResource {
 		}
 
 		setDefaultRenderer(RendererConfiguration.getDefaultConf());
-		scan(this);
+		new LibraryScanner(this, configuration.getScanThreads(), configuration.getScanThreadsPerDevice()).scan(this);
 		IFrame frame = PMS.get().getFrame();
 		frame.setScanLibraryEnabled(true);
-		PMS.get().getDatabase().cleanup();
 		frame.setStatusLine(null);
+		PMS.get().getDatabase().cleanupInBackground();
 	}
 
 	/*
@@ -215,48 +217,71 @@ public class RootFolder extends DLNAResource {
 		running = false;
 	}
 
-	private void scan(DLNAResource resource) {
-		if (running) {
-			for (DLNAResource child : resource.getChildren()) {
-				if (running && child.allowScan()) {
-					child.setDefaultRenderer(resource.getDefaultRenderer());
-					String trace = null;
+	/**
+	 * @return True while the media library is being scanned.
+	 */
+	public boolean isScanRunning() {
+		return running;
+	}
 
-					if (child instanceof RealFile) {
-						trace = Messages.getString("DLNAMediaDatabase.4") + " " + child.getName();
-					}
+	private List<RealFile> getConfiguredFolders(ArrayList<String> tags) {
+		List<RealFile> res = new ArrayList<>();
 
-					if (trace != null) {
-						LOGGER.debug(trace);
-						PMS.get().getFrame().setStatusLine(trace);
-					}
+		for (File f : getSharedFolders(tags)) {
+			res.add(new RealFile(f));
+		}
 
-					if (child.isDiscovered()) {
-						child.refreshChildren();
-					} else {
-						if (child instanceof DVDISOFile || child instanceof DVDISOTitle) { // ugly hack
-							child.resolve();
-						}
-						child.discoverChildren();
-						child.analyzeChildren(-1);
-						child.setDiscovered(true);
-					}
+		if (configuration.getSearchFolder()) {
+			SearchFolder sf = new SearchFolder(Messages.getString("PMS.143"), new FileSearch(res));
+			addChild(sf);
+		}
 
-					int count = child.getChildren().size();
+		return res;
+	}
 
-					if (count == 0) {
-						continue;
-					}
+	/**
+	 * Returns the container of the results of a search of the whole media
+	 * library. It isn't listed among the children of the root, but its
+	 * results can be browsed and played by their IDs. The container of the
+	 * last search is reused while the media library doesn't change, so that
+	 * renderers can page through the results.
+	 *
+	 * @param queries The alternative words to search for: files matching any
+	 *                of them are found.
+	 * @param type The type of the files to search for (see {@link Format}),
+	 *             or 0 for all types.
+	 * @return The container, or null if the media library can't be searched.
+	 */
+	public synchronized LibrarySearchFolder getLibrarySearch(List<String> queries, int type) {
+		DLNAMediaDatabase database = PMS.get().getDatabase();
 
-					scan(child);
-					child.getChildren().clear();
-				}
-			}
+		if (database == null || !database.isSearchable()) {
+			return null;
+		}
+
+		long generation = database.getGeneration();
+
+		if (librarySearch == null || !librarySearch.isSearchOf(queries, type) || librarySearchGeneration != generation) {
+			librarySearch = new LibrarySearchFolder(Messages.getString("PMS.144"), queries, type);
+			librarySearchGeneration = generation;
+			addHiddenChild(librarySearch);
 		}
+
+		return librarySearch;
 	}
 
-	private List<RealFile> getConfiguredFolders(ArrayList<String> tags) {
-		List<RealFile> res = new ArrayList<>();
+	/**
+	 * Returns the shared folders of this root, without the ignored ones.
+	 *
+	 * @return The folders, or the roots of the file system if no folder is
+	 *         shared.
+	 */
+	List<File> getSharedFolders() {
+		return getSharedFolders(tags);
+	}
+
+	private List<File> getSharedFolders(ArrayList<String> tags) {
+		List<File> res = new ArrayList<>();
 		File[] files = PMS.get().getSharedFoldersArray(false, tags);
 		String s = PMS.getConfiguration().getFoldersIgnored(tags);
 		String[] skips = null;
@@ -273,12 +298,7 @@ public class RootFolder extends DLNAResource {
 			if (skipPath(skips, f.getAbsolutePath().toLowerCase())) {
 				continue;
 			}
-			res.add(new RealFile(f));
-		}
-
-		if (configuration.getSearchFolder()) {
-			SearchFolder sf = new SearchFolder(Messages.getString("PMS.143"), new FileSearch(res));
-			addChild(sf);
+			res.add(f);
 		}
 
 		return res;
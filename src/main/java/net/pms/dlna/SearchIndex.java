@@ -0,0 +1,238 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory inverted index of the entries of the media database, used to
+ * search the whole library without walking folders or querying every file.
+ * <p>
+ * The words of the name of every file and of the album, artist, title and
+ * genre of its audio tracks are indexed. A query matches the files that have,
+ * for every word of the query, a word that starts with it: "beat abb" finds
+ * the tracks of "Abbey Road" by The Beatles. Words are compared without case.
+ */
+class SearchIndex {
+	private static class Document {
+		final String name;
+		final long modified;
+		final int type;
+		final String[] words;
+
+		Document(String name, long modified, int type, String[] words) {
+			this.name = name;
+			this.modified = modified;
+			this.type = type;
+			this.words = words;
+		}
+	}
+
+	private final Map<String, Document> documents = new HashMap<>();
+	private final TreeMap<String, Set<Document>> words = new TreeMap<>();
+
+	/**
+	 * @return The lowercase words of a text, in order, without duplicates.
+	 */
+	static Set<String> getWords(String text) {
+		Set<String> result = new LinkedHashSet<>();
+
+		if (text == null) {
+			return result;
+		}
+
+		int start = -1;
+
+		for (int i = 0; i <= text.length(); i++) {
+			boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+
+			if (letter && start < 0) {
+				start = i;
+			} else if (!letter && start >= 0) {
+				result.add(text.substring(start, i).toLowerCase());
+				start = -1;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Indexes a file, replacing its previous entry if any.
+	 *
+	 * @param name The name of the file in the database.
+	 * @param modified The modification time of the file.
+	 * @param type The type of the file (see {@link net.pms.formats.Format}).
+	 * @param texts The texts the file can be found by.
+	 */
+	synchronized void add(String name, long modified, int type, Collection<String> texts) {
+		Set<String> fileWords = new HashSet<>();
+
+		for (String text : texts) {
+			fileWords.addAll(getWords(text));
+		}
+
+		remove(documents.get(name));
+		Document document = new Document(name, modified, type, fileWords.toArray(new String[fileWords.size()]));
+		documents.put(name, document);
+
+		for (String word : document.words) {
+			Set<Document> postings = words.get(word);
+
+			if (postings == null) {
+				postings = new HashSet<>();
+				words.put(word, postings);
+			}
+
+			postings.add(document);
+		}
+	}
+
+	/**
+	 * Removes the entry of a file, if it has the given modification time.
+	 */
+	synchronized void remove(String name, long modified) {
+		Document document = documents.get(name);
+
+		if (document != null && document.modified == modified) {
+			remove(document);
+		}
+	}
+
+	private void remove(Document document) {
+		if (document == null) {
+			return;
+		}
+
+		documents.remove(document.name);
+
+		for (String word : document.words) {
+			Set<Document> postings = words.get(word);
+
+			if (postings != null) {
+				postings.remove(document);
+
+				if (postings.isEmpty()) {
+					words.remove(word);
+				}
+			}
+		}
+	}
+
+	synchronized void clear() {
+		documents.clear();
+		words.clear();
+	}
+
+	synchronized int size() {
+		return documents.size();
+	}
+
+	/**
+	 * @param query The words to search for.
+	 * @param type The type of the files to search for, or 0 for all types.
+	 * @return The names of the matching files, sorted without case.
+	 */
+	synchronized List<String> search(String query, int type) {
+		Set<String> queryWords = getWords(query);
+		Collection<Document> matches = null;
+
+		if (queryWords.isEmpty()) {
+			if (type == 0) {
+				return Collections.emptyList();
+			}
+
+			matches = documents.values();
+		}
+
+		// Intersect the documents matching each word, smallest first
+		List<Set<Document>> candidates = new ArrayList<>();
+
+		for (String word : queryWords) {
+			SortedMap<String, Set<Document>> prefixed = words.subMap(word, word + Character.MAX_VALUE);
+			Set<Document> wordMatches;
+
+			if (prefixed.size() == 1) {
+				wordMatches = prefixed.values().iterator().next();
+			} else {
+				wordMatches = new HashSet<>();
+
+				for (Set<Document> postings : prefixed.values()) {
+					wordMatches.addAll(postings);
+				}
+			}
+
+			if (wordMatches.isEmpty()) {
+				return Collections.emptyList();
+			}
+
+			candidates.add(wordMatches);
+		}
+
+		if (!candidates.isEmpty()) {
+			Set<Document> smallest = candidates.get(0);
+
+			for (Set<Document> candidate : candidates) {
+				if (candidate.size() < smallest.size()) {
+					smallest = candidate;
+				}
+			}
+
+			List<Document> intersection = new ArrayList<>();
+
+			for (Document document : smallest) {
+				boolean all = true;
+
+				for (Set<Document> candidate : candidates) {
+					if (candidate != smallest && !candidate.contains(document)) {
+						all = false;
+						break;
+					}
+				}
+
+				if (all) {
+					intersection.add(document);
+				}
+			}
+
+			matches = intersection;
+		}
+
+		List<String> names = new ArrayList<>();
+
+		for (Document document : matches) {
+			if (type == 0 || document.type == type) {
+				names.add(document.name);
+			}
+		}
+
+		Collections.sort(names, String.CASE_INSENSITIVE_ORDER);
+		return names;
+	}
+}
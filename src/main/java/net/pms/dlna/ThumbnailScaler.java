@@ -0,0 +1,141 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import net.coobird.thumbnailator.Thumbnails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scales thumbnails down to the standard {@link ThumbnailSize}s. A new
+ * thumbnail is decoded once for all the sizes it is too big for, a missing
+ * copy is made for its own size only; the sizes a thumbnail fits in use the
+ * thumbnail as it is.
+ */
+final class ThumbnailScaler {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThumbnailScaler.class);
+
+	private ThumbnailScaler() {
+	}
+
+	/**
+	 * Reads the dimensions of an image from its header, without decoding it.
+	 *
+	 * @return The dimensions, or null if the image can't be read.
+	 */
+	static Dimension getDimension(byte[] data) {
+		try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+			if (in == null) {
+				return null;
+			}
+
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+
+			if (!readers.hasNext()) {
+				return null;
+			}
+
+			ImageReader reader = readers.next();
+
+			try {
+				reader.setInput(in, true, true);
+				return new Dimension(reader.getWidth(0), reader.getHeight(0));
+			} finally {
+				reader.dispose();
+			}
+		} catch (IOException | RuntimeException e) {
+			LOGGER.trace("Could not read the dimensions of a thumbnail: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @return The thumbnail scaled down to the given size, or the thumbnail
+	 *         itself if it fits in it or can't be scaled.
+	 */
+	static byte[] scale(byte[] data, ThumbnailSize size) {
+		Dimension dimension = getDimension(data);
+
+		if (dimension == null || size.fits(dimension.width, dimension.height)) {
+			return data;
+		}
+
+		try {
+			BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+			return image != null ? scale(image, size) : data;
+		} catch (IOException | RuntimeException e) {
+			LOGGER.debug("Could not scale a thumbnail: {}", e.getMessage());
+			return data;
+		}
+	}
+
+	/**
+	 * Decodes a thumbnail once and scales it down to all the sizes it is
+	 * too big for.
+	 *
+	 * @return The scaled thumbnails, by size. The sizes the thumbnail fits
+	 *         in are left out.
+	 */
+	static Map<ThumbnailSize, byte[]> scaleAll(byte[] data) {
+		Map<ThumbnailSize, byte[]> scaled = new EnumMap<>(ThumbnailSize.class);
+
+		try {
+			BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+
+			if (image == null) {
+				return scaled;
+			}
+
+			for (ThumbnailSize size : ThumbnailSize.values()) {
+				if (!size.fits(image.getWidth(), image.getHeight())) {
+					scaled.put(size, scale(image, size));
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			LOGGER.debug("Could not scale a thumbnail: {}", e.getMessage());
+		}
+
+		return scaled;
+	}
+
+	/**
+	 * @return A decoded thumbnail scaled down to the given size, as a JPEG.
+	 */
+	private static byte[] scale(BufferedImage image, ThumbnailSize size) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Thumbnails.of(image)
+			.size(size.getWidth(), size.getHeight())
+			.imageType(BufferedImage.TYPE_INT_RGB)
+			.outputFormat("JPEG")
+			.outputQuality(0.9f)
+			.toOutputStream(out);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server-wide service that generates the thumbnails requested by renderers,
+ * instead of every request starting its own FFmpeg or MPlayer process:
+ * <ul>
+ * <li>thumbnails are generated by a fixed number of worker threads, the
+ * most recent requests first, since they are the ones on screen when a
+ * renderer scrolls through a folder,</li>
+ * <li>concurrent requests for the thumbnail of the same file share a single
+ * generation, and the last generated thumbnails are kept for the requests
+ * that arrive just after,</li>
+ * <li>requests wait for their thumbnail for a short time only; a
+ * placeholder is sent when it isn't ready yet, and the thumbnail is sent
+ * the next time it is requested,</li>
+ * <li>the processes that hang are stopped by a single timeout scheduler
+ * instead of a thread per process.</li>
+ * </ul>
+ */
+class ThumbnailService {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThumbnailService.class);
+	private static final int RECENT_THUMBNAILS = 128;
+	private static ThumbnailService instance;
+
+	private final ThreadPoolExecutor workers;
+	private final ScheduledThreadPoolExecutor timeouts;
+
+	// The thumbnails being generated, by key
+	private final ConcurrentHashMap<String, FutureTask<byte[]>> pending = new ConcurrentHashMap<>();
+
+	// The last generated thumbnails, by key
+	private final Map<String, byte[]> recent = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+			return size() > RECENT_THUMBNAILS;
+		}
+	};
+
+	static synchronized ThumbnailService getInstance() {
+		if (instance == null) {
+			PmsConfiguration configuration = PMS.getConfiguration();
+			instance = new ThumbnailService(configuration != null ? configuration.getThumbnailThreads() : 2);
+		}
+
+		return instance;
+	}
+
+	/**
+	 * @param threads The number of thumbnails generated at once.
+	 */
+	ThumbnailService(int threads) {
+		// Last in, first out: the most recent requests are generated first
+		BlockingQueue<Runnable> queue = new LinkedBlockingDeque<Runnable>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public boolean offer(Runnable task) {
+				return offerFirst(task);
+			}
+		};
+
+		workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue, new ThreadFactory() {
+			int counter = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "thumbnailer-" + (counter++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		workers.allowCoreThreadTimeOut(true);
+
+		timeouts = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Thumbnail Timeouts");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		timeouts.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Generates a thumbnail in the background and waits for it for at most
+	 * the given time. The generator is only run if the thumbnail with the
+	 * same key isn't being generated already.
+	 *
+	 * @param key The key of the thumbnail, e.g. the name, modification time
+	 *            and seek position of the file.
+	 * @param generator The generator of the thumbnail, which returns null if
+	 *                  there is none.
+	 * @param wait How long to wait for the thumbnail, in milliseconds.
+	 * @return The thumbnail, or null if it isn't ready yet or couldn't be
+	 *         generated.
+	 */
+	byte[] generate(final String key, Callable<byte[]> generator, long wait) {
+		synchronized (recent) {
+			byte[] thumb = recent.get(key);
+
+			if (thumb != null) {
+				return thumb;
+			}
+		}
+
+		FutureTask<byte[]> task = new FutureTask<byte[]>(generator) {
+			@Override
+			protected void done() {
+				finished(key, this);
+			}
+		};
+		FutureTask<byte[]> running = pending.putIfAbsent(key, task);
+
+		if (running == null) {
+			running = task;
+			workers.execute(task);
+		}
+
+		try {
+			return running.get(wait, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			LOGGER.trace("The thumbnail of \"{}\" is still being generated", key);
+		} catch (ExecutionException e) {
+			LOGGER.debug("Error while generating the thumbnail of \"{}\"", key, e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return True if the thumbnail with the given key is being generated.
+	 */
+	boolean isPending(String key) {
+		return pending.containsKey(key);
+	}
+
+	private void finished(String key, FutureTask<byte[]> task) {
+		try {
+			byte[] thumb = task.get();
+
+			if (thumb != null) {
+				synchronized (recent) {
+					recent.put(key, thumb);
+				}
+			}
+		} catch (ExecutionException | CancellationException e) {
+			// Logged by the waiting requests
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pending.remove(key, task);
+		}
+	}
+
+	/**
+	 * Schedules the stop of a process that may hang.
+	 *
+	 * @param stop Stops the process.
+	 * @param delay The delay before the process is stopped, in milliseconds.
+	 * @return The scheduled stop, to be cancelled when the process ends.
+	 */
+	ScheduledFuture<?> scheduleTimeout(Runnable stop, long delay) {
+		return timeouts.schedule(stop, delay, TimeUnit.MILLISECONDS);
+	}
+}
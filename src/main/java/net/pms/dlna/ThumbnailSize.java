@@ -0,0 +1,99 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+/**
+ * The standard sizes of the thumbnails sent to renderers, after the DLNA
+ * image profiles. Thumbnails are scaled down to fit in the size requested
+ * by the renderer, and never scaled up.
+ */
+public enum ThumbnailSize {
+	/** At most 160x160 pixels, for lists and grids. */
+	TN("JPEG_TN", 160, 160),
+	/** At most 640x480 pixels. */
+	SM("JPEG_SM", 640, 480);
+
+	/**
+	 * The prefix of the URLs of thumbnails, followed by the name of the resource.
+	 */
+	public static final String URL_PREFIX = "thumbnail0000";
+
+	private final String profile;
+	private final int width;
+	private final int height;
+
+	private ThumbnailSize(String profile, int width, int height) {
+		this.profile = profile;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * @return The DLNA profile of the size.
+	 */
+	public String getProfile() {
+		return profile;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return The prefix of the URLs of the thumbnails of this size, e.g.
+	 *         "thumbnail0160" (see {@link #URL_PREFIX}).
+	 */
+	public String getURLPrefix() {
+		return String.format("thumbnail%04d", width);
+	}
+
+	/**
+	 * @return True if the image fits in this size.
+	 */
+	public boolean fits(int imageWidth, int imageHeight) {
+		return imageWidth <= width && imageHeight <= height;
+	}
+
+	/**
+	 * @param fileName The last part of the path of a request.
+	 * @return True if it is the URL of a thumbnail, of any size.
+	 */
+	public static boolean isThumbnail(String fileName) {
+		return fileName.startsWith(URL_PREFIX) || fromFileName(fileName) != null;
+	}
+
+	/**
+	 * @param fileName The last part of the path of a request.
+	 * @return The size of the requested thumbnail, or null if it isn't the
+	 *         URL of a thumbnail of a given size.
+	 */
+	public static ThumbnailSize fromFileName(String fileName) {
+		for (ThumbnailSize size : values()) {
+			if (fileName.startsWith(size.getURLPrefix())) {
+				return size;
+			}
+		}
+
+		return null;
+	}
+}
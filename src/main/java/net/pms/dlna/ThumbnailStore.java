@@ -0,0 +1,441 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the thumbnails of the media database as files named after the
+ * SHA-1 of their content, in 256 subfolders of the "thumbnails" folder of
+ * the data directory. The database only keeps the hash of a thumbnail (see
+ * {@link DLNAMediaInfo#getThumbHash()}), and identical thumbnails (e.g. the
+ * cover art of all the tracks of an album) are stored once. The copies of
+ * a thumbnail scaled down to the {@link ThumbnailSize}s are stored next to
+ * it, with the size as extension.
+ * <p>
+ * The most recently used thumbnails are kept in memory, up to a given
+ * number of bytes. The store itself is limited in size: when it grows too
+ * big, the least recently used thumbnails are deleted, and they are
+ * generated again the next time their files are browsed.
+ */
+public class ThumbnailStore {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThumbnailStore.class);
+	private static ThumbnailStore instance;
+
+	private final File dir;
+	private final long maxSize;
+	private final long maxMemorySize;
+
+	// Guarded by memory
+	private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+	private long memorySize;
+
+	// The hashes of the stored image files, by path and modification time
+	private static final int MAX_STORED_FILES = 1000;
+	private final LinkedHashMap<String, String> storedFiles = new LinkedHashMap<String, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_STORED_FILES;
+		}
+	};
+
+	// -1 until the store has been measured
+	private final AtomicLong size = new AtomicLong(-1);
+	private final AtomicBoolean pruning = new AtomicBoolean();
+
+	public static synchronized ThumbnailStore getInstance() {
+		if (instance == null) {
+			PmsConfiguration configuration = PMS.getConfiguration();
+			instance = new ThumbnailStore(
+				new File(configuration.getDataFile("thumbnails")),
+				configuration.getThumbnailStoreSize() * 1024L * 1024L,
+				configuration.getThumbnailMemorySize() * 1024L * 1024L
+			);
+		}
+
+		return instance;
+	}
+
+	/**
+	 * @param dir The folder of the thumbnails.
+	 * @param maxSize The maximum size of the store, in bytes.
+	 * @param maxMemorySize The maximum size of the thumbnails kept in memory,
+	 *                      in bytes.
+	 */
+	public ThumbnailStore(File dir, long maxSize, long maxMemorySize) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+		this.maxMemorySize = maxMemorySize;
+		prune();
+	}
+
+	/**
+	 * Stores a thumbnail, and its copies scaled down to the standard
+	 * {@link ThumbnailSize}s it is too big for.
+	 *
+	 * @param data The content of the thumbnail.
+	 * @return The hash of the thumbnail, or null if there was nothing to
+	 *         store or it couldn't be stored.
+	 */
+	public String put(byte[] data) {
+		return put(data, true);
+	}
+
+	/**
+	 * Stores a thumbnail.
+	 *
+	 * @param data The content of the thumbnail.
+	 * @param scale Whether to store its scaled copies at once, instead of
+	 *              when they are first requested.
+	 * @return The hash of the thumbnail, or null if there was nothing to
+	 *         store or it couldn't be stored.
+	 */
+	String put(byte[] data, boolean scale) {
+		if (data == null || data.length == 0) {
+			return null;
+		}
+
+		String hash = DigestUtils.sha1Hex(data);
+		File file = getFile(hash);
+
+		if (file.exists()) {
+			touch(file);
+		} else {
+			if (!write(file, data)) {
+				return null;
+			}
+
+			if (scale) {
+				for (Map.Entry<ThumbnailSize, byte[]> scaled : ThumbnailScaler.scaleAll(data).entrySet()) {
+					write(getFile(hash, scaled.getKey()), scaled.getValue());
+				}
+			}
+		}
+
+		remember(hash, data);
+		return hash;
+	}
+
+	/**
+	 * Stores an image file, e.g. a cover art or folder image, as a thumbnail
+	 * with its scaled copies. The file is only read again when it has been
+	 * modified.
+	 *
+	 * @param file The image file.
+	 * @return The hash of the thumbnail, or null if the file couldn't be
+	 *         read or stored.
+	 */
+	public String putFile(File file) {
+		String key = file.getAbsolutePath() + "|" + file.lastModified();
+		String hash;
+
+		synchronized (storedFiles) {
+			hash = storedFiles.get(key);
+		}
+
+		if (hash != null && contains(hash)) {
+			return hash;
+		}
+
+		try {
+			hash = put(Files.readAllBytes(file.toPath()));
+		} catch (IOException e) {
+			LOGGER.debug("Could not read the thumbnail {}: {}", file.getAbsolutePath(), e.getMessage());
+			return null;
+		}
+
+		if (hash != null) {
+			synchronized (storedFiles) {
+				storedFiles.put(key, hash);
+			}
+		}
+
+		return hash;
+	}
+
+	/**
+	 * Writes a file of the store through a temporary file, so that a
+	 * thumbnail is never read half written.
+	 *
+	 * @return True if the file has been written.
+	 */
+	private boolean write(File file, byte[] data) {
+		File temp = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+
+		try {
+			Files.createDirectories(file.getParentFile().toPath());
+			Files.write(temp.toPath(), data);
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			LOGGER.debug("Could not store the thumbnail {}: {}", file.getName(), e.getMessage());
+			temp.delete();
+			return false;
+		}
+
+		if (size.get() >= 0 && size.addAndGet(data.length) > maxSize) {
+			prune();
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param hash The hash of the thumbnail.
+	 * @return The content of the thumbnail, or null if it isn't stored.
+	 */
+	public byte[] get(String hash) {
+		byte[] data = recall(hash);
+
+		if (data == null) {
+			File file = getFile(hash);
+
+			try {
+				data = Files.readAllBytes(file.toPath());
+			} catch (IOException e) {
+				return null;
+			}
+
+			touch(file);
+			remember(hash, data);
+		}
+
+		return data;
+	}
+
+	/**
+	 * @param hash The hash of the thumbnail.
+	 * @return A stream of the content of the thumbnail, read from its file
+	 *         unless it is in memory, or null if it isn't stored.
+	 */
+	public InputStream getInputStream(String hash) {
+		byte[] data = recall(hash);
+
+		if (data != null) {
+			return new ByteArrayInputStream(data);
+		}
+
+		File file = getFile(hash);
+
+		try {
+			InputStream stream = new FileInputStream(file);
+			touch(file);
+			return stream;
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a stream of a thumbnail scaled down to the given size. The
+	 * scaled copy is made and stored the first time it is requested, unless
+	 * the thumbnail fits in the size, in which case the thumbnail itself is
+	 * returned.
+	 *
+	 * @param hash The hash of the thumbnail.
+	 * @param size The size, or null for the thumbnail as it was stored.
+	 * @return The stream, or null if the thumbnail isn't stored.
+	 */
+	public InputStream getInputStream(String hash, ThumbnailSize size) {
+		if (size == null) {
+			return getInputStream(hash);
+		}
+
+		String key = hash + "." + size;
+		byte[] data = recall(key);
+
+		if (data != null) {
+			return new ByteArrayInputStream(data);
+		}
+
+		File file = getFile(hash, size);
+
+		if (file.exists()) {
+			try {
+				data = Files.readAllBytes(file.toPath());
+				touch(file);
+				remember(key, data);
+				return new ByteArrayInputStream(data);
+			} catch (IOException e) {
+				LOGGER.trace("Could not read the thumbnail {}: {}", file.getName(), e.getMessage());
+			}
+		}
+
+		byte[] original = get(hash);
+
+		if (original == null) {
+			return null;
+		}
+
+		data = ThumbnailScaler.scale(original, size);
+
+		if (data != original) {
+			write(file, data);
+		}
+
+		remember(key, data);
+		return new ByteArrayInputStream(data);
+	}
+
+	/**
+	 * @return True if the thumbnail is stored.
+	 */
+	public boolean contains(String hash) {
+		return recall(hash) != null || getFile(hash).exists();
+	}
+
+	private File getFile(String hash) {
+		return new File(new File(dir, hash.substring(0, 2)), hash);
+	}
+
+	private File getFile(String hash, ThumbnailSize size) {
+		return new File(new File(dir, hash.substring(0, 2)), hash + "." + size);
+	}
+
+	/**
+	 * Marks a thumbnail as recently used, for pruning.
+	 */
+	private void touch(File file) {
+		if (!file.setLastModified(System.currentTimeMillis())) {
+			LOGGER.trace("Could not touch the thumbnail {}", file.getName());
+		}
+	}
+
+	private byte[] recall(String hash) {
+		synchronized (memory) {
+			return memory.get(hash);
+		}
+	}
+
+	private void remember(String hash, byte[] data) {
+		if (data.length > maxMemorySize) {
+			return;
+		}
+
+		synchronized (memory) {
+			if (memory.put(hash, data) == null) {
+				memorySize += data.length;
+			}
+
+			Iterator<byte[]> eldest = memory.values().iterator();
+
+			while (memorySize > maxMemorySize && eldest.hasNext()) {
+				memorySize -= eldest.next().length;
+				eldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * Measures the store and, if it is too big, deletes the least recently
+	 * used thumbnails until it is below 90% of its maximum size, in the
+	 * background.
+	 */
+	private void prune() {
+		if (!pruning.compareAndSet(false, true)) {
+			return;
+		}
+
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					List<File> files = new ArrayList<>();
+					long total = 0;
+					File[] shards = dir.listFiles();
+
+					if (shards != null) {
+						for (File shard : shards) {
+							File[] thumbnails = shard.listFiles();
+
+							if (thumbnails != null) {
+								for (File thumbnail : thumbnails) {
+									files.add(thumbnail);
+									total += thumbnail.length();
+								}
+							}
+						}
+					}
+
+					size.set(total);
+
+					if (total <= maxSize) {
+						return;
+					}
+
+					final Map<File, Long> lastModified = new LinkedHashMap<>();
+
+					for (File file : files) {
+						lastModified.put(file, file.lastModified());
+					}
+
+					Collections.sort(files, new Comparator<File>() {
+						@Override
+						public int compare(File f1, File f2) {
+							return Long.compare(lastModified.get(f1), lastModified.get(f2));
+						}
+					});
+
+					int deleted = 0;
+
+					for (File file : files) {
+						if (size.get() <= maxSize * 9 / 10) {
+							break;
+						}
+
+						long length = file.length();
+
+						if (file.delete()) {
+							size.addAndGet(-length);
+							deleted++;
+						}
+					}
+
+					LOGGER.debug("Deleted {} thumbnails, the thumbnail store now uses {} KB", deleted, size.get() / 1024);
+				} finally {
+					pruning.set(false);
+				}
+			}
+		}, "thumbnail-store");
+		thread.setDaemon(true);
+		thread.start();
+	}
+}
@@ -2,6 +2,9 @@ package net.pms.dlna.virtual;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import net.pms.PMS;
 import net.pms.dlna.*;
 import net.pms.util.UMSUtils;
@@ -11,10 +14,16 @@ public class MediaLibraryFolder extends VirtualFolder {
 	public static final int TEXTS = 1;
 	public static final int PLAYLISTS = 2;
 	public static final int ISOS = 3;
+
+	// A quoted placeholder of the name of the folder or of one of its ancestors, e.g. '${1}'
+	private static final Pattern QUOTED_NAME = Pattern.compile("'\\$\\{([0-4])\\}'");
 	private String sqls[];
 	private int expectedOutputs[];
 	private DLNAMediaDatabase database;
 
+	// The generation of the database the children were listed from
+	private long generation = -1;
+
 	public MediaLibraryFolder(String name, String sql, int expectedOutput) {
 		this(name, new String[]{sql}, new int[]{expectedOutput});
 	}
@@ -35,33 +44,41 @@ public class MediaLibraryFolder extends VirtualFolder {
 			String sql = sqls[0];
 			int expectedOutput = expectedOutputs[0];
 			if (sql != null) {
-				sql = transformSQL(sql);
+				List<String> parameters = new ArrayList<>();
+				generation = database.getGeneration();
+				sql = transformSQL(sql, parameters);
 				if (expectedOutput == FILES) {
-					ArrayList<File> list = database.getFiles(sql);
+					ArrayList<File> list = database.getFiles(sql, parameters);
 					if (list != null) {
 						UMSUtils.sort(list, PMS.getConfiguration().mediaLibrarySort());
 						for (File f : list) {
 							addChild(new RealFile(f));
 						}
+					} else {
+						queryFailed();
 					}
 				} else if (expectedOutput == PLAYLISTS) {
-					ArrayList<File> list = database.getFiles(sql);
+					ArrayList<File> list = database.getFiles(sql, parameters);
 					if (list != null) {
 						UMSUtils.sort(list, PMS.getConfiguration().mediaLibrarySort());
 						for (File f : list) {
 							addChild(new PlaylistFolder(f));
 						}
+					} else {
+						queryFailed();
 					}
 				} else if (expectedOutput == ISOS) {
-					ArrayList<File> list = database.getFiles(sql);
+					ArrayList<File> list = database.getFiles(sql, parameters);
 					if (list != null) {
 						UMSUtils.sort(list, PMS.getConfiguration().mediaLibrarySort());
 						for (File f : list) {
 							addChild(new DVDISOFile(f));
 						}
+					} else {
+						queryFailed();
 					}
 				} else if (expectedOutput == TEXTS) {
-					ArrayList<String> list = database.getStrings(sql);
+					ArrayList<String> list = database.getStrings(sql, parameters);
 					if (list != null) {
 						for (String s : list) {
 							String sqls2[] = new String[sqls.length - 1];
@@ -70,30 +87,69 @@ public class MediaLibraryFolder extends VirtualFolder {
 							System.arraycopy(expectedOutputs, 1, expectedOutputs2, 0, expectedOutputs2.length);
 							addChild(new MediaLibraryFolder(s, sqls2, expectedOutputs2));
 						}
+					} else {
+						queryFailed();
 					}
 				}
 			}
 		}
 	}
 
-	private String transformSQL(String sql) {
-
-		sql = sql.replace("${0}", transformName(getName()));
-		if (getParent() != null) {
-			sql = sql.replace("${1}", transformName(getParent().getName()));
-			if (getParent().getParent() != null) {
-				sql = sql.replace("${2}", transformName(getParent().getParent().getName()));
-				if (getParent().getParent().getParent() != null) {
-					sql = sql.replace("${3}", transformName(getParent().getParent().getParent().getName()));
-					if (getParent().getParent().getParent().getParent() != null) {
-						sql = sql.replace("${4}", transformName(getParent().getParent().getParent().getParent().getName()));
-					}
-				}
+	/**
+	 * Replaces the quoted placeholders of the names of this folder and of its
+	 * ancestors ('${0}' to '${4}') with query parameters, so that the query
+	 * can be prepared and its result cached whatever the names contain.
+	 * Unquoted placeholders are replaced with the escaped names.
+	 *
+	 * @param sql The query.
+	 * @param parameters The list the values of the parameters are added to.
+	 * @return The query to prepare.
+	 */
+	private String transformSQL(String sql, List<String> parameters) {
+		Matcher matcher = QUOTED_NAME.matcher(sql);
+		StringBuffer sb = new StringBuffer();
+
+		while (matcher.find()) {
+			String name = getAncestorName(Integer.parseInt(matcher.group(1)));
+
+			if (name == null) {
+				matcher.appendReplacement(sb, Matcher.quoteReplacement(matcher.group()));
+			} else {
+				parameters.add(DLNAMediaDatabase.NONAME.equals(name) ? "" : name);
+				matcher.appendReplacement(sb, "?");
+			}
+		}
+
+		matcher.appendTail(sb);
+		sql = sb.toString();
+
+		for (int level = 0; level <= 4; level++) {
+			String name = getAncestorName(level);
+
+			if (name == null) {
+				break;
 			}
+
+			sql = sql.replace("${" + level + "}", transformName(name));
 		}
+
 		return sql;
 	}
 
+	/**
+	 * @return The name of this folder (level 0) or of one of its ancestors,
+	 *         or null if there is no such ancestor.
+	 */
+	private String getAncestorName(int level) {
+		DLNAResource resource = this;
+
+		for (int i = 0; i < level && resource != null; i++) {
+			resource = resource.getParent();
+		}
+
+		return resource != null ? resource.getName() : null;
+	}
+
 	private String transformName(String name) {
 		if (name.equals(DLNAMediaDatabase.NONAME)) {
 			name = "";
@@ -102,9 +158,17 @@ public class MediaLibraryFolder extends VirtualFolder {
 		return name;
 	}
 
+	/**
+	 * Makes the next access list the children again, since the result of a
+	 * failed query isn't cached by the database.
+	 */
+	private void queryFailed() {
+		generation = -1;
+	}
+
 	@Override
 	public boolean isRefreshNeeded() {
-		return true;
+		return database.getGeneration() != generation;
 	}
 
 	@Override
@@ -116,11 +180,17 @@ public class MediaLibraryFolder extends VirtualFolder {
 			String sql = sqls[0];
 			expectedOutput = expectedOutputs[0];
 			if (sql != null) {
-				sql = transformSQL(sql);
+				List<String> parameters = new ArrayList<>();
+				generation = database.getGeneration();
+				sql = transformSQL(sql, parameters);
 				if (expectedOutput == FILES || expectedOutput == PLAYLISTS || expectedOutput == ISOS) {
-					list = database.getFiles(sql);
+					list = database.getFiles(sql, parameters);
 				} else if (expectedOutput == TEXTS) {
-					strings = database.getStrings(sql);
+					strings = database.getStrings(sql, parameters);
+				}
+
+				if (list == null && strings == null) {
+					queryFailed();
 				}
 			}
 		}
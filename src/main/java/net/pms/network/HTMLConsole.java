@@ -21,6 +21,8 @@ package net.pms.network;
 import net.pms.PMS;
 import net.pms.configuration.PmsConfiguration;
 import net.pms.dlna.DLNAMediaDatabase;
+import net.pms.dlna.DidlCache;
+import net.pms.dlna.MediaStore;
 import net.pms.util.PropertiesUtil;
 
 public class HTMLConsole {
@@ -53,6 +55,22 @@ public class HTMLConsole {
 		sb.append("<a href=\"home\">Home</a><br>");
 		sb.append("<a href=\"scan\">Scan folders</a><br>");
 		sb.append("<a href=\"compact\">Shrink cache database (not recommended)</a>");
+		sb.append("</p><p align=center>Statistics:<br>");
+		DidlCache didlCache = DidlCache.getInstance();
+		sb.append(String.format(
+			"DIDL-Lite cache: %d items, %d hits, %d misses (%.0f%% hits)<br>",
+			didlCache.size(),
+			didlCache.getHits(),
+			didlCache.getMisses(),
+			didlCache.getHitRate() * 100
+		));
+		MediaStore mediaStore = MediaStore.getInstance();
+		sb.append(String.format(
+			"Waits for parses by other renderers: %d, %d ms in total, %d timed out<br>",
+			mediaStore.getParseWaits(),
+			mediaStore.getParseWaitTime(),
+			mediaStore.getParseTimeouts()
+		));
 		sb.append("</p></body></html>");
 		return sb.toString();
 	}
@@ -84,6 +84,48 @@ public class HTTPResource {
 		return mimeType;
 	}
 
+	/**
+	 * Returns the MIME type of an image from its first bytes, e.g. to send
+	 * the type of the thumbnail size actually served, which may have been
+	 * converted to JPEG. The stream is reset to where it was.
+	 *
+	 * @param in The stream of the image, which must support mark and reset.
+	 * @param defaultType The type to return if the image isn't recognized.
+	 * @return The MIME type of the image.
+	 */
+	public static String getImageMimeType(InputStream in, String defaultType) {
+		byte[] header = new byte[4];
+		int length = 0;
+
+		try {
+			in.mark(header.length);
+
+			try {
+				int read;
+
+				while (length < header.length && (read = in.read(header, length, header.length - length)) > 0) {
+					length += read;
+				}
+			} finally {
+				in.reset();
+			}
+		} catch (IOException e) {
+			return defaultType;
+		}
+
+		if (length >= 2 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8) {
+			return JPEG_TYPEMIME;
+		} else if (length >= 4 && (header[0] & 0xFF) == 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G') {
+			return PNG_TYPEMIME;
+		} else if (length >= 4 && header[0] == 'G' && header[1] == 'I' && header[2] == 'F' && header[3] == '8') {
+			return GIF_TYPEMIME;
+		} else if (length >= 2 && header[0] == 'B' && header[1] == 'M') {
+			return BMP_TYPEMIME;
+		}
+
+		return defaultType;
+	}
+
 	/**
 	 * Returns an InputStream associated with the fileName.
 	 * @param fileName TODO Absolute or relative file path.
@@ -18,6 +18,7 @@
  */
 package net.pms.network;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -38,6 +39,7 @@ import net.pms.dlna.DLNAMediaInfo;
 import net.pms.dlna.DLNAMediaSubtitle;
 import net.pms.dlna.DLNAResource;
 import net.pms.dlna.Range;
+import net.pms.dlna.ThumbnailSize;
 import net.pms.external.StartStopListenerDelegate;
 import net.pms.util.StringUtil;
 import net.pms.util.UMSUtils;
@@ -292,17 +294,33 @@ public class Request extends HTTPResource {
 				dlna = files.get(0);
 				String fileName = argument.substring(argument.lastIndexOf('/') + 1);
 
-				if (fileName.startsWith("thumbnail0000")) {
+				if (ThumbnailSize.isThumbnail(fileName)) {
 					// This is a request for a thumbnail file.
-					output(output, "Content-Type: " + dlna.getThumbnailContentType());
 					output(output, "Accept-Ranges: bytes");
-					output(output, "Expires: " + getFUTUREDATE() + " GMT");
 					output(output, "Connection: keep-alive");
 					if (mediaRenderer.isMediaParserV2()) {
 						dlna.checkThumbnail();
 					}
 
-					inputStream = dlna.getThumbnailInputStream();
+					if (dlna.isThumbnailPending()) {
+						// A placeholder is sent while the thumbnail is generated, it mustn't be kept
+						output(output, "Cache-Control: no-cache");
+						output(output, "Expires: 0");
+					} else {
+						output(output, "Expires: " + getFUTUREDATE() + " GMT");
+					}
+
+					inputStream = dlna.getThumbnailInputStream(ThumbnailSize.fromFileName(fileName));
+
+					// The type of the size served, which is a JPEG when it has been scaled
+					String contentType = dlna.getThumbnailContentType();
+
+					if (inputStream != null) {
+						inputStream = new BufferedInputStream(inputStream);
+						contentType = getImageMimeType(inputStream, contentType);
+					}
+
+					output(output, "Content-Type: " + contentType);
 				} else if (dlna.getMedia() != null && fileName.contains("subtitle0000")) {
 					// This is a request for a subtitle file
 					output(output, "Content-Type: text/plain");
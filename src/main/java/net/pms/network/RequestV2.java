@@ -18,6 +18,7 @@
  */
 package net.pms.network;
 
+import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -36,8 +37,6 @@ import net.pms.util.StringUtil;
 import static net.pms.util.StringUtil.convertStringToTime;
 import net.pms.util.UMSUtils;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
-import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.MessageEvent;
@@ -243,7 +242,7 @@ public class RequestV2 extends HTTPResource {
 	) throws IOException {
 		ChannelFuture future = null;
 		long CLoverride = -2; // 0 and above are valid Content-Length values, -1 means omit
-		StringBuilder response = new StringBuilder();
+		ResponseWriter response = new ResponseWriter();
 		DLNAResource dlna = null;
 		boolean xbox360 = mediaRenderer.isXbox360();
 
@@ -288,18 +287,34 @@ public class RequestV2 extends HTTPResource {
 				dlna = files.get(0);
 				String fileName = argument.substring(argument.lastIndexOf('/') + 1);
 
-				if (fileName.startsWith("thumbnail0000")) {
+				if (ThumbnailSize.isThumbnail(fileName)) {
 					// This is a request for a thumbnail file.
-					output.headers().set(HttpHeaders.Names.CONTENT_TYPE, dlna.getThumbnailContentType());
 					output.headers().set(HttpHeaders.Names.ACCEPT_RANGES, "bytes");
-					output.headers().set(HttpHeaders.Names.EXPIRES, getFUTUREDATE() + " GMT");
 					output.headers().set(HttpHeaders.Names.CONNECTION, "keep-alive");
 
 					if (mediaRenderer.isMediaParserV2()) {
 						dlna.checkThumbnail();
 					}
 
-					inputStream = dlna.getThumbnailInputStream();
+					if (dlna.isThumbnailPending()) {
+						// A placeholder is sent while the thumbnail is generated, it mustn't be kept
+						output.headers().set(HttpHeaders.Names.CACHE_CONTROL, HttpHeaders.Values.NO_CACHE);
+						output.headers().set(HttpHeaders.Names.EXPIRES, "0");
+					} else {
+						output.headers().set(HttpHeaders.Names.EXPIRES, getFUTUREDATE() + " GMT");
+					}
+
+					inputStream = dlna.getThumbnailInputStream(ThumbnailSize.fromFileName(fileName));
+
+					// The type of the size served, which is a JPEG when it has been scaled
+					String contentType = dlna.getThumbnailContentType();
+
+					if (inputStream != null) {
+						inputStream = new BufferedInputStream(inputStream);
+						contentType = getImageMimeType(inputStream, contentType);
+					}
+
+					output.headers().set(HttpHeaders.Names.CONTENT_TYPE, contentType);
 				} else if (dlna.getMedia() != null && fileName.contains("subtitle0000")) {
 					// This is a request for a subtitle file
 					output.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/plain");
@@ -659,6 +674,22 @@ public class RequestV2 extends HTTPResource {
 					}
 				} else if (soapaction.contains("ContentDirectory:1#Search")) {
 					searchCriteria = getEnclosingValue(content, "<SearchCriteria", "</SearchCriteria>");
+
+					// Search the whole media library with its index when possible, that
+					// is when the root is searched with words the index can handle
+					if (searchCriteria != null && "0".equals(objectID) && configuration.getUseCache()) {
+						List<String> words = UMSUtils.getSearchWords(searchCriteria);
+						int type = UMSUtils.getSearchType(searchCriteria);
+
+						if (words != null && (type != 0 || !words.contains(""))) {
+							LibrarySearchFolder librarySearch = PMS.get().getRootFolder(mediaRenderer).getLibrarySearch(words, type);
+
+							if (librarySearch != null) {
+								objectID = librarySearch.getResourceId();
+								searchCriteria = null;
+							}
+						}
+					}
 				}
 
 				List<DLNAResource> files = PMS.get().getRootFolder(mediaRenderer).getDLNAResources(
@@ -752,7 +783,9 @@ public class RequestV2 extends HTTPResource {
 				response.append(CRLF);
 				response.append(HTTPXMLHelper.SOAP_ENCODING_FOOTER);
 				response.append(CRLF);
-				LOGGER.trace(response.toString());
+				if (LOGGER.isTraceEnabled()) {
+					LOGGER.trace(response.toString());
+				}
 			}
 		} else if (method.equals("SUBSCRIBE")) {
 			output.headers().set("SID", PMS.get().usn());
@@ -824,15 +857,13 @@ public class RequestV2 extends HTTPResource {
 		output.headers().set("Server", PMS.get().getServerName());
 
 		if (response.length() > 0) {
-			// A response message was constructed; convert it to data ready to be sent.
-			byte responseData[] = response.toString().getBytes("UTF-8");
-			output.headers().set(HttpHeaders.Names.CONTENT_LENGTH, "" + responseData.length);
+			// A response message was constructed, already encoded and ready to be sent.
+			output.headers().set(HttpHeaders.Names.CONTENT_LENGTH, "" + response.length());
 
 			// HEAD requests only require headers to be set, no need to set contents.
 			if (!method.equals("HEAD")) {
 				// Not a HEAD request, so set the contents of the response.
-				ChannelBuffer buf = ChannelBuffers.copiedBuffer(responseData);
-				output.setContent(buf);
+				output.setContent(response.toChannelBuffer());
 			}
 
 			// Send the response to the client.
@@ -0,0 +1,121 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.network;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * Builds the body of a response by encoding the appended text in UTF-8
+ * straight into fixed-size byte buffers, which are then handed to Netty
+ * as a single composite {@link ChannelBuffer} without being copied.
+ * <p>
+ * This replaces building the body in a {@link StringBuilder}, converting it
+ * to a {@link String}, encoding that to a byte array and copying the array
+ * into a channel buffer. The body is complete before it is sent, so that
+ * its length can be sent in the headers: SOAP responses aren't sent with
+ * chunked transfer encoding, which not all renderers accept.
+ */
+class ResponseWriter {
+	private static final int CHUNK_SIZE = 16 * 1024;
+
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+		.onMalformedInput(CodingErrorAction.REPLACE)
+		.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+	private ByteBuffer current;
+	private int length;
+
+	ResponseWriter append(String s) {
+		if (s == null) {
+			s = "null";
+		}
+
+		if (s.isEmpty()) {
+			return this;
+		}
+
+		CharBuffer in = CharBuffer.wrap(s);
+		encoder.reset();
+
+		if (current == null) {
+			nextChunk();
+		}
+
+		while (true) {
+			int start = current.position();
+			CoderResult result = encoder.encode(in, current, true);
+			length += current.position() - start;
+
+			if (!result.isOverflow()) {
+				break;
+			}
+
+			// The next character doesn't fit in what is left of this chunk
+			nextChunk();
+		}
+
+		return this;
+	}
+
+	ResponseWriter append(long l) {
+		return append(Long.toString(l));
+	}
+
+	private void nextChunk() {
+		current = ByteBuffer.allocate(CHUNK_SIZE);
+		chunks.add(current);
+	}
+
+	/**
+	 * @return The number of bytes written so far.
+	 */
+	int length() {
+		return length;
+	}
+
+	/**
+	 * @return A buffer over the bytes written so far.
+	 */
+	ChannelBuffer toChannelBuffer() {
+		ByteBuffer[] buffers = new ByteBuffer[chunks.size()];
+
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = (ByteBuffer) chunks.get(i).duplicate().flip();
+		}
+
+		return ChannelBuffers.wrappedBuffer(buffers);
+	}
+
+	/**
+	 * Decodes the bytes written so far, for logging purposes.
+	 */
+	@Override
+	public String toString() {
+		return toChannelBuffer().toString(StandardCharsets.UTF_8);
+	}
+}
@@ -4,8 +4,11 @@ import com.sun.net.httpserver.*;
 import java.io.*;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
@@ -15,7 +18,9 @@ import net.pms.PMS;
 import net.pms.configuration.PmsConfiguration;
 import net.pms.configuration.RendererConfiguration;
 import net.pms.configuration.WebRender;
+import net.pms.dlna.DLNAMediaDatabase;
 import net.pms.dlna.DLNAResource;
+import net.pms.dlna.ParseFailure;
 import net.pms.dlna.RootFolder;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.lang.StringUtils;
@@ -73,6 +78,7 @@ public class RemoteWeb {
 			addCtx("/raw", new RemoteRawHandler(this));
 			addCtx("/files", new RemoteFileHandler());
 			addCtx("/subs", new RemoteFileHandler());
+			addCtx("/failures", new RemoteFailuresHandler());
 			server.setExecutor(Executors.newFixedThreadPool(threads));
 			server.start();
 		} catch (Exception e) {
@@ -325,6 +331,42 @@ public class RemoteWeb {
 		}
 	}
 
+	/**
+	 * Lists the files that are hidden because they couldn't be parsed, as
+	 * plain text.
+	 */
+	static class RemoteFailuresHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange t) throws IOException {
+			if (RemoteUtil.deny(t)) {
+				throw new IOException("Access denied");
+			}
+
+			StringBuilder sb = new StringBuilder();
+			DLNAMediaDatabase database = PMS.get().getDatabase();
+
+			if (database != null) {
+				SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+				for (ParseFailure failure : database.getParseFailures()) {
+					sb.append(failure.getName()).append('\t');
+					sb.append(failure.getSize()).append('\t');
+					sb.append(format.format(new Date(failure.getModified()))).append('\t');
+					sb.append(failure.getReason()).append('\t');
+					sb.append(format.format(new Date(failure.getFailed()))).append('\n');
+				}
+			}
+
+			byte[] response = sb.toString().getBytes(StandardCharsets.UTF_8);
+			Headers hdr = t.getResponseHeaders();
+			hdr.add("Content-Type", "text/plain; charset=UTF-8");
+			t.sendResponseHeaders(200, response.length);
+			try (OutputStream os = t.getResponseBody()) {
+				os.write(response);
+			}
+		}
+	}
+
 	static class RemoteStartHandler implements HttpHandler {
 		private static final Logger LOGGER = LoggerFactory.getLogger(RemoteStartHandler.class);
 		private final static String CRLF = "\r\n";
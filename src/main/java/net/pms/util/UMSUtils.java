@@ -2,15 +2,30 @@ package net.pms.util;
 
 import java.io.File;
 import java.text.Collator;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import net.pms.dlna.DLNAMediaAudio;
 import net.pms.dlna.DLNAMediaInfo;
 import net.pms.dlna.DLNAResource;
+import net.pms.formats.Format;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.commons.lang3.StringUtils;
 
 public class UMSUtils {
+	// A token of a search criteria: a parenthesis, "*", "and", "or", or a property,
+	// an operator and a value, e.g. dc:title contains "abbey road"
+	private static final Pattern SEARCH_TOKEN = Pattern.compile("\\s*(?:([()*])|(and|or)(?![\\w:@])|([\\w:@]+)\\s+([a-zA-Z]+|[=!<>]+)\\s+(\"(?:[^\"\\\\]|\\\\.)*\"|\\w+))\\s*");
+
+	// The maximum number of alternatives of a search criteria searched separately
+	private static final int MAX_SEARCH_ALTERNATIVES = 16;
+
 	private static final Collator collator;
 
 	static {
@@ -54,6 +69,209 @@ public class UMSUtils {
 		}
 	}
 
+	/**
+	 * Extracts the words of a UPnP search criteria, as alternatives any of
+	 * which a file must match, e.g. "beatles" and "abbey" from
+	 * <code>dc:title contains "beatles" or upnp:album contains "abbey"</code>,
+	 * and "beatles abbey" from
+	 * <code>dc:title contains "beatles" and upnp:album contains "abbey"</code>.
+	 * The words are the values of the <code>contains</code> and
+	 * <code>=</code> expressions, except the class ones, without duplicates.
+	 *
+	 * @param searchCriteria The search criteria, possibly XML-escaped.
+	 * @return The alternatives, each made of words separated by spaces, or
+	 *         null if the criteria can't be parsed, has too many alternatives
+	 *         or uses operators that can't be searched by words, e.g.
+	 *         <code>doesNotContain</code>.
+	 */
+	public static List<String> getSearchWords(String searchCriteria) {
+		List<Set<String>> alternatives;
+
+		try {
+			alternatives = new SearchCriteriaParser(StringEscapeUtils.unescapeXml(searchCriteria)).parse();
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+
+		Set<String> words = new LinkedHashSet<>();
+
+		for (Set<String> alternative : alternatives) {
+			words.add(StringUtils.join(alternative, ' '));
+		}
+
+		return new ArrayList<>(words);
+	}
+
+	/**
+	 * Parses a UPnP search criteria into the sets of words of its
+	 * alternatives: the criteria matches if the words of any of them match.
+	 */
+	private static class SearchCriteriaParser {
+		private final Matcher matcher;
+		private final int length;
+		private int position;
+
+		SearchCriteriaParser(String criteria) {
+			matcher = SEARCH_TOKEN.matcher(criteria);
+			length = criteria.length();
+		}
+
+		List<Set<String>> parse() {
+			List<Set<String>> alternatives = parseOr();
+
+			if (next()) {
+				throw new IllegalArgumentException("Unexpected " + matcher.group());
+			}
+
+			return alternatives;
+		}
+
+		/**
+		 * Reads the next token.
+		 *
+		 * @return False at the end of the criteria.
+		 */
+		private boolean next() {
+			if (position >= length) {
+				return false;
+			}
+
+			matcher.region(position, length);
+
+			if (!matcher.lookingAt()) {
+				throw new IllegalArgumentException("Invalid search criteria at " + position);
+			}
+
+			position = matcher.end();
+			return true;
+		}
+
+		/**
+		 * @return True if the next token is the given keyword or
+		 *         parenthesis, in which case it is read.
+		 */
+		private boolean accept(String token) {
+			int start = position;
+
+			if (next() && token.equalsIgnoreCase(StringUtils.defaultString(matcher.group(1), matcher.group(2)))) {
+				return true;
+			}
+
+			position = start;
+			return false;
+		}
+
+		private List<Set<String>> parseOr() {
+			List<Set<String>> alternatives = parseAnd();
+
+			while (accept("or")) {
+				alternatives.addAll(parseAnd());
+
+				if (alternatives.size() > MAX_SEARCH_ALTERNATIVES) {
+					throw new IllegalArgumentException("Too many alternatives");
+				}
+			}
+
+			return alternatives;
+		}
+
+		private List<Set<String>> parseAnd() {
+			List<Set<String>> alternatives = parseExpression();
+
+			while (accept("and")) {
+				List<Set<String>> right = parseExpression();
+				List<Set<String>> product = new ArrayList<>();
+
+				for (Set<String> left : alternatives) {
+					for (Set<String> words : right) {
+						Set<String> combined = new LinkedHashSet<>(left);
+						combined.addAll(words);
+						product.add(combined);
+					}
+				}
+
+				if (product.size() > MAX_SEARCH_ALTERNATIVES) {
+					throw new IllegalArgumentException("Too many alternatives");
+				}
+
+				alternatives = product;
+			}
+
+			return alternatives;
+		}
+
+		private List<Set<String>> parseExpression() {
+			List<Set<String>> alternatives = new ArrayList<>();
+
+			if (accept("(")) {
+				alternatives = parseOr();
+
+				if (!accept(")")) {
+					throw new IllegalArgumentException("Missing parenthesis");
+				}
+
+				return alternatives;
+			}
+
+			if (!next() || matcher.group(3) == null && !"*".equals(matcher.group(1))) {
+				throw new IllegalArgumentException("Expression expected");
+			}
+
+			Set<String> words = new LinkedHashSet<>();
+
+			if (matcher.group(3) != null) {
+				String property = matcher.group(3);
+				String operator = matcher.group(4).toLowerCase();
+				String value = matcher.group(5);
+
+				if (operator.equals("contains") || operator.equals("=")) {
+					if (!value.startsWith("\"")) {
+						throw new IllegalArgumentException("Quoted value expected");
+					}
+
+					if (!property.equals("upnp:class")) {
+						words.add(value.substring(1, value.length() - 1).replace("\\\"", "\"").toLowerCase());
+					}
+				} else if (!operator.equals("derivedfrom") && !operator.equals("exists")) {
+					// The files that don't match can't be found by words
+					throw new IllegalArgumentException("Unsupported operator " + operator);
+				}
+			}
+
+			// The class and existence expressions are handled as matching every file
+			alternatives.add(words);
+			return alternatives;
+		}
+	}
+
+	/**
+	 * Finds the type of the items a UPnP search criteria is restricted to,
+	 * e.g. <code>upnp:class derivedfrom "object.item.audioItem"</code>.
+	 *
+	 * @param searchCriteria The search criteria, possibly XML-escaped.
+	 * @return The type (see {@link Format}), or 0 if the items aren't
+	 *         restricted to audio, image or video ones, or may be of several
+	 *         of these types.
+	 */
+	public static int getSearchType(String searchCriteria) {
+		String criteria = StringEscapeUtils.unescapeXml(searchCriteria);
+		int type = 0;
+
+		if (criteria.contains("object.item.audioItem")) {
+			type = Format.AUDIO;
+		}
+
+		if (criteria.contains("object.item.imageItem")) {
+			type = type == 0 ? Format.IMAGE : -1;
+		}
+
+		if (criteria.contains("object.item.videoItem")) {
+			type = type == 0 ? Format.VIDEO : -1;
+		}
+
+		return Math.max(type, 0);
+	}
+
 	// Sort constants
 	public static final int SORT_LOC_SENS =  0;
 	public static final int SORT_MOD_NEW =   1;
@@ -0,0 +1,165 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.pms.dlna.AnalysisExecutor.Priority;
+import net.pms.dlna.virtual.VirtualFolder;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class AnalysisExecutorTest {
+	private Runnable record(final List<String> order, final String name, final CountDownLatch done) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				order.add(name);
+				done.countDown();
+			}
+		};
+	}
+
+	@Test
+	public void testBackgroundPriorities() throws InterruptedException {
+		// 2 threads, so a single one runs background tasks
+		AnalysisExecutor executor = new AnalysisExecutor(2, 2, 4);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(3);
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+		assertThat(executor.offer(new Runnable() {
+			@Override
+			public void run() {
+				blocked.countDown();
+
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, null, Priority.LIBRARY)).isTrue();
+		assertThat(blocked.await(5, TimeUnit.SECONDS)).isTrue();
+
+		assertThat(executor.offer(record(order, "library", done), "disk", Priority.LIBRARY)).isTrue();
+		assertThat(executor.offer(record(order, "siblings", done), null, Priority.SIBLINGS)).isTrue();
+		assertThat(executor.offer(record(order, "folder", done), "disk", Priority.FOLDER)).isTrue();
+
+		// The queue is full
+		assertThat(executor.offer(record(order, "refused", done), null, Priority.FOLDER)).isFalse();
+		assertThat(executor.getRefusedCount()).isEqualTo(1);
+
+		// Pages don't wait for the background tasks
+		assertThat(executor.resolve(new ArrayList<DLNAResource>(), null, 0, 1000)).isTrue();
+
+		release.countDown();
+		assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(order).containsExactly("folder", "siblings", "library");
+	}
+
+	/**
+	 * Counts the resources being resolved and records the highest count.
+	 */
+	private static class Counter {
+		private final AtomicInteger running = new AtomicInteger();
+		private final AtomicInteger max = new AtomicInteger();
+
+		void enter() {
+			int current = running.incrementAndGet();
+			int previous;
+
+			while ((previous = max.get()) < current && !max.compareAndSet(previous, current)) {
+				// retry
+			}
+		}
+
+		void exit() {
+			running.decrementAndGet();
+		}
+	}
+
+	/**
+	 * A resource whose resolution is slow.
+	 */
+	private static class SlowResource extends VirtualFolder {
+		private final Counter group;
+		private final Counter device;
+
+		SlowResource(Counter group, Counter device) {
+			super("slow", null);
+			this.group = group;
+			this.device = device;
+		}
+
+		@Override
+		public synchronized void resolve() {
+			group.enter();
+			device.enter();
+
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			device.exit();
+			group.exit();
+		}
+	}
+
+	private List<DLNAResource> slowResources(int count, Counter group, Counter device) {
+		List<DLNAResource> resources = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+			resources.add(new SlowResource(group, device));
+		}
+
+		return resources;
+	}
+
+	@Test
+	public void testLowerLimitCountsTowardsTheDevice() throws InterruptedException {
+		final AnalysisExecutor executor = new AnalysisExecutor(8, 2, 4);
+		Counter device = new Counter();
+		Counter image = new Counter();
+		final List<DLNAResource> limited = slowResources(4, image, device);
+		List<DLNAResource> normal = slowResources(8, new Counter(), device);
+
+		// A DVD image and a folder of the same disk
+		Thread imageBrowse = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				executor.resolve(limited, "disk", 1, 10000);
+			}
+		});
+		imageBrowse.start();
+		assertThat(executor.resolve(normal, "disk", 0, 10000)).isTrue();
+		imageBrowse.join(10000);
+
+		assertThat(image.max.get()).isEqualTo(1);
+		assertThat(device.max.get()).isLessThanOrEqualTo(2);
+	}
+}
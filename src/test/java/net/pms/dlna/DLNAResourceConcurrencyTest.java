@@ -0,0 +1,163 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import ch.qos.logback.classic.LoggerContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.dlna.virtual.VirtualFolder;
+import org.apache.commons.configuration.ConfigurationException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks that Browse requests for independent containers are served in
+ * parallel and that a container is discovered only once.
+ */
+public class DLNAResourceConcurrencyTest {
+	private static final long DISCOVERY_DELAY = 200;
+
+	// How long a discovery waits for the others before concluding they are serialized
+	private static final long RENDEZVOUS_TIMEOUT = 10000;
+	private RendererConfiguration renderer;
+
+	@Before
+	public void setUp() throws ConfigurationException {
+		// Silence all log messages from the PMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+
+		PmsConfiguration configuration = new PmsConfiguration(false);
+		PMS.setConfiguration(configuration);
+		RendererConfiguration.loadRendererConfigurations(configuration);
+		renderer = RendererConfiguration.getDefaultConf();
+	}
+
+	/**
+	 * A container whose discovery is slow, like a big folder on a NAS. Given
+	 * a rendezvous, its discovery waits until the discoveries of the other
+	 * folders sharing it have started, which only happens if they run at
+	 * the same time.
+	 */
+	private static class SlowFolder extends VirtualFolder {
+		private final AtomicInteger discoveries = new AtomicInteger();
+		private final CountDownLatch rendezvous;
+		private volatile boolean overlapped;
+
+		SlowFolder(String name) {
+			this(name, null);
+		}
+
+		SlowFolder(String name, CountDownLatch rendezvous) {
+			super(name, null);
+			this.rendezvous = rendezvous;
+		}
+
+		@Override
+		public void discoverChildren() {
+			discoveries.incrementAndGet();
+
+			try {
+				if (rendezvous != null) {
+					rendezvous.countDown();
+					overlapped = rendezvous.await(RENDEZVOUS_TIMEOUT, TimeUnit.MILLISECONDS);
+				} else {
+					Thread.sleep(DISCOVERY_DELAY);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			for (int i = 0; i < 3; i++) {
+				addChildInternal(new VirtualFolder(getName() + " " + i, null));
+			}
+		}
+	}
+
+	private DLNAResource createRoot(SlowFolder... folders) {
+		VirtualFolder root = new VirtualFolder("root", null);
+		root.setIndexId(0);
+
+		for (SlowFolder folder : folders) {
+			root.addChildInternal(folder);
+		}
+
+		return root;
+	}
+
+	private List<Callable<Integer>> browse(final DLNAResource root, String... objectIds) {
+		List<Callable<Integer>> tasks = new ArrayList<>();
+
+		for (final String objectId : objectIds) {
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return root.getDLNAResources(objectId, true, 0, 0, renderer).size();
+				}
+			});
+		}
+
+		return tasks;
+	}
+
+	private void runConcurrently(List<Callable<Integer>> tasks) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+
+		try {
+			for (Future<Integer> result : executor.invokeAll(tasks)) {
+				assertEquals("all children are returned", 3, result.get().intValue());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testIndependentContainersAreBrowsedInParallel() throws Exception {
+		CountDownLatch rendezvous = new CountDownLatch(2);
+		SlowFolder first = new SlowFolder("first", rendezvous);
+		SlowFolder second = new SlowFolder("second", rendezvous);
+		DLNAResource root = createRoot(first, second);
+
+		runConcurrently(browse(root, first.getResourceId(), second.getResourceId()));
+
+		assertTrue("the discoveries of independent containers overlap", first.overlapped && second.overlapped);
+		assertEquals(1, first.discoveries.get());
+		assertEquals(1, second.discoveries.get());
+	}
+
+	@Test
+	public void testSameContainerIsDiscoveredOnce() throws Exception {
+		SlowFolder folder = new SlowFolder("folder");
+		DLNAResource root = createRoot(folder);
+		String id = folder.getResourceId();
+
+		runConcurrently(browse(root, id, id, id, id));
+
+		assertEquals("concurrent Browse requests discover the container only once", 1, folder.discoveries.get());
+	}
+}
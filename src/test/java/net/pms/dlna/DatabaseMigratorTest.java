@@ -0,0 +1,236 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import net.pms.formats.Format;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class DatabaseMigratorTest {
+	private static final byte[] THUMB = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, 4, 5, (byte) 0xFF, (byte) 0xD9};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Connection conn;
+	private ThumbnailStore thumbnails;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.h2.Driver");
+		conn = DriverManager.getConnection("jdbc:h2:mem:", "sa", "");
+		thumbnails = new ThumbnailStore(folder.newFolder("thumbnails"), 1024 * 1024, 1024 * 1024);
+		createVersion1();
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		conn.close();
+	}
+
+	/**
+	 * Creates a populated database of the first released version, with the
+	 * statements that version used.
+	 */
+	private void createVersion1() throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("CREATE TABLE FILES (");
+		sb.append("  ID                      INT AUTO_INCREMENT");
+		sb.append(", FILENAME                VARCHAR2(1024)   NOT NULL");
+		sb.append(", MODIFIED                TIMESTAMP        NOT NULL");
+		sb.append(", TYPE                    INT");
+		sb.append(", DURATION                DOUBLE");
+		sb.append(", BITRATE                 INT");
+		sb.append(", WIDTH                   INT");
+		sb.append(", HEIGHT                  INT");
+		sb.append(", SIZE                    NUMERIC");
+		sb.append(", CODECV                  VARCHAR2(32)");
+		sb.append(", FRAMERATE               VARCHAR2(32)");
+		sb.append(", ASPECT                  VARCHAR2(32)");
+		sb.append(", ASPECTRATIOCONTAINER    VARCHAR2(5)");
+		sb.append(", ASPECTRATIOVIDEOTRACK   VARCHAR2(5)");
+		sb.append(", REFRAMES                TINYINT");
+		sb.append(", AVCLEVEL                VARCHAR2(3)");
+		sb.append(", BITSPERPIXEL            INT");
+		sb.append(", THUMB                   BINARY");
+		sb.append(", CONTAINER               VARCHAR2(32)");
+		sb.append(", MODEL                   VARCHAR2(128)");
+		sb.append(", EXPOSURE                INT");
+		sb.append(", ORIENTATION             INT");
+		sb.append(", ISO                     INT");
+		sb.append(", MUXINGMODE              VARCHAR2(32)");
+		sb.append(", FRAMERATEMODE           VARCHAR2(16)");
+		sb.append(", STEREOSCOPY             VARCHAR2(255)");
+		sb.append(", MATRIXCOEFFICIENTS      VARCHAR2(16)");
+		sb.append(", EMBEDDEDFONTEXISTS      BIT              NOT NULL");
+		sb.append(", constraint PK1 primary key (FILENAME, MODIFIED, ID))");
+		DatabaseMigration.execute(conn, sb.toString());
+
+		sb = new StringBuilder();
+		sb.append("CREATE TABLE AUDIOTRACKS (");
+		sb.append("  FILEID            INT              NOT NULL");
+		sb.append(", ID                INT              NOT NULL");
+		sb.append(", LANG              VARCHAR2(3)");
+		sb.append(", FLAVOR            VARCHAR2(128)");
+		sb.append(", NRAUDIOCHANNELS   NUMERIC");
+		sb.append(", SAMPLEFREQ        VARCHAR2(16)");
+		sb.append(", CODECA            VARCHAR2(32)");
+		sb.append(", BITSPERSAMPLE     INT");
+		sb.append(", ALBUM             VARCHAR2(255)");
+		sb.append(", ARTIST            VARCHAR2(255)");
+		sb.append(", SONGNAME          VARCHAR2(255)");
+		sb.append(", GENRE             VARCHAR2(64)");
+		sb.append(", YEAR              INT");
+		sb.append(", TRACK             INT");
+		sb.append(", DELAY             INT");
+		sb.append(", MUXINGMODE        VARCHAR2(32)");
+		sb.append(", BITRATE           INT");
+		sb.append(", constraint PKAUDIO primary key (FILEID, ID))");
+		DatabaseMigration.execute(conn, sb.toString());
+
+		sb = new StringBuilder();
+		sb.append("CREATE TABLE SUBTRACKS (");
+		sb.append("  FILEID   INT              NOT NULL");
+		sb.append(", ID       INT              NOT NULL");
+		sb.append(", LANG     VARCHAR2(3)");
+		sb.append(", FLAVOR   VARCHAR2(128)");
+		sb.append(", TYPE     INT");
+		sb.append(", constraint PKSUB primary key (FILEID, ID))");
+		DatabaseMigration.execute(conn, sb.toString());
+
+		DatabaseMigration.execute(conn, "CREATE TABLE METADATA (KEY VARCHAR2(255) NOT NULL, VALUE VARCHAR2(255) NOT NULL)");
+		DatabaseMigration.execute(conn, "INSERT INTO METADATA VALUES ('VERSION', '1')");
+		DatabaseMigration.execute(conn, "CREATE INDEX IDXARTIST on AUDIOTRACKS (ARTIST asc);");
+		DatabaseMigration.execute(conn, "CREATE INDEX IDXALBUM on AUDIOTRACKS (ALBUM asc);");
+		DatabaseMigration.execute(conn, "CREATE INDEX IDXGENRE on AUDIOTRACKS (GENRE asc);");
+		DatabaseMigration.execute(conn, "CREATE INDEX IDXYEAR on AUDIOTRACKS (YEAR asc);");
+		DatabaseMigration.execute(conn, "CREATE TABLE REGEXP_RULES ( ID VARCHAR2(255) PRIMARY KEY, RULE VARCHAR2(255), ORDR NUMERIC);");
+		DatabaseMigration.execute(conn, "INSERT INTO REGEXP_RULES VALUES ( '###', '(?i)^\\W.+', 0 );");
+		DatabaseMigration.execute(conn, "INSERT INTO REGEXP_RULES VALUES ( '0-9', '(?i)^\\d.+', 1 );");
+
+		try (PreparedStatement ps = conn.prepareStatement("INSERT INTO FILES (ID, FILENAME, MODIFIED, TYPE, DURATION, THUMB, CONTAINER, EMBEDDEDFONTEXISTS) VALUES (?, ?, ?, ?, ?, ?, ?, false)")) {
+			ps.setInt(1, 1);
+			ps.setString(2, "/music/track.flac");
+			ps.setTimestamp(3, new Timestamp(1000));
+			ps.setInt(4, 1);
+			ps.setDouble(5, 215.5);
+			ps.setBytes(6, THUMB);
+			ps.setString(7, "flac");
+			ps.executeUpdate();
+
+			ps.setInt(1, 2);
+			ps.setString(2, "/videos/movie.mkv");
+			ps.setTimestamp(3, new Timestamp(2000));
+			ps.setInt(4, 4);
+			ps.setDouble(5, 5400);
+			ps.setBytes(6, null);
+			ps.setString(7, "mkv");
+			ps.executeUpdate();
+		}
+
+		DatabaseMigration.execute(conn, "INSERT INTO AUDIOTRACKS (FILEID, ID, CODECA, ALBUM, ARTIST, SONGNAME, YEAR, TRACK) VALUES (1, 0, 'flac', 'Abbey Road', 'The Beatles', 'Come Together', 1969, 1)");
+		DatabaseMigration.execute(conn, "INSERT INTO SUBTRACKS (FILEID, ID, LANG, TYPE) VALUES (2, 0, 'eng', 1)");
+	}
+
+	private String query(String sql) throws SQLException {
+		try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+			return rs.next() ? rs.getString(1) : null;
+		}
+	}
+
+	@Test
+	public void testUpgradeKeepsEntries() throws SQLException {
+		DatabaseMigrator migrator = new DatabaseMigrator(thumbnails);
+		assertThat(migrator.canMigrate("1")).isTrue();
+
+		migrator.migrate(conn, "1");
+
+		assertThat(query("SELECT VALUE FROM METADATA WHERE KEY = 'VERSION'")).isEqualTo(Integer.toString(migrator.getLatestVersion()));
+		assertThat(query("SELECT COUNT(*) FROM FILES")).isEqualTo("2");
+		assertThat(query("SELECT DURATION FROM FILES WHERE ID = 2")).isEqualTo("5400.0");
+		assertThat(query("SELECT ARTIST FROM AUDIOTRACKS WHERE FILEID = 1")).isEqualTo("The Beatles");
+		assertThat(query("SELECT COUNT(*) FROM FOLDERS")).isEqualTo("0");
+		assertThat(query("SELECT COUNT(*) FROM PARSEFAILURES")).isEqualTo("0");
+
+		// The thumbnails have been moved to the store
+		assertThat(DatabaseMigration.hasColumn(conn, "FILES", "THUMB")).isFalse();
+		String hash = query("SELECT THUMBHASH FROM FILES WHERE ID = 1");
+		assertThat(hash).isNotNull();
+		assertThat(thumbnails.get(hash)).isEqualTo(THUMB);
+		assertThat(query("SELECT THUMBHASH FROM FILES WHERE ID = 2")).isNull();
+	}
+
+	@Test
+	public void testUpgradeResumes() throws SQLException {
+		DatabaseMigrator migrator = new DatabaseMigrator(thumbnails);
+
+		// An upgrade interrupted after the thumbnail column was added
+		DatabaseMigration.execute(conn, "ALTER TABLE FILES ADD COLUMN THUMBHASH VARCHAR2(40)");
+		migrator.migrate(conn, "1");
+
+		assertThat(DatabaseMigration.hasColumn(conn, "FILES", "THUMB")).isFalse();
+		assertThat(query("SELECT THUMBHASH FROM FILES WHERE ID = 1")).isNotNull();
+	}
+
+	@Test
+	public void testUnknownVersions() {
+		DatabaseMigrator migrator = new DatabaseMigrator(thumbnails);
+
+		assertThat(migrator.canMigrate(null)).isFalse();
+		assertThat(migrator.canMigrate("0")).isFalse();
+		assertThat(migrator.canMigrate("beta")).isFalse();
+		assertThat(migrator.canMigrate(Integer.toString(migrator.getLatestVersion() + 1))).isFalse();
+	}
+
+	@Test
+	public void testUpgradeInvalidatesImages() throws SQLException {
+		DatabaseMigrator migrator = new DatabaseMigrator(thumbnails);
+		migrator.migrate(conn, "1");
+		DatabaseMigration.execute(conn, "INSERT INTO FILES (ID, FILENAME, MODIFIED, TYPE, CONTAINER, EMBEDDEDFONTEXISTS) VALUES (3, '/photos/photo.jpg', NOW(), " + Format.IMAGE + ", 'jpg', false)");
+		DatabaseMigration.execute(conn, "UPDATE METADATA SET VALUE = '4' WHERE KEY = 'VERSION'");
+
+		migrator.migrate(conn, "4");
+
+		assertThat(query("SELECT COUNT(*) FROM FILES WHERE TYPE = " + Format.IMAGE)).isEqualTo("0");
+		assertThat(query("SELECT COUNT(*) FROM FILES")).isEqualTo("2");
+	}
+
+	@Test
+	public void testInvalidate() throws SQLException {
+		new DatabaseMigrator(thumbnails).migrate(conn, "1");
+		DatabaseMigration.execute(conn, "INSERT INTO FOLDERS VALUES ('/music', NOW(), 1, 0, NULL)");
+
+		assertThat(DatabaseMigration.invalidate(conn, "TYPE = 1")).isEqualTo(1);
+		assertThat(query("SELECT COUNT(*) FROM FILES")).isEqualTo("1");
+		assertThat(query("SELECT COUNT(*) FROM AUDIOTRACKS")).isEqualTo("0");
+		assertThat(query("SELECT COUNT(*) FROM FOLDERS")).isEqualTo("0");
+	}
+}
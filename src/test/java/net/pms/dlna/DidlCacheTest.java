@@ -0,0 +1,98 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import ch.qos.logback.classic.LoggerContext;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.dlna.virtual.VirtualFolder;
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class DidlCacheTest {
+	private RendererConfiguration renderer;
+
+	@Before
+	public void setUp() throws ConfigurationException {
+		// Silence all log messages from the PMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+
+		PmsConfiguration configuration = new PmsConfiguration(false);
+		PMS.setConfiguration(configuration);
+		RendererConfiguration.loadRendererConfigurations(configuration);
+		renderer = RendererConfiguration.getDefaultConf();
+	}
+
+	@Test
+	public void testInvalidateDropsOnlyTheContainer() {
+		VirtualFolder root = new VirtualFolder("root", null);
+		root.setIndexId(0);
+		VirtualFolder albums = new VirtualFolder("albums", null);
+		VirtualFolder artists = new VirtualFolder("artists", null);
+		VirtualFolder album = new VirtualFolder("album", null);
+		VirtualFolder artist = new VirtualFolder("artist", null);
+		root.addChildInternal(albums);
+		root.addChildInternal(artists);
+		albums.addChildInternal(album);
+		artists.addChildInternal(artist);
+
+		DidlCache cache = new DidlCache(100);
+		String didl = cache.getDidlString(album, renderer);
+		cache.getDidlString(albums, renderer);
+		cache.getDidlString(artist, renderer);
+		assertThat(cache.size()).isEqualTo(3);
+		assertThat(cache.getDidlString(album, renderer)).isSameAs(didl);
+		assertThat(cache.getHits()).isEqualTo(1);
+		assertThat(cache.getMisses()).isEqualTo(3);
+
+		cache.invalidate(albums);
+		assertThat(cache.size()).isEqualTo(1);
+		assertThat(cache.getDidlString(album, renderer)).isNotSameAs(didl);
+
+		// The fragment of the only child of the root that was cached is gone already
+		cache.invalidate(root);
+		assertThat(cache.size()).isEqualTo(2);
+	}
+
+	@Test
+	public void testEvictedFragmentsAreUnindexed() {
+		VirtualFolder root = new VirtualFolder("root", null);
+		root.setIndexId(0);
+		VirtualFolder first = new VirtualFolder("first", null);
+		VirtualFolder second = new VirtualFolder("second", null);
+		root.addChildInternal(first);
+		root.addChildInternal(second);
+
+		DidlCache cache = new DidlCache(1);
+		cache.getDidlString(first, renderer);
+		cache.getDidlString(second, renderer);
+		assertThat(cache.size()).isEqualTo(1);
+
+		cache.invalidate(first);
+		assertThat(cache.size()).isEqualTo(1);
+		cache.invalidate(second);
+		assertThat(cache.size()).isEqualTo(0);
+	}
+}
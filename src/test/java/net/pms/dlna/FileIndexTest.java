@@ -0,0 +1,65 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FileIndexTest {
+	@Test
+	public void testAddAndRemove() {
+		FileIndex index = new FileIndex();
+		index.add("/media/a.mkv", 1000);
+		index.add("/media/a.mkv", 1000);
+		index.add("/media/b.mkv", 2000);
+
+		assertThat(index.size()).isEqualTo(2);
+		assertThat(index.contains("/media/a.mkv", 1000)).isTrue();
+		assertThat(index.contains("/media/a.mkv", 2000)).isFalse();
+		assertThat(index.contains("/media/c.mkv", 1000)).isFalse();
+
+		index.remove("/media/a.mkv", 1000);
+		index.remove("/media/c.mkv", 1000);
+
+		assertThat(index.size()).isEqualTo(1);
+		assertThat(index.contains("/media/a.mkv", 1000)).isFalse();
+		assertThat(index.contains("/media/b.mkv", 2000)).isTrue();
+	}
+
+	@Test
+	public void testRemovalKeepsOtherEntriesReachable() {
+		FileIndex index = new FileIndex();
+		int count = 5000;
+
+		for (int i = 0; i < count; i++) {
+			index.add("/media/" + i, i);
+		}
+
+		for (int i = 0; i < count; i += 2) {
+			index.remove("/media/" + i, i);
+		}
+
+		assertThat(index.size()).isEqualTo(count / 2);
+
+		for (int i = 0; i < count; i++) {
+			assertThat(index.contains("/media/" + i, i)).isEqualTo(i % 2 == 1);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import ch.qos.logback.classic.LoggerContext;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FileWatcherTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws ConfigurationException {
+		// Silence all log messages from the PMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+
+		PmsConfiguration configuration = new PmsConfiguration(false);
+		configuration.setUseCache(false);
+		PMS.setConfiguration(configuration);
+	}
+
+	private static long awaitChange(FileWatcher watcher, File root, long generation) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+
+		while (watcher.getTreeGeneration(root) == generation && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+
+		return watcher.getTreeGeneration(root);
+	}
+
+	@Test
+	public void testTreeGenerationFollowsNewSubfolders() throws IOException, InterruptedException {
+		File root = folder.newFolder("root");
+		FileWatcher watcher = new FileWatcher(FileSystems.getDefault().newWatchService());
+		assertThat(watcher.watch(root, true)).isTrue();
+		long generation = watcher.getTreeGeneration(root);
+		assertThat(generation).isGreaterThanOrEqualTo(0);
+
+		File subfolder = new File(root, "album");
+		assertThat(subfolder.mkdir()).isTrue();
+		generation = awaitChange(watcher, root, generation);
+
+		// Watching the tree again doesn't walk it again nor reset its generation
+		assertThat(watcher.watch(root, true)).isTrue();
+		assertThat(watcher.getTreeGeneration(root)).isEqualTo(generation);
+
+		assertThat(new File(subfolder, "track.mp3").createNewFile()).isTrue();
+		assertThat(awaitChange(watcher, root, generation)).isNotEqualTo(generation);
+	}
+}
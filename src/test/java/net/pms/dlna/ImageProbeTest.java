@@ -0,0 +1,189 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import javax.imageio.ImageIO;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ImageProbeTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static byte[] encode(BufferedImage image, String format) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, format, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return A big-endian EXIF segment with a camera model, an
+	 *         orientation, an exposure time of 1/250 s, an ISO speed of 400
+	 *         and the given thumbnail.
+	 */
+	private static byte[] createExif(byte[] thumbnail) throws IOException {
+		return createExif(thumbnail, thumbnail.length);
+	}
+
+	/**
+	 * @param thumbnailLength The length of the thumbnail in IFD1, which may
+	 *                        be wrong.
+	 */
+	private static byte[] createExif(byte[] thumbnail, int thumbnailLength) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeBytes("Exif");
+		out.writeShort(0);
+
+		// TIFF header, IFD0 at 8: 3 entries, up to 50
+		out.writeBytes("MM");
+		out.writeShort(42);
+		out.writeInt(8);
+		out.writeShort(3);
+		writeEntry(out, 0x0110, 2, 8, 50);
+		writeEntry(out, 0x0112, 3, 1, 6 << 16);
+		writeEntry(out, 0x8769, 4, 1, 58);
+		out.writeInt(88);
+
+		// Model at 50
+		out.writeBytes("Camera\0\0");
+
+		// EXIF IFD at 58: 2 entries, up to 88
+		out.writeShort(2);
+		writeEntry(out, 0x829A, 5, 1, 122);
+		writeEntry(out, 0x8827, 3, 1, 400 << 16);
+		out.writeInt(0);
+
+		// IFD1 at 88: 2 entries, up to 118
+		out.writeShort(2);
+		writeEntry(out, 0x0201, 4, 1, 130);
+		writeEntry(out, 0x0202, 4, 1, thumbnailLength);
+		out.writeInt(0);
+
+		// Padding to 122, exposure time, thumbnail at 130
+		out.writeInt(0);
+		out.writeInt(1);
+		out.writeInt(250);
+		out.write(thumbnail);
+		return bytes.toByteArray();
+	}
+
+	private static void writeEntry(DataOutputStream out, int tag, int type, int count, int value) throws IOException {
+		out.writeShort(tag);
+		out.writeShort(type);
+		out.writeInt(count);
+		out.writeInt(value);
+	}
+
+	private File createJpeg(int width, int height, byte[] exif) throws IOException {
+		byte[] jpeg = encode(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "JPEG");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.write(jpeg, 0, 2);
+
+		if (exif != null) {
+			out.writeShort(0xFFE1);
+			out.writeShort(exif.length + 2);
+			out.write(exif);
+		}
+
+		out.write(jpeg, 2, jpeg.length - 2);
+		File file = folder.newFile();
+		Files.write(file.toPath(), bytes.toByteArray());
+		return file;
+	}
+
+	@Test
+	public void testJpeg() throws IOException {
+		byte[] thumbnail = encode(new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB), "JPEG");
+		ImageProbe probe = ImageProbe.probe(createJpeg(1200, 800, createExif(thumbnail)));
+
+		assertThat(probe).isNotNull();
+		assertThat(probe.getCodec()).isEqualTo("jpg");
+		assertThat(probe.getWidth()).isEqualTo(1200);
+		assertThat(probe.getHeight()).isEqualTo(800);
+		assertThat(probe.getBitsPerPixel()).isEqualTo(24);
+		assertThat(probe.getModel()).isEqualTo("Camera");
+		assertThat(probe.getOrientation()).isEqualTo(6);
+		assertThat(probe.getExposure()).isEqualTo(4);
+		assertThat(probe.getIso()).isEqualTo(400);
+		assertThat(probe.getExifThumbnail()).isEqualTo(thumbnail);
+	}
+
+	@Test
+	public void testInvalidThumbnailLength() throws IOException {
+		byte[] thumbnail = encode(new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB), "JPEG");
+
+		// Past the end of the segment
+		ImageProbe probe = ImageProbe.probe(createJpeg(1200, 800, createExif(thumbnail, thumbnail.length + 1)));
+		assertThat(probe).isNotNull();
+		assertThat(probe.getWidth()).isEqualTo(1200);
+		assertThat(probe.getModel()).isEqualTo("Camera");
+		assertThat(probe.getExifThumbnail()).isNull();
+
+		// Overflows the end offset of the thumbnail
+		probe = ImageProbe.probe(createJpeg(1200, 800, createExif(thumbnail, Integer.MAX_VALUE)));
+		assertThat(probe).isNotNull();
+		assertThat(probe.getHeight()).isEqualTo(800);
+		assertThat(probe.getExifThumbnail()).isNull();
+	}
+
+	@Test
+	public void testThumbnail() throws IOException {
+		File file = createJpeg(1200, 800, null);
+		ImageProbe probe = ImageProbe.probe(file);
+
+		assertThat(probe.getExifThumbnail()).isNull();
+		BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(probe.createThumbnail(file, 320, 180)));
+		assertThat(thumbnail.getWidth()).isEqualTo(270);
+		assertThat(thumbnail.getHeight()).isEqualTo(180);
+	}
+
+	@Test
+	public void testOtherFormats() throws IOException {
+		File png = folder.newFile();
+		Files.write(png.toPath(), encode(new BufferedImage(300, 200, BufferedImage.TYPE_INT_ARGB), "PNG"));
+		ImageProbe probe = ImageProbe.probe(png);
+		assertThat(probe.getCodec()).isEqualTo("png");
+		assertThat(probe.getWidth()).isEqualTo(300);
+		assertThat(probe.getHeight()).isEqualTo(200);
+		assertThat(probe.getBitsPerPixel()).isEqualTo(32);
+
+		File gif = folder.newFile();
+		Files.write(gif.toPath(), encode(new BufferedImage(300, 200, BufferedImage.TYPE_BYTE_INDEXED), "GIF"));
+		probe = ImageProbe.probe(gif);
+		assertThat(probe.getCodec()).isEqualTo("gif");
+		assertThat(probe.getWidth()).isEqualTo(300);
+		assertThat(probe.getHeight()).isEqualTo(200);
+
+		File bmp = folder.newFile();
+		Files.write(bmp.toPath(), encode(new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB), "BMP"));
+		assertThat(ImageProbe.probe(bmp)).isNull();
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import ch.qos.logback.classic.LoggerContext;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.SortedMap;
+import net.pms.PMS;
+import net.pms.configuration.MapFileConfiguration;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.util.UMSUtils;
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MapFileTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws ConfigurationException {
+		// Silence all log messages from the PMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+
+		PMS.setConfiguration(new PmsConfiguration(false));
+	}
+
+	private static void createFiles(File dir, String prefix, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			assertThat(new File(dir, String.format("%s%05d.mp3", prefix, i)).createNewFile()).isTrue();
+		}
+	}
+
+	/**
+	 * A folder with more entries than the A-Z limit is split into letter
+	 * folders, which are enumerated lazily when they are large enough.
+	 */
+	@Test
+	public void testLettersOfLargeFolders() throws IOException {
+		PmsConfiguration configuration = PMS.getConfiguration();
+		int atzLimit = configuration.getATZLimit();
+		int lazyLimit = configuration.getLazyFolderLimit();
+		assertThat(atzLimit).isGreaterThan(lazyLimit);
+
+		File dir = folder.newFolder("large");
+		int large = atzLimit;
+		int small = lazyLimit / 2;
+		createFiles(dir, "a", large);
+		createFiles(dir, "b", small);
+
+		MapFileConfiguration conf = new MapFileConfiguration();
+		conf.getFiles().add(dir);
+		MapFile mapFile = new MapFile(conf);
+
+		// Listed and sorted once, before the split
+		List<File> entries = mapFile.getEntries(UMSUtils.SORT_LOC_NAT);
+		assertThat(entries).hasSize(large + small);
+		assertThat(mapFile.getEntries(UMSUtils.SORT_LOC_NAT)).isSameAs(entries);
+
+		SortedMap<String, List<File>> letters = MapFile.groupByLetter(entries);
+		assertThat(letters.keySet()).containsOnly("A", "B");
+		assertThat(letters.get("A")).hasSize(large);
+		assertThat(letters.get("A").get(0).getName()).isEqualTo("a00000.mp3");
+
+		MapFile letterA = new MapFile(conf, letters.get("A"));
+		letterA.discoverChildren();
+		assertThat(letterA.isLazilyEnumerated()).isTrue();
+		assertThat(letterA.childrenNumber()).isEqualTo(large);
+
+		MapFile letterB = new MapFile(conf, letters.get("B"));
+		letterB.discoverChildren();
+		assertThat(letterB.isLazilyEnumerated()).isFalse();
+	}
+}
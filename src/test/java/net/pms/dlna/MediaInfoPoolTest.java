@@ -0,0 +1,110 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MediaInfoPoolTest {
+	/**
+	 * A handle that doesn't need the native library.
+	 */
+	private static class FakeMediaInfo extends MediaInfo {
+		private boolean disposed;
+
+		@Override
+		public boolean isValid() {
+			return !disposed;
+		}
+
+		@Override
+		public void dispose() {
+			disposed = true;
+		}
+
+		@Override
+		public String Option(String option, String value) {
+			return "";
+		}
+	}
+
+	private static class FakeMediaInfoPool extends MediaInfoPool {
+		private final AtomicInteger created = new AtomicInteger();
+
+		FakeMediaInfoPool(MediaInfo first, int size) {
+			super(first, size);
+		}
+
+		@Override
+		MediaInfo newHandle() {
+			created.incrementAndGet();
+			return new FakeMediaInfo();
+		}
+	}
+
+	@Test
+	public void testDiscardedFirstHandleIsReplaced() throws InterruptedException {
+		FakeMediaInfo first = new FakeMediaInfo();
+		FakeMediaInfoPool pool = new FakeMediaInfoPool(first, 1);
+
+		assertThat(pool.acquire()).isSameAs(first);
+
+		// The parse failed with the first handle
+		pool.discard(first);
+		assertThat(first.isValid()).isFalse();
+
+		// The next parse gets a new handle
+		MediaInfo second = pool.acquire();
+		assertThat(second).isNotNull();
+		assertThat(second).isNotSameAs(first);
+		assertThat(second.isValid()).isTrue();
+		assertThat(pool.created.get()).isEqualTo(1);
+
+		pool.release(second);
+		assertThat(pool.acquire()).isSameAs(second);
+	}
+
+	@Test
+	public void testHandlesAreCreatedUpToTheSize() throws InterruptedException {
+		FakeMediaInfo first = new FakeMediaInfo();
+		FakeMediaInfoPool pool = new FakeMediaInfoPool(first, 2);
+
+		MediaInfo a = pool.acquire();
+		MediaInfo b = pool.acquire();
+		assertThat(a).isSameAs(first);
+		assertThat(b).isNotSameAs(first);
+		assertThat(pool.created.get()).isEqualTo(1);
+
+		pool.release(a);
+		assertThat(pool.acquire()).isSameAs(first);
+		assertThat(pool.created.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void testClose() throws InterruptedException {
+		FakeMediaInfo first = new FakeMediaInfo();
+		FakeMediaInfoPool pool = new FakeMediaInfoPool(first, 1);
+
+		pool.close();
+		assertThat(first.isValid()).isFalse();
+		assertThat(pool.acquire()).isNull();
+	}
+}
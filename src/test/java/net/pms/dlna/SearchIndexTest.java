@@ -0,0 +1,75 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.util.Arrays;
+import net.pms.formats.Format;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SearchIndexTest {
+	private SearchIndex createIndex() {
+		SearchIndex index = new SearchIndex();
+		index.add("/music/01 Come Together.flac", 1000, Format.AUDIO, Arrays.asList("Abbey Road", "The Beatles", "Come Together", "Rock"));
+		index.add("/music/02 Something.flac", 1000, Format.AUDIO, Arrays.asList("Abbey Road", "The Beatles", "Something", "Rock"));
+		index.add("/videos/Abbey Road Studios.mkv", 2000, Format.VIDEO, Arrays.asList("Abbey Road Studios.mkv"));
+		return index;
+	}
+
+	@Test
+	public void testWordPrefixes() {
+		SearchIndex index = createIndex();
+
+		assertThat(index.search("beat abb", 0)).containsExactly(
+			"/music/01 Come Together.flac",
+			"/music/02 Something.flac"
+		);
+		assertThat(index.search("ABBEY", 0)).hasSize(3);
+		assertThat(index.search("abbey studios", 0)).containsExactly("/videos/Abbey Road Studios.mkv");
+		assertThat(index.search("bey", 0)).isEmpty();
+		assertThat(index.search("  ", 0)).isEmpty();
+	}
+
+	@Test
+	public void testType() {
+		SearchIndex index = createIndex();
+
+		assertThat(index.search("abbey", Format.VIDEO)).containsExactly("/videos/Abbey Road Studios.mkv");
+		assertThat(index.search("", Format.AUDIO)).hasSize(2);
+	}
+
+	@Test
+	public void testUpdates() {
+		SearchIndex index = createIndex();
+		index.add("/music/02 Something.flac", 3000, Format.AUDIO, Arrays.asList("Something", "Joe Cocker"));
+
+		assertThat(index.size()).isEqualTo(3);
+		assertThat(index.search("beatles", 0)).containsExactly("/music/01 Come Together.flac");
+		assertThat(index.search("cocker", 0)).containsExactly("/music/02 Something.flac");
+
+		// Stale modification time
+		index.remove("/music/02 Something.flac", 1000);
+		assertThat(index.search("cocker", 0)).hasSize(1);
+
+		index.remove("/music/02 Something.flac", 3000);
+		assertThat(index.search("cocker", 0)).isEmpty();
+		assertThat(index.size()).isEqualTo(2);
+	}
+}
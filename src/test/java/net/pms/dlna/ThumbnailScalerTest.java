@@ -0,0 +1,69 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ThumbnailScalerTest {
+	private static byte[] createJpeg(int width, int height) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "JPEG", out);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testScale() throws IOException {
+		byte[] thumb = createJpeg(320, 180);
+
+		assertThat(ThumbnailScaler.getDimension(thumb)).isEqualTo(new Dimension(320, 180));
+		assertThat(ThumbnailScaler.scale(thumb, ThumbnailSize.SM)).isSameAs(thumb);
+		assertThat(ThumbnailScaler.getDimension(ThumbnailScaler.scale(thumb, ThumbnailSize.TN))).isEqualTo(new Dimension(160, 90));
+
+		Map<ThumbnailSize, byte[]> scaled = ThumbnailScaler.scaleAll(createJpeg(1280, 720));
+		assertThat(ThumbnailScaler.getDimension(scaled.get(ThumbnailSize.TN))).isEqualTo(new Dimension(160, 90));
+		assertThat(ThumbnailScaler.getDimension(scaled.get(ThumbnailSize.SM))).isEqualTo(new Dimension(640, 360));
+	}
+
+	@Test
+	public void testInvalidData() {
+		byte[] data = {1, 2, 3};
+
+		assertThat(ThumbnailScaler.getDimension(data)).isNull();
+		assertThat(ThumbnailScaler.scale(data, ThumbnailSize.TN)).isSameAs(data);
+		assertThat(ThumbnailScaler.scaleAll(data)).isEmpty();
+	}
+
+	@Test
+	public void testFileNames() {
+		assertThat(ThumbnailSize.fromFileName("thumbnail0160Sintel.mkv")).isEqualTo(ThumbnailSize.TN);
+		assertThat(ThumbnailSize.fromFileName("thumbnail0640Sintel.mkv")).isEqualTo(ThumbnailSize.SM);
+		assertThat(ThumbnailSize.fromFileName("thumbnail0000Sintel.mkv")).isNull();
+		assertThat(ThumbnailSize.isThumbnail("thumbnail0000Sintel.mkv")).isTrue();
+		assertThat(ThumbnailSize.isThumbnail("thumbnail0160Sintel.mkv")).isTrue();
+		assertThat(ThumbnailSize.isThumbnail("Sintel.mkv")).isFalse();
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ThumbnailServiceTest {
+	private static final byte[] THUMB = {1, 2, 3};
+
+	@Test
+	public void testPendingThumbnailsAreGeneratedOnce() throws InterruptedException {
+		ThumbnailService service = new ThumbnailService(2);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger generations = new AtomicInteger();
+		Callable<byte[]> generator = new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws InterruptedException {
+				generations.incrementAndGet();
+				release.await();
+				return THUMB;
+			}
+		};
+
+		// Placeholders are sent while the thumbnail is generated
+		assertThat(service.generate("movie.mkv|1000|2.0", generator, 0)).isNull();
+		assertThat(service.generate("movie.mkv|1000|2.0", generator, 10)).isNull();
+		assertThat(service.isPending("movie.mkv|1000|2.0")).isTrue();
+
+		release.countDown();
+		assertThat(service.generate("movie.mkv|1000|2.0", generator, 5000)).isEqualTo(THUMB);
+
+		// The generated thumbnail is kept for the next requests
+		assertThat(service.generate("movie.mkv|1000|2.0", generator, 0)).isEqualTo(THUMB);
+		assertThat(generations.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void testTimeout() throws InterruptedException {
+		ThumbnailService service = new ThumbnailService(1);
+		final CountDownLatch stopped = new CountDownLatch(1);
+
+		service.scheduleTimeout(new Runnable() {
+			@Override
+			public void run() {
+				stopped.countDown();
+			}
+		}, 10);
+		assertThat(stopped.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.network;
+
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.lang3.StringUtils;
+import org.jboss.netty.buffer.ChannelBuffer;
+import static org.fest.assertions.Assertions.assertThat;
+import org.junit.Test;
+
+public class ResponseWriterTest {
+	@Test
+	public void testEncodesLikeGetBytes() {
+		String text = "<dc:title>Café 日本 🎥</dc:title>";
+		ResponseWriter writer = new ResponseWriter().append(text).append(42);
+		byte[] expected = (text + 42).getBytes(StandardCharsets.UTF_8);
+
+		ChannelBuffer buffer = writer.toChannelBuffer();
+		byte[] actual = new byte[buffer.readableBytes()];
+		buffer.readBytes(actual);
+
+		assertThat(writer.length()).isEqualTo(expected.length);
+		assertThat(actual).isEqualTo(expected);
+		assertThat(writer.toString()).isEqualTo(text + 42);
+	}
+
+	@Test
+	public void testMultibyteCharactersAcrossChunks() {
+		ResponseWriter writer = new ResponseWriter();
+		StringBuilder expected = new StringBuilder();
+
+		// 3 byte characters never line up with the chunk boundaries
+		for (int i = 0; i < 10000; i++) {
+			String item = "日" + StringUtils.repeat('x', i % 7);
+			writer.append(item);
+			expected.append(item);
+		}
+
+		byte[] bytes = expected.toString().getBytes(StandardCharsets.UTF_8);
+		assertThat(writer.length()).isEqualTo(bytes.length);
+		assertThat(writer.toString()).isEqualTo(expected.toString());
+	}
+}
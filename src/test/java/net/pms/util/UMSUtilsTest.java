@@ -0,0 +1,89 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.util;
+
+import net.pms.formats.Format;
+import static org.fest.assertions.Assertions.assertThat;
+import org.junit.Test;
+
+public class UMSUtilsTest {
+	@Test
+	public void testGetSearchWordsAnd() {
+		assertThat(UMSUtils.getSearchWords(
+			"dc:title contains \"Beatles\" and upnp:album contains \"Abbey Road\""
+		)).containsExactly("beatles abbey road");
+	}
+
+	@Test
+	public void testGetSearchWordsOr() {
+		assertThat(UMSUtils.getSearchWords(
+			"dc:title contains \"beatles\" or upnp:album contains \"abbey\""
+		)).containsExactly("beatles", "abbey");
+	}
+
+	@Test
+	public void testGetSearchWordsSameWordInSeveralProperties() {
+		assertThat(UMSUtils.getSearchWords(
+			"(upnp:class derivedfrom \"object.item.audioItem\" and (dc:title contains \"help\" or upnp:artist contains \"help\" or upnp:album contains \"help\"))"
+		)).containsExactly("help");
+	}
+
+	@Test
+	public void testGetSearchWordsDistributesAnd() {
+		assertThat(UMSUtils.getSearchWords(
+			"dc:title contains \"help\" and (upnp:artist contains \"beatles\" or upnp:artist contains \"dylan\")"
+		)).containsExactly("help beatles", "help dylan");
+	}
+
+	@Test
+	public void testGetSearchWordsEscaped() {
+		assertThat(UMSUtils.getSearchWords(
+			"dc:title contains &quot;say \\&quot;hi\\&quot;&quot; and @refID exists false"
+		)).containsExactly("say \"hi\"");
+	}
+
+	@Test
+	public void testGetSearchWordsClassOnly() {
+		assertThat(UMSUtils.getSearchWords("upnp:class derivedfrom \"object.item.videoItem\"")).containsExactly("");
+		assertThat(UMSUtils.getSearchWords("*")).containsExactly("");
+	}
+
+	@Test
+	public void testGetSearchWordsUnsupported() {
+		assertThat(UMSUtils.getSearchWords("dc:title doesNotContain \"beatles\"")).isNull();
+		assertThat(UMSUtils.getSearchWords("dc:title contains \"beatles\" and (")).isNull();
+		assertThat(UMSUtils.getSearchWords("dc:title contains \"beatles\")")).isNull();
+		assertThat(UMSUtils.getSearchWords("")).isNull();
+	}
+
+	@Test
+	public void testGetSearchType() {
+		assertThat(UMSUtils.getSearchType("upnp:class derivedfrom \"object.item.audioItem\" and dc:title contains \"x\"")).isEqualTo(Format.AUDIO);
+		assertThat(UMSUtils.getSearchType("upnp:class derivedfrom &quot;object.item.imageItem&quot;")).isEqualTo(Format.IMAGE);
+		assertThat(UMSUtils.getSearchType("upnp:class = \"object.item.videoItem.movie\"")).isEqualTo(Format.VIDEO);
+		assertThat(UMSUtils.getSearchType("dc:title contains \"x\"")).isEqualTo(0);
+	}
+
+	@Test
+	public void testGetSearchTypeSeveralTypes() {
+		assertThat(UMSUtils.getSearchType(
+			"upnp:class derivedfrom \"object.item.audioItem\" or upnp:class derivedfrom \"object.item.videoItem\""
+		)).isEqualTo(0);
+	}
+}